@@ -24,10 +24,17 @@
 package opendial;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 
@@ -46,12 +53,14 @@ import opendial.bn.nodes.UtilityNode;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
 import opendial.datastructs.ValueRange;
+import opendial.datastructs.Variables;
 import opendial.domains.rules.Rule;
 import opendial.domains.rules.distribs.AnchoredRule;
 import opendial.domains.rules.distribs.EquivalenceDistribution;
 import opendial.domains.rules.distribs.OutputDistribution;
 import opendial.inference.SwitchingAlgorithm;
 import opendial.inference.approximate.SamplingAlgorithm;
+import opendial.inference.exact.JunctionTree;
 import opendial.modules.StatePruner;
 import opendial.templates.Template;
 
@@ -90,6 +99,19 @@ public class DialogueState extends BNetwork {
      */
     Set<String> incrementalVars;
 
+    // inference algorithm for probability queries (caching its clique tree)
+    private final JunctionTree inference = new JunctionTree();
+
+    // results of the probability queries for the current version of the state
+    private final Map<List<?>, Object> queryCache = new HashMap<List<?>, Object>();
+
+    // state version for which the cached results are valid
+    private long queryCacheVersion = -1;
+
+    // number of cache hits and misses for the probability queries
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger cacheMisses = new AtomicInteger();
+
     // ===================================
     // DIALOGUE STATE CONSTRUCTION
     // ===================================
@@ -158,6 +180,7 @@ public class DialogueState extends BNetwork {
         if (network instanceof DialogueState) {
             evidence.addAssignment(((DialogueState) network).getEvidence());
         }
+        updateVersion();
     }
 
     /**
@@ -167,6 +190,7 @@ public class DialogueState extends BNetwork {
      */
     public void clearEvidence(Collection<String> variables) {
         evidence.removePairs(variables);
+        updateVersion();
     }
 
     /**
@@ -176,6 +200,7 @@ public class DialogueState extends BNetwork {
      */
     public void addEvidence(Assignment assignment) {
         evidence.addAssignment(assignment);
+        updateVersion();
     }
 
     /**
@@ -224,7 +249,7 @@ public class DialogueState extends BNetwork {
      * @param distrib the distribution to include
      */
     public void addToState(ProbDistribution distrib) {
-        String variable = distrib.getVariable() + "'";
+        String variable = Variables.addPrime(distrib.getVariable());
         setAsCommitted(variable);
         distrib.modifyVariableId(distrib.getVariable(), variable);
         ChanceNode newNode = new ChanceNode(variable, distrib);
@@ -267,7 +292,7 @@ public class DialogueState extends BNetwork {
             IndependentDistribution newtable =
                     queryProb(var).toDiscrete().concatenate(distrib);
             getChanceNode(var).setDistrib(newtable);
-            getChanceNode(var).setId(var + "'");
+            getChanceNode(var).setId(Variables.addPrime(var));
         } else {
             addToState(distrib);
         }
@@ -283,6 +308,7 @@ public class DialogueState extends BNetwork {
     public synchronized void addToState(DialogueState newState) {
         addToState((BNetwork) newState);
         evidence.addAssignment(newState.getEvidence().addPrimes());
+        updateVersion();
     }
 
     /**
@@ -293,7 +319,7 @@ public class DialogueState extends BNetwork {
      */
     public synchronized void addToState(BNetwork newState) {
         for (ChanceNode cn : new ArrayList<ChanceNode>(newState.getChanceNodes())) {
-            cn.setId(cn.getId() + "'");
+            cn.setId(Variables.addPrime(cn.getId()));
             addNode(cn);
             connectToPredictions(cn);
         }
@@ -327,21 +353,47 @@ public class DialogueState extends BNetwork {
      * @param r the rule to apply.
      */
     public void applyRule(Rule r) {
+        for (AnchoredRule arule : anchorRule(r)) {
+            addAnchoredRule(arule);
+        }
+    }
 
+    /**
+     * Anchors the rule in the dialogue state, for each possible filling of its
+     * slots, and returns the relevant anchored rules. The method does not modify
+     * the dialogue state, and can therefore be called concurrently for distinct
+     * rules (as long as the state is not modified in the meantime).
+     *
+     * @param r the rule to anchor
+     * @return the relevant anchored rules
+     */
+    public List<AnchoredRule> anchorRule(Rule r) {
+        List<AnchoredRule> arules = new ArrayList<AnchoredRule>();
         Set<Assignment> slots = getMatchingSlots(r.getInputVariables()).linearise();
         for (Assignment filledSlot : slots) {
             AnchoredRule arule = new AnchoredRule(r, this, filledSlot);
             if (arule.isRelevant()) {
-                switch (r.getRuleType()) {
-                    case PROB:
-                        addProbabilityRule(arule);
-                        break;
-                    case UTIL:
-                        addUtilityRule(arule);
-                        break;
-                }
+                arules.add(arule);
             }
         }
+        return arules;
+    }
+
+    /**
+     * Adds the anchored rule to the dialogue state, together with its output (or
+     * action) nodes.
+     *
+     * @param arule the anchored rule to add
+     */
+    public void addAnchoredRule(AnchoredRule arule) {
+        switch (arule.getRule().getRuleType()) {
+            case PROB:
+                addProbabilityRule(arule);
+                break;
+            case UTIL:
+                addUtilityRule(arule);
+                break;
+        }
     }
 
     /**
@@ -350,7 +402,7 @@ public class DialogueState extends BNetwork {
      */
     public void setAsNew() {
         for (ChanceNode var : new ArrayList<ChanceNode>(getChanceNodes())) {
-            var.setId(var.getId() + "'");
+            var.setId(Variables.addPrime(var.getId()));
         }
     }
 
@@ -358,6 +410,26 @@ public class DialogueState extends BNetwork {
     // GETTERS
     // ===================================
 
+    /**
+     * Returns the number of probability queries whose result was retrieved from the
+     * cache of the dialogue state.
+     *
+     * @return the number of cache hits
+     */
+    public int getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Returns the number of probability queries whose result had to be computed
+     * (since it was not present in the cache of the dialogue state).
+     *
+     * @return the number of cache misses
+     */
+    public int getCacheMisses() {
+        return cacheMisses.get();
+    }
+
     /**
      * Returns the evidence associated with the dialogue state.
      *
@@ -380,7 +452,8 @@ public class DialogueState extends BNetwork {
 
     /**
      * Returns the probability distribution corresponding to the values of the state
-     * variable provided as argument.
+     * variable provided as argument. The returned distribution is not shared with
+     * the dialogue state, and can thus be modified by the caller.
      *
      * @param variable        the variable label to query
      * @param includeEvidence whether to include or ignore the evidence in the
@@ -394,16 +467,20 @@ public class DialogueState extends BNetwork {
             ChanceNode cn = getChanceNode(variable);
 
             // if the distribution can be retrieved without inference, we simply
-            // return it
+            // return a copy of it (as the node distribution may be shared with
+            // other copies of the state)
             if (cn.getDistrib() instanceof IndependentDistribution && Collections
                     .disjoint(cn.getClique(), evidence.getVariables())) {
-                return (IndependentDistribution) cn.getDistrib();
+                return ((IndependentDistribution) cn.getDistrib()).copy();
             } else {
                 try {
                     Assignment queryEvidence =
-                            (includeEvidence) ? evidence : new Assignment();
-                    return new SwitchingAlgorithm().queryProb(this, variable,
-                            queryEvidence);
+                            (includeEvidence) ? new Assignment(evidence)
+                                    : new Assignment();
+                    return queryCached(Arrays.asList(variable, queryEvidence),
+                            () -> inference.queryProb(this, variable,
+                                    queryEvidence),
+                            IndependentDistribution::copy);
                 } catch (RuntimeException e) {
                     log.warning("Error querying variable " + variable + " : " + e);
                     return new SingleValueDistribution(variable,
@@ -431,7 +508,11 @@ public class DialogueState extends BNetwork {
         }
         // else, perform the inference operation
         try {
-            return new SwitchingAlgorithm().queryProb(this, variables, evidence);
+            Assignment queryEvidence = new Assignment(evidence);
+            return queryCached(
+                    Arrays.asList(new HashSet<String>(variables), queryEvidence),
+                    () -> inference.queryProb(this, variables, queryEvidence),
+                    MultivariateDistribution::copy);
         }
 
         // if everything fails, returns an empty table
@@ -551,7 +632,7 @@ public class DialogueState extends BNetwork {
      * @return true if the variable is incremental, false otherwise
      */
     public boolean isIncremental(String var) {
-        return incrementalVars.contains(var.replace("'", ""));
+        return incrementalVars.contains(Variables.removePrimes(var));
     }
 
     /**
@@ -584,13 +665,17 @@ public class DialogueState extends BNetwork {
     }
 
     /**
-     * Returns a copy of the dialogue state
+     * Returns a copy of the dialogue state. The distributions of the nodes are
+     * shared between the two states, and are only copied when modified in one of
+     * them (copy-on-write). Copying a state (e.g. for planning or learning) is
+     * therefore cheap, even for large states.
      *
      * @return the copy
      */
     @Override
     public DialogueState copy() {
-        DialogueState sn = new DialogueState(super.copy());
+        DialogueState sn = new DialogueState();
+        super.sharedCopy(sn);
         sn.addEvidence(evidence.copy());
         sn.parameterVars = new HashSet<String>(parameterVars);
         sn.incrementalVars = new HashSet<String>(incrementalVars);
@@ -645,6 +730,42 @@ public class DialogueState extends BNetwork {
     // PRIVATE METHODS
     // ===================================
 
+    /**
+     * Returns the result of the probability query identified by the key (query
+     * variables and evidence), using the cached result if the query was already
+     * performed on the current version of the state. The cache is emptied whenever
+     * the state version changes. The cached results are never returned directly
+     * (only copies of them), since callers may modify the distributions.
+     *
+     * @param key   the query variables and evidence
+     * @param query the function performing the query
+     * @param copy  the function copying a query result
+     * @return the query result
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T queryCached(List<?> key, Supplier<T> query, UnaryOperator<T> copy) {
+        long version = getVersion();
+        synchronized (queryCache) {
+            if (version != queryCacheVersion) {
+                queryCache.clear();
+                queryCacheVersion = version;
+            }
+            T cached = (T) queryCache.get(key);
+            if (cached != null) {
+                cacheHits.incrementAndGet();
+                return copy.apply(cached);
+            }
+        }
+        cacheMisses.incrementAndGet();
+        T result = query.get();
+        synchronized (queryCache) {
+            if (version == queryCacheVersion) {
+                queryCache.put(key, copy.apply(result));
+            }
+        }
+        return result;
+    }
+
     /**
      * Adds the probability rule to the dialogue state
      *
@@ -683,7 +804,8 @@ public class DialogueState extends BNetwork {
             // else, simply add an additional edge
             else {
                 outputNode = getChanceNode(updatedVar);
-                outputDistrib = (OutputDistribution) outputNode.getDistrib();
+                outputDistrib =
+                        (OutputDistribution) outputNode.getMutableDistrib();
             }
             outputNode.addInputNode(ruleNode);
             outputDistrib.addAnchoredRule(arule);
@@ -739,8 +861,8 @@ public class DialogueState extends BNetwork {
         String outputVar = outputNode.getId();
 
         // adding the connection between the predicted and observed values
-        String baseVar = outputVar.substring(0, outputVar.length() - 1);
-        String predictEquiv = baseVar + "^p";
+        String baseVar = Variables.removePrime(outputVar);
+        String predictEquiv = Variables.getPrediction(baseVar);
         if (hasChanceNode(predictEquiv) && !outputVar.contains("^p")) {
             ChanceNode equalityNode = new ChanceNode("=_" + baseVar,
                     new EquivalenceDistribution(baseVar));
@@ -34,6 +34,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,7 +49,6 @@ import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
 import opendial.datastructs.SpeechData;
 import opendial.domains.Domain;
-import opendial.domains.Model;
 import opendial.gui.GUIFrame;
 import opendial.gui.TextOnlyInterface;
 import opendial.modules.AudioModule;
@@ -58,6 +60,7 @@ import opendial.modules.RemoteConnector;
 import opendial.modules.simulation.Simulator;
 import opendial.readers.XMLDomainReader;
 import opendial.readers.XMLDialogueReader;
+import opendial.utils.RandomUtils;
 
 /**
  * <p>
@@ -95,6 +98,15 @@ public class DialogueSystem {
     // whether the system is paused or active
     protected boolean paused = true;
 
+    // the executor for the updates of the dialogue state
+    protected UpdateExecutor updater;
+
+    // random generator for the updates (if a seed is given in the settings)
+    private SplittableRandom random;
+
+    // seed of the random generator
+    private Long randomSeed;
+
     // ===================================
     // SYSTEM INITIALISATION
     // ===================================
@@ -114,6 +126,7 @@ public class DialogueSystem {
         modules.add(new RemoteConnector(this));
         modules.add(new ForwardPlanner(this));
         domain = new Domain();
+        updater = new UpdateExecutor();
 
     }
 
@@ -137,6 +150,28 @@ public class DialogueSystem {
         changeDomain(XMLDomainReader.extractDomain(domainFile));
     }
 
+    /**
+     * Creates a new headless dialogue system for the provided domain, with the
+     * given settings. Contrary to the other constructors, the GUI, recorder and
+     * remote connector are not attached, and the settings are not copied. This
+     * constructor is employed for lightweight dialogue systems that share their
+     * domain and settings with many others (such as dialogue sessions).
+     *
+     * @param domain   the dialogue domain to employ
+     * @param settings the (shared) system settings
+     */
+    protected DialogueSystem(Domain domain, Settings settings) {
+        this.domain = domain;
+        this.settings = settings;
+        modules = new ArrayList<Module>();
+        modules.add(new ForwardPlanner(this));
+        updater = new UpdateExecutor();
+        synchronized (domain) {
+            curState = domain.getInitialState().copy();
+            curState.setParameters(domain.getParameters());
+        }
+    }
+
     /**
      * Starts the dialogue system and its modules.
      */
@@ -157,10 +192,7 @@ public class DialogueSystem {
                 modules.remove(module);
             }
         }
-        synchronized (curState) {
-            curState.setAsNew();
-            update();
-        }
+        UpdateExecutor.waitFor(submitUpdate(s -> s.setAsNew()));
     }
 
     /**
@@ -255,9 +287,8 @@ public class DialogueSystem {
             module.pause(toPause);
         }
         if (!toPause && !curState.getNewVariables().isEmpty()) {
-            synchronized (curState) {
-                update();
-            }
+            UpdateExecutor.waitFor(submitUpdate(s -> {
+            }));
         }
     }
 
@@ -345,8 +376,7 @@ public class DialogueSystem {
      * @return the variables that were updated in the process not be updated
      */
     public Set<String> addUserInput(String userInput) {
-        Assignment a = new Assignment(settings.userInput, userInput);
-        return addContent(a);
+        return UpdateExecutor.waitFor(addUserInputAsync(userInput));
     }
 
     /**
@@ -357,13 +387,7 @@ public class DialogueSystem {
      * @return the variables that were updated in the process not be updated
      */
     public Set<String> addUserInput(Map<String, Double> userInput) {
-        String var = (!settings.invertedRole) ? settings.userInput
-                : settings.systemOutput;
-        CategoricalTable.Builder builder = new CategoricalTable.Builder(var);
-        for (String input : userInput.keySet()) {
-            builder.addRow(input, userInput.get(input));
-        }
-        return addContent(builder.build());
+        return UpdateExecutor.waitFor(addUserInputAsync(userInput));
     }
 
     /**
@@ -379,6 +403,37 @@ public class DialogueSystem {
         return addContent(a);
     }
 
+    /**
+     * Schedules the addition of the user input (assuming a perfect confidence
+     * score) to the dialogue state, followed by an update of the state. The method
+     * returns without waiting for the update to be performed.
+     *
+     * @param userInput the user input as a string
+     * @return the future set of variables updated in the process
+     */
+    public CompletableFuture<Set<String>> addUserInputAsync(String userInput) {
+        return addContentAsync(new Assignment(settings.userInput, userInput));
+    }
+
+    /**
+     * Schedules the addition of the user input (as a N-best list) to the dialogue
+     * state, followed by an update of the state. The method returns without waiting
+     * for the update to be performed.
+     *
+     * @param userInput the user input as an N-best list
+     * @return the future set of variables updated in the process
+     */
+    public CompletableFuture<Set<String>> addUserInputAsync(
+            Map<String, Double> userInput) {
+        String var = (!settings.invertedRole) ? settings.userInput
+                : settings.systemOutput;
+        CategoricalTable.Builder builder = new CategoricalTable.Builder(var);
+        for (String input : userInput.keySet()) {
+            builder.addRow(input, userInput.get(input));
+        }
+        return addContentAsync(builder.build());
+    }
+
     /**
      * Adds the content (expressed as a pair of variable=value) to the current
      * dialogue state, and subsequently updates the dialogue state.
@@ -388,13 +443,7 @@ public class DialogueSystem {
      * @return the variables that were updated in the process not be updated.
      */
     public Set<String> addContent(String variable, String value) {
-        if (!paused) {
-            curState.addToState(new Assignment(variable, value));
-            return update();
-        } else {
-            log.info("system is paused, ignoring " + variable + "=" + value);
-            return Collections.emptySet();
-        }
+        return addContent(new Assignment(variable, value));
     }
 
     /**
@@ -406,13 +455,7 @@ public class DialogueSystem {
      * @return the variables that were updated in the process not be updated.
      */
     public Set<String> addContent(String variable, boolean value) {
-        if (!paused) {
-            curState.addToState(new Assignment(variable, value));
-            return update();
-        } else {
-            log.info("system is paused, ignoring " + variable + "=" + value);
-            return Collections.emptySet();
-        }
+        return addContent(new Assignment(variable, value));
     }
 
     /**
@@ -424,13 +467,7 @@ public class DialogueSystem {
      * @return the variables that were updated in the process not be updated.
      */
     public Set<String> addContent(String variable, Value value) {
-        if (!paused) {
-            curState.addToState(new Assignment(variable, value));
-            return update();
-        } else {
-            log.info("system is paused, ignoring " + variable + "=" + value);
-            return Collections.emptySet();
-        }
+        return addContent(new Assignment(variable, value));
     }
 
     /**
@@ -442,13 +479,7 @@ public class DialogueSystem {
      * @return the variables that were updated in the process not be updated.
      */
     public Set<String> addContent(String variable, double value) {
-        if (!paused) {
-            curState.addToState(new Assignment(variable, value));
-            return update();
-        } else {
-            log.info("system is paused, ignoring " + variable + "=" + value);
-            return Collections.emptySet();
-        }
+        return addContent(new Assignment(variable, value));
     }
 
     /**
@@ -459,13 +490,7 @@ public class DialogueSystem {
      * @return the variables that were updated in the process not be updated.
      */
     public Set<String> addContent(IndependentDistribution distrib) {
-        if (!paused) {
-            curState.addToState(distrib);
-            return update();
-        } else {
-            log.info("system is paused, ignoring content " + distrib);
-            return Collections.emptySet();
-        }
+        return UpdateExecutor.waitFor(addContentAsync(distrib));
     }
 
     /**
@@ -476,13 +501,7 @@ public class DialogueSystem {
      * @return the variables that were updated in the process not be updated.
      */
     public Set<String> addContent(ProbDistribution distrib) {
-        if (!paused) {
-            curState.addToState(distrib);
-            return update();
-        } else {
-            log.info("system is paused, ignoring content " + distrib);
-            return Collections.emptySet();
-        }
+        return UpdateExecutor.waitFor(addContentAsync(distrib));
     }
 
     /**
@@ -499,13 +518,8 @@ public class DialogueSystem {
      */
     public Set<String> addIncrementalContent(IndependentDistribution content,
                                              boolean followPrevious) {
-        if (!paused) {
-            curState.addToState_incremental(content.toDiscrete(), followPrevious);
-            return update();
-        } else {
-            log.info("system is paused, ignoring content " + content);
-            return Collections.emptySet();
-        }
+        return UpdateExecutor
+                .waitFor(addIncrementalContentAsync(content, followPrevious));
     }
 
     /**
@@ -538,13 +552,7 @@ public class DialogueSystem {
      * @return the variables that were updated in the process not be updated.
      */
     public Set<String> addContent(Assignment assign) {
-        if (!paused) {
-            curState.addToState(assign);
-            return update();
-        } else {
-            log.info("system is paused, ignoring content " + assign);
-            return Collections.emptySet();
-        }
+        return UpdateExecutor.waitFor(addContentAsync(assign));
     }
 
     /**
@@ -555,13 +563,8 @@ public class DialogueSystem {
      * @return the variables that were updated in the process not be updated.
      */
     public Set<String> addContent(MultivariateDistribution distrib) {
-        if (!paused) {
-            curState.addToState(distrib);
-            return update();
-        } else {
-            log.info("system is paused, ignoring content " + distrib);
-            return Collections.emptySet();
-        }
+        return UpdateExecutor
+                .waitFor(scheduleUpdate(s -> s.addToState(distrib), distrib));
     }
 
     /**
@@ -572,13 +575,8 @@ public class DialogueSystem {
      * @return the set of variables that have been updated
      */
     public Set<String> addContent(BNetwork network) {
-        if (!paused) {
-            curState.addToState(network);
-            return update();
-        } else {
-            log.info("system is paused, ignoring content " + network);
-            return Collections.emptySet();
-        }
+        return UpdateExecutor
+                .waitFor(scheduleUpdate(s -> s.addToState(network), network));
     }
 
     /**
@@ -589,13 +587,57 @@ public class DialogueSystem {
      * @return the set of variables that have been updated
      */
     public Set<String> addContent(DialogueState newState) {
-        if (!paused) {
-            curState.addToState(newState);
-            return update();
-        } else {
-            log.info("system is paused, ignoring content " + newState);
-            return Collections.emptySet();
+        return UpdateExecutor
+                .waitFor(scheduleUpdate(s -> s.addToState(newState), newState));
+    }
+
+    /**
+     * Schedules the addition of the assignment to the dialogue state, followed by
+     * an update of the state. The method returns without waiting for the update to
+     * be performed.
+     *
+     * @param assign the value assignment to add
+     * @return the future set of variables updated in the process
+     */
+    public CompletableFuture<Set<String>> addContentAsync(Assignment assign) {
+        return scheduleUpdate(s -> s.addToState(assign), assign);
+    }
+
+    /**
+     * Schedules the addition of the distribution to the dialogue state, followed by
+     * an update of the state. The method returns without waiting for the update to
+     * be performed.
+     *
+     * @param distrib the probability distribution to add
+     * @return the future set of variables updated in the process
+     */
+    public CompletableFuture<Set<String>> addContentAsync(ProbDistribution distrib) {
+        return scheduleUpdate(s -> s.addToState(distrib), distrib);
+    }
+
+    /**
+     * Schedules the addition of the incremental content to the dialogue state,
+     * followed by an update of the state. The method returns without waiting for
+     * the update to be performed. If the last scheduled update is an incremental
+     * content for the same variable that is still waiting to be processed, the
+     * contents are coalesced (see {@link UpdateExecutor#submitIncremental}), and
+     * only the coalesced content is processed. The coalescing window is specified in the system settings.
+     *
+     * @param content        the content to add / concatenate
+     * @param followPrevious whether the results should be concatenated to the
+     *                       previous values, or reset the content
+     * @return the future set of variables updated in the process
+     */
+    public CompletableFuture<Set<String>> addIncrementalContentAsync(
+            IndependentDistribution content, boolean followPrevious) {
+        if (paused) {
+            log.info("system is paused, ignoring content " + content);
+            return CompletableFuture.completedFuture(Collections.emptySet());
         }
+        return updater.submitIncremental(content.toDiscrete(), followPrevious,
+                (table, follow) -> performUpdate(
+                        s -> s.addToState_incremental(table, follow)),
+                settings.coalescingWindow);
     }
 
     /**
@@ -604,11 +646,73 @@ public class DialogueSystem {
      * @param variableId the variable identifier
      */
     public void removeContent(String variableId) {
-        if (!paused) {
-            curState.removeFromState(variableId);
-            update();
-        } else {
-            log.info("system is paused, ignoring removal of " + variableId);
+        UpdateExecutor.waitFor(scheduleUpdate(s -> s.removeFromState(variableId),
+                "removal of " + variableId));
+    }
+
+    /**
+     * Schedules the insertion of new content in the dialogue state, followed by an
+     * update of the state. If the system is paused, the content is ignored.
+     *
+     * @param insertion the insertion of the content in the dialogue state
+     * @param content   the inserted content (used for logging)
+     * @return the future set of variables updated in the process
+     */
+    protected CompletableFuture<Set<String>> scheduleUpdate(
+            Consumer<DialogueState> insertion, Object content) {
+        if (paused) {
+            log.info("system is paused, ignoring " + content);
+            return CompletableFuture.completedFuture(Collections.emptySet());
+        }
+        return submitUpdate(insertion);
+    }
+
+    /**
+     * Submits the insertion and subsequent update to the update executor of the
+     * system. The update executor is the only writer of the dialogue state: the
+     * insertions and updates are performed one at a time, in the order of their
+     * submission, while holding the lock of the dialogue state (so that readers
+     * such as the GUI can wait for the completion of the update).
+     *
+     * @param insertion the insertion of the content in the dialogue state
+     * @return the future set of variables updated in the process
+     */
+    private CompletableFuture<Set<String>> submitUpdate(
+            Consumer<DialogueState> insertion) {
+        return updater.submit(() -> performUpdate(insertion));
+    }
+
+    /**
+     * Inserts the content in the dialogue state and updates it, while holding the
+     * lock of the dialogue state. The method must be called from the update
+     * executor.
+     *
+     * <p>
+     * If a seed is specified in the settings, each update draws its random numbers
+     * from a generator split from the (seeded) generator of the system. The
+     * updates are then reproducible: replaying the same inputs on a new system
+     * with the same seed leads to the same dialogue states, provided the sampling
+     * time limits are not reached.
+     *
+     * @param insertion the insertion of the content in the dialogue state
+     * @return the set of variables updated in the process
+     */
+    private Set<String> performUpdate(Consumer<DialogueState> insertion) {
+        DialogueState state = curState;
+        synchronized (state) {
+            Long seed = settings.seed;
+            if (seed == null) {
+                insertion.accept(state);
+                return update();
+            }
+            if (random == null || !seed.equals(randomSeed)) {
+                random = new SplittableRandom(seed);
+                randomSeed = seed;
+            }
+            return RandomUtils.callWith(random.split(), () -> {
+                insertion.accept(state);
+                return update();
+            });
         }
     }
 
@@ -619,12 +723,12 @@ public class DialogueSystem {
      *
      * <p>
      * The method returns the set of variables that have been updated during the
-     * process.
+     * process. The method must be called from the update executor.
      *
      * @return the set of updated variables
      */
     private Set<String> update() {
-        log.info("update.");
+        log.fine("update.");
         // set of variables that have been updated
         Map<String, Integer> updatedVars = new HashMap<String, Integer>();
 
@@ -633,33 +737,22 @@ public class DialogueSystem {
             // finding the new variables that must be processed
             Set<String> toProcess = curState.getNewVariables();
 
-            synchronized (curState) {
+            // reducing the dialogue state to its relevant nodes
+            curState.reduce();
 
-                // reducing the dialogue state to its relevant nodes
-                curState.reduce();
+            // applying the domain models
+            domain.triggerModels(curState, toProcess);
 
-                // applying the domain models
-                for (Model model : domain.getModels()) {
-                    log.info("model : " + model.toString());
-                    if (model.isTriggered(curState, toProcess)) {
-                        boolean change = model.trigger(curState);
-                        if (change && model.isBlocking()) {
-                            break;
-                        }
-                    }
-                }
+            // triggering the domain modules
+            modules.forEach(m -> m.trigger(curState, toProcess));
 
-                // triggering the domain modules
-                modules.forEach(m -> m.trigger(curState, toProcess));
-
-                // checking for recursive update loops
-                for (String v : toProcess) {
-                    int count = updatedVars.compute(v,
-                            (x, y) -> (y == null) ? 1 : y + 1);
-                    if (count > 10) {
-                        displayComment("Warning: Recursive update of variable " + v);
-                        return updatedVars.keySet();
-                    }
+            // checking for recursive update loops
+            for (String v : toProcess) {
+                int count = updatedVars.compute(v,
+                        (x, y) -> (y == null) ? 1 : y + 1);
+                if (count > 10) {
+                    displayComment("Warning: Recursive update of variable " + v);
+                    return updatedVars.keySet();
                 }
             }
         }
@@ -785,6 +878,16 @@ public class DialogueSystem {
         return settings;
     }
 
+    /**
+     * Returns the executor for the updates of the dialogue state (which can be used
+     * to monitor the pending updates).
+     *
+     * @return the update executor
+     */
+    public UpdateExecutor getUpdateExecutor() {
+        return updater;
+    }
+
     /**
      * Returns the domain for the dialogue system.
      *
@@ -71,6 +71,12 @@ public class Settings {
      */
     public static long maxSamplingTime = 250;
 
+    /**
+     * tolerance on the change of the query estimates between two batches of samples,
+     * below which the sampling stops before reaching nbSamples (0 to disable)
+     */
+    public static double samplingTolerance = 0.0;
+
     /**
      * Number of discretisation buckets to convert continuous distributions
      */
@@ -121,6 +127,18 @@ public class Settings {
      */
     public double discountFactor;
 
+    /**
+     * Time window (in milliseconds) during which incremental inputs for the same
+     * variable are coalesced before being processed
+     */
+    public long coalescingWindow = 0;
+
+    /**
+     * Seed for the random numbers drawn during the updates of the dialogue state, to
+     * make these updates reproducible (null if the updates are not seeded)
+     */
+    public Long seed = null;
+
     /**
      * Recording types
      */
@@ -244,8 +262,14 @@ public class Settings {
                 nbSamples = Integer.parseInt(mapping.getProperty(key));
             } else if (key.equalsIgnoreCase("timeout")) {
                 maxSamplingTime = Integer.parseInt(mapping.getProperty(key));
+            } else if (key.equalsIgnoreCase("tolerance")) {
+                samplingTolerance = Double.parseDouble(mapping.getProperty(key));
             } else if (key.equalsIgnoreCase("discretisation")) {
                 discretisationBuckets = Integer.parseInt(mapping.getProperty(key));
+            } else if (key.equalsIgnoreCase("coalescing")) {
+                coalescingWindow = Long.parseLong(mapping.getProperty(key));
+            } else if (key.equalsIgnoreCase("seed")) {
+                seed = Long.parseLong(mapping.getProperty(key).trim());
             } else if (key.equalsIgnoreCase("recording")) {
                 if (mapping.getProperty(key).trim().equalsIgnoreCase("last")) {
                     recording = Recording.LAST_INPUT;
@@ -346,7 +370,12 @@ public class Settings {
         mapping.setProperty("monitor", StringUtils.join(varsToMonitor, ","));
         mapping.setProperty("samples", "" + nbSamples);
         mapping.setProperty("timeout", "" + maxSamplingTime);
+        mapping.setProperty("tolerance", "" + samplingTolerance);
         mapping.setProperty("discretisation", "" + discretisationBuckets);
+        mapping.setProperty("coalescing", "" + coalescingWindow);
+        if (seed != null) {
+            mapping.setProperty("seed", "" + seed);
+        }
         mapping.setProperty("modules", "" + modules.stream()
                 .map(m -> m.getCanonicalName()).collect(Collectors.joining(",")));
         mapping.setProperty("connect",
@@ -0,0 +1,574 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import opendial.bn.distribs.CategoricalTable;
+
+/**
+ * Single-writer executor for the updates of a dialogue state. The updates are
+ * placed in a bounded mailbox, which is drained by one worker at a time, in the
+ * order of submission. Callers receive a future with the set of updated variables
+ * instead of blocking for the whole update.
+ *
+ * <p>
+ * The worker is either a dedicated thread (created on demand, and released after
+ * some inactivity), or a task running on an external thread pool shared by several
+ * executors (as for the sessions of a session manager). When the mailbox is full,
+ * the submitting thread blocks until a slot is free (backpressure). Updates
+ * submitted by the worker itself (for instance by a module reacting to an update)
+ * are processed immediately.
+ *
+ * <p>
+ * Incremental inputs (such as partial recognition hypotheses) can be coalesced:
+ * as long as an incremental input for a given variable is waiting at the end of
+ * the mailbox, subsequent inputs for the same variable are merged into it instead
+ * of triggering their own update. Only adjacent inputs are coalesced, so that the
+ * order of the updates is preserved. The execution of an incremental input can
+ * be delayed by a coalescing window, in order to coalesce the inputs arriving in
+ * the meantime.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class UpdateExecutor {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    /**
+     * Default capacity of the mailbox
+     */
+    public static int MAILBOX_CAPACITY = 256;
+
+    /**
+     * Maximum number of updates processed in a row before yielding the worker (only
+     * relevant for shared thread pools)
+     */
+    public static int MAX_BATCH = 16;
+
+    // the mailbox with the pending updates
+    final BlockingQueue<UpdateTask> mailbox;
+
+    // the free slots in the mailbox
+    final Semaphore slots;
+
+    // the executor running the worker
+    final Executor workerPool;
+
+    // whether a worker is currently scheduled or draining the mailbox
+    final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    // the thread currently draining the mailbox (if any)
+    volatile Thread worker;
+
+    // incremental input waiting at the end of the mailbox (if any), with which the
+    // next input for the same variable can be coalesced
+    IncrementalInput lastInput;
+
+    // lock for the end of the mailbox
+    final Object tailLock = new Object();
+
+    // timer resuming the worker at the end of the coalescing windows
+    static ScheduledExecutorService timer = createTimer();
+
+    // backpressure metrics
+    final AtomicLong nbSubmitted = new AtomicLong();
+    final AtomicLong nbProcessed = new AtomicLong();
+    final AtomicLong nbBlocked = new AtomicLong();
+    final AtomicLong blockingTime = new AtomicLong();
+    final AtomicLong waitingTime = new AtomicLong();
+    final AtomicInteger peakSize = new AtomicInteger();
+    final AtomicLong nbMerged = new AtomicLong();
+    final AtomicLong nbDropped = new AtomicLong();
+
+    // ===================================
+    // EXECUTOR CONSTRUCTION
+    // ===================================
+
+    /**
+     * Creates a new executor with a dedicated worker thread and a mailbox of default
+     * capacity.
+     */
+    public UpdateExecutor() {
+        this(createDedicatedWorker(), MAILBOX_CAPACITY);
+    }
+
+    /**
+     * Creates a new executor whose worker runs on the provided thread pool.
+     *
+     * @param workerPool the thread pool on which to drain the mailbox
+     * @param capacity   the capacity of the mailbox
+     */
+    public UpdateExecutor(Executor workerPool, int capacity) {
+        if (capacity < 1) {
+            throw new RuntimeException("mailbox capacity must be >= 1");
+        }
+        this.workerPool = workerPool;
+        this.mailbox = new ArrayBlockingQueue<UpdateTask>(capacity);
+        this.slots = new Semaphore(capacity);
+    }
+
+    /**
+     * Creates a single (daemon) thread that terminates after some inactivity.
+     *
+     * @return the executor for the dedicated thread
+     */
+    private static Executor createDedicatedWorker() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "update-worker");
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Creates the (daemon) timer for the coalescing windows.
+     *
+     * @return the timer
+     */
+    private static ScheduledExecutorService createTimer() {
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "coalescing-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        pool.setKeepAliveTime(10, TimeUnit.SECONDS);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // ===================================
+    // UPDATE SUBMISSION
+    // ===================================
+
+    /**
+     * Submits an update to the mailbox. The update is processed once all previously
+     * submitted updates have been processed. If the mailbox is full, the method
+     * blocks until a slot becomes available.
+     *
+     * @param update the update to perform, returning the updated variables
+     * @return the future set of updated variables
+     */
+    public CompletableFuture<Set<String>> submit(Supplier<Set<String>> update) {
+        UpdateTask task = new UpdateTask(update);
+
+        // updates triggered from within an update are processed right away
+        if (Thread.currentThread() == worker) {
+            task.run();
+        } else {
+            enqueue(task, null);
+        }
+        return task.result;
+    }
+
+    /**
+     * Submits an incremental input for the variable of the table. If the last update
+     * in the mailbox is an incremental input for the same variable that is still
+     * waiting to be processed, the two are coalesced: the new table is concatenated
+     * to the waiting one if followPrevious is true (merged input), and replaces it
+     * otherwise (dropped input). The coalesced inputs share the same future result.
+     * Inputs separated by another update in the mailbox are never coalesced.
+     *
+     * <p>
+     * The input is placed in the mailbox right away. If the window is positive, its
+     * execution (and that of the updates submitted after it) is delayed until (at
+     * least) the given number of milliseconds after its submission, in order to
+     * coalesce the inputs arriving in the meantime.
+     *
+     * @param table          the incremental content
+     * @param followPrevious whether the content follows the previous content
+     * @param update         the update to perform with the (coalesced) input
+     * @param window         the coalescing window, in milliseconds
+     * @return the future set of updated variables
+     */
+    public CompletableFuture<Set<String>> submitIncremental(CategoricalTable table,
+            boolean followPrevious,
+            BiFunction<CategoricalTable, Boolean, Set<String>> update,
+            long window) {
+
+        if (Thread.currentThread() == worker) {
+            return submit(() -> update.apply(table, followPrevious));
+        }
+
+        String var = table.getVariable();
+        synchronized (tailLock) {
+            if (lastInput != null && lastInput.variable.equals(var)) {
+                lastInput.coalesce(table, followPrevious);
+                return lastInput.task.result;
+            }
+        }
+        IncrementalInput input = new IncrementalInput(var, table, followPrevious);
+        input.task = new UpdateTask(() -> {
+            CategoricalTable coalesced;
+            boolean follow;
+            synchronized (tailLock) {
+                if (lastInput == input) {
+                    lastInput = null;
+                }
+                coalesced = input.table;
+                follow = input.followPrevious;
+            }
+            return update.apply(coalesced, follow);
+        });
+        input.task.executionTime += TimeUnit.MILLISECONDS.toNanos(window);
+        enqueue(input.task, input);
+        return input.task.result;
+    }
+
+    /**
+     * Places the task in the mailbox, blocking until a slot becomes available if
+     * the mailbox is full, and schedules the worker. The task becomes the end of
+     * the mailbox, with which subsequent inputs can be coalesced if it is an
+     * incremental input.
+     *
+     * @param task  the task to place in the mailbox
+     * @param input the incremental input processed by the task (null if none)
+     */
+    private void enqueue(UpdateTask task, IncrementalInput input) {
+        if (!slots.tryAcquire()) {
+            nbBlocked.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                task.result.completeExceptionally(e);
+                return;
+            } finally {
+                blockingTime.addAndGet(System.nanoTime() - start);
+            }
+        }
+        synchronized (tailLock) {
+            mailbox.add(task);
+            lastInput = input;
+        }
+        nbSubmitted.incrementAndGet();
+        peakSize.accumulateAndGet(mailbox.size(), Math::max);
+        schedule();
+    }
+
+    /**
+     * Waits for the completion of the future and returns its result. Runtime
+     * exceptions (and errors) raised during the update are thrown back to the
+     * caller.
+     *
+     * @param future the future to wait for
+     * @return the set of updated variables
+     */
+    public static Set<String> waitFor(CompletableFuture<Set<String>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Schedules the worker, if it is not already running.
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                workerPool.execute(this::drain);
+            } catch (RuntimeException e) {
+                scheduled.set(false);
+                log.warning("could not schedule update worker: " + e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Drains the mailbox, processing at most MAX_BATCH updates before yielding the
+     * worker thread (and rescheduling itself if updates remain). If the next update
+     * is an incremental input whose coalescing window has not yet elapsed, the
+     * worker is released and resumed by the timer at the end of the window.
+     */
+    private void drain() {
+        long delay = 0;
+        worker = Thread.currentThread();
+        try {
+            for (int i = 0; i < MAX_BATCH; i++) {
+                UpdateTask task = mailbox.peek();
+                if (task == null) {
+                    break;
+                }
+                delay = task.executionTime - System.nanoTime();
+                if (delay > 0) {
+                    break;
+                }
+                mailbox.poll();
+                slots.release();
+                waitingTime.addAndGet(System.nanoTime() - task.submissionTime);
+                task.run();
+            }
+        } finally {
+            worker = null;
+            scheduled.set(false);
+        }
+        if (delay > 0) {
+            timer.schedule(this::schedule, delay, TimeUnit.NANOSECONDS);
+        } else if (!mailbox.isEmpty()) {
+            schedule();
+        }
+    }
+
+    // ===================================
+    // GETTERS
+    // ===================================
+
+    /**
+     * Returns the number of updates waiting in the mailbox
+     *
+     * @return the number of pending updates
+     */
+    public int getQueueSize() {
+        return mailbox.size();
+    }
+
+    /**
+     * Returns the capacity of the mailbox
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mailbox.size() + mailbox.remainingCapacity();
+    }
+
+    /**
+     * Returns the largest number of updates that were waiting in the mailbox
+     *
+     * @return the peak queue size
+     */
+    public int getPeakQueueSize() {
+        return peakSize.get();
+    }
+
+    /**
+     * Returns the number of updates submitted to the mailbox
+     *
+     * @return the number of submitted updates
+     */
+    public long getNbSubmitted() {
+        return nbSubmitted.get();
+    }
+
+    /**
+     * Returns the number of processed updates (including the updates processed
+     * directly by the worker)
+     *
+     * @return the number of processed updates
+     */
+    public long getNbProcessed() {
+        return nbProcessed.get();
+    }
+
+    /**
+     * Returns the number of submissions that had to wait for a free slot in the
+     * mailbox
+     *
+     * @return the number of blocked submissions
+     */
+    public long getNbBlockedSubmissions() {
+        return nbBlocked.get();
+    }
+
+    /**
+     * Returns the total time (in milliseconds) spent by submitting threads waiting
+     * for a free slot in the mailbox
+     *
+     * @return the total blocking time
+     */
+    public double getBlockingTime() {
+        return blockingTime.get() / 1000000.0;
+    }
+
+    /**
+     * Returns the average time (in milliseconds) spent by the updates in the mailbox
+     * before being processed
+     *
+     * @return the average waiting time
+     */
+    public double getAverageWaitingTime() {
+        long nb = nbProcessed.get();
+        return (nb > 0) ? waitingTime.get() / 1000000.0 / nb : 0.0;
+    }
+
+    /**
+     * Returns the number of incremental inputs that were concatenated to a waiting
+     * input for the same variable
+     *
+     * @return the number of merged inputs
+     */
+    public long getNbMergedInputs() {
+        return nbMerged.get();
+    }
+
+    /**
+     * Returns the number of incremental inputs that were discarded, as they were
+     * superseded by a newer input for the same variable before being processed
+     *
+     * @return the number of dropped inputs
+     */
+    public long getNbDroppedInputs() {
+        return nbDropped.get();
+    }
+
+    /**
+     * Returns a string representation of the executor metrics
+     */
+    @Override
+    public String toString() {
+        return "queue=" + getQueueSize() + "/" + getCapacity() + ", peak="
+                + getPeakQueueSize() + ", submitted=" + getNbSubmitted()
+                + ", processed=" + getNbProcessed() + ", blocked="
+                + getNbBlockedSubmissions() + " (" + getBlockingTime() + " ms)"
+                + ", avg. wait=" + getAverageWaitingTime() + " ms" + ", merged="
+                + getNbMergedInputs() + ", dropped=" + getNbDroppedInputs();
+    }
+
+    /**
+     * Update waiting in the mailbox, together with its future result
+     */
+    final class UpdateTask {
+
+        // the update to perform
+        final Supplier<Set<String>> update;
+
+        // the future result
+        final CompletableFuture<Set<String>> result;
+
+        // the submission time (in nanoseconds)
+        final long submissionTime;
+
+        // the earliest execution time (in nanoseconds)
+        long executionTime;
+
+        /**
+         * Creates a new update task
+         *
+         * @param update the update to perform
+         */
+        UpdateTask(Supplier<Set<String>> update) {
+            this.update = update;
+            this.result = new CompletableFuture<Set<String>>();
+            this.submissionTime = System.nanoTime();
+            this.executionTime = submissionTime;
+        }
+
+        /**
+         * Performs the update and completes the future result
+         */
+        void run() {
+            Set<String> updated;
+            try {
+                updated = update.get();
+            } catch (RuntimeException | Error e) {
+                log.warning("could not perform update: " + e);
+                nbProcessed.incrementAndGet();
+                result.completeExceptionally(e);
+                return;
+            }
+            nbProcessed.incrementAndGet();
+            result.complete(updated);
+        }
+    }
+
+    /**
+     * Incremental input waiting to be processed, which can be coalesced with
+     * subsequent inputs for the same variable.
+     */
+    final class IncrementalInput {
+
+        // the variable of the input
+        final String variable;
+
+        // the (coalesced) incremental content
+        CategoricalTable table;
+
+        // whether the content follows the previous content
+        boolean followPrevious;
+
+        // the task processing the input
+        UpdateTask task;
+
+        /**
+         * Creates a new incremental input
+         *
+         * @param variable       the variable of the input
+         * @param table          the incremental content
+         * @param followPrevious whether the content follows the previous content
+         */
+        IncrementalInput(String variable, CategoricalTable table,
+                boolean followPrevious) {
+            this.variable = variable;
+            this.table = table;
+            this.followPrevious = followPrevious;
+        }
+
+        /**
+         * Coalesces the new content with the current one. Must be called while
+         * holding the lock on the end of the mailbox.
+         *
+         * @param newTable          the new incremental content
+         * @param newFollowPrevious whether the new content follows the previous one
+         */
+        void coalesce(CategoricalTable newTable, boolean newFollowPrevious) {
+            if (newFollowPrevious) {
+                table = table.concatenate(newTable).toDiscrete();
+                nbMerged.incrementAndGet();
+            } else {
+                table = newTable;
+                followPrevious = false;
+                nbDropped.incrementAndGet();
+            }
+        }
+    }
+
+}
@@ -31,6 +31,7 @@ import opendial.bn.nodes.ActionNode;
 import opendial.bn.nodes.BNode;
 import opendial.bn.nodes.ChanceNode;
 import opendial.bn.nodes.UtilityNode;
+import opendial.utils.StringUtils;
 
 /**
  * Representation of a Bayesian Network augmented with value and action nodes. The
@@ -55,6 +56,19 @@ public class BNetwork {
     // the action nodes
     private Map<String, ActionNode> actionNodes;
 
+    // number of insertions, removals and renamings of nodes in the network
+    private int modCount = 0;
+
+    // version stamp of the last modification of the network or of its nodes
+    private volatile long version = BNode.nextVersion();
+
+    // whether some nodes have been added to another network since their
+    // insertion (in which case they notify their modifications to the other one)
+    private boolean sharedNodes = false;
+
+    // cached topological ordering of the nodes
+    private volatile SortedNodes sortedNodes;
+
     // ===================================
     // NETWORK CONSTRUCTION
     // ===================================
@@ -101,7 +115,13 @@ public class BNetwork {
                     + node.getId());
         }
         nodes.put(node.getId(), node);
+        BNetwork owner = node.getNetwork();
+        if (owner != null && owner != this && owner.nodes.get(node.getId()) == node) {
+            owner.sharedNodes = true;
+        }
         node.setNetwork(this);
+        modCount++;
+        updateVersion();
 
         // adding the node in the type-specific collections
         if (node instanceof ChanceNode) {
@@ -189,6 +209,8 @@ public class BNetwork {
             } else if (node instanceof ActionNode) {
                 actionNodes.remove(nodeId);
             }
+            modCount++;
+            updateVersion();
         }
 
         return nodes.remove(nodeId);
@@ -239,6 +261,9 @@ public class BNetwork {
             chanceNodes.clear();
             utilityNodes.clear();
             actionNodes.clear();
+            sharedNodes = false;
+            modCount++;
+            updateVersion();
             for (BNode node : network.getNodes()) {
                 addNode(node);
             }
@@ -246,10 +271,64 @@ public class BNetwork {
 
     }
 
+    /**
+     * Marks the network as modified, by assigning it a new version stamp (see
+     * getVersion()). Subclasses should call this method whenever they modify some
+     * content that can affect inference (such as the evidence).
+     */
+    protected void updateVersion() {
+        version = BNode.nextVersion();
+    }
+
+    /**
+     * Notifies the network that one of its nodes has been modified, with the given
+     * version stamp. The method is called by the nodes of the network.
+     *
+     * @param stamp the version stamp of the modified node
+     */
+    public void nodeModified(long stamp) {
+        version = stamp;
+    }
+
     // ===================================
     // GETTERS
     // ===================================
 
+    /**
+     * Returns the current version of the network. The version changes whenever a
+     * node is inserted, removed or renamed, or whenever a node of the network is
+     * modified (relations, distribution or values), as the nodes notify their
+     * modifications to their network. If some nodes have since been added to
+     * another network, the version is the largest stamp in the network (since the
+     * version stamps of nodes and networks are drawn from a single increasing
+     * counter).
+     *
+     * @return the network version
+     */
+    public long getVersion() {
+        if (!sharedNodes) {
+            return version;
+        }
+        long max = version;
+        boolean stillShared = false;
+        for (BNode node : nodes.values()) {
+            max = Math.max(max, node.getVersion());
+            stillShared |= (node.getNetwork() != this);
+        }
+        sharedNodes = stillShared;
+        return max;
+    }
+
+    /**
+     * Returns true if some nodes of the network have been added to another network
+     * (and no longer notify their modifications to this one).
+     *
+     * @return true if the network has shared nodes, false otherwise
+     */
+    boolean hasSharedNodes() {
+        return sharedNodes;
+    }
+
     /**
      * Returns true if the network contains a node with the given identifier
      *
@@ -516,21 +595,26 @@ public class BNetwork {
     }
 
     /**
-     * Returns an ordered list of nodes, where the ordering is defined in the
-     * compareTo method implemented in BNode. The ordering will place end nodes (i.e.
-     * nodes with no outward edges) at the beginning of the list, and start nodes
-     * (nodes with no inward edges) at the end of the list.
+     * Returns an ordered list of nodes, where the ordering follows the compareTo
+     * method implemented in BNode. The ordering will place end nodes (i.e. nodes
+     * with no outward edges) at the beginning of the list, and start nodes (nodes
+     * with no inward edges) at the end of the list.
      *
      * <p>
      * This ordering is used in particular for various inference algorithms relying
-     * on a topological ordering of the nodes (e.g. variable elimination).
+     * on a topological ordering of the nodes (e.g. variable elimination). The
+     * ordering is cached, and only recomputed when nodes or relations are added to
+     * or removed from the network.
      *
      * @return the ordered list of nodes
      */
     public List<BNode> getSortedNodes() {
-        List<BNode> nodesList = new ArrayList<>(nodes.values());
-        Collections.sort(nodesList);
-        return nodesList;
+        SortedNodes sorted = sortedNodes;
+        if (sorted == null || !sorted.isValid()) {
+            sorted = new SortedNodes();
+            sortedNodes = sorted;
+        }
+        return new ArrayList<>(sorted.nodes);
     }
 
     /**
@@ -669,6 +753,39 @@ public class BNetwork {
         return copyNetwork;
     }
 
+    /**
+     * Returns a structurally shared copy of the network. The nodes are copied, but
+     * their distributions are shared with the original network until one of the
+     * two nodes modifies it (copy-on-write). Contrary to copy(), the nodes need not
+     * be sorted, as the relations are directly replicated from the original
+     * network.
+     *
+     * @return the shared copy
+     */
+    public BNetwork sharedCopy() {
+        BNetwork copyNetwork = new BNetwork();
+        sharedCopy(copyNetwork);
+        return copyNetwork;
+    }
+
+    /**
+     * Inserts a structurally shared copy of the nodes of the network into the
+     * (empty) network given as argument. See sharedCopy().
+     *
+     * @param copyNetwork the network in which to insert the copied nodes
+     */
+    protected void sharedCopy(BNetwork copyNetwork) {
+        for (BNode node : nodes.values()) {
+            copyNetwork.addNode(node.sharedCopy());
+        }
+        for (BNode node : nodes.values()) {
+            BNode nodeCopy = copyNetwork.nodes.get(node.getId());
+            for (String inputNodeId : node.getInputNodeIds()) {
+                nodeCopy.addInputNodeUnchecked(copyNetwork.nodes.get(inputNodeId));
+            }
+        }
+    }
+
     /**
      * Returns a basic string representation for the network, defined as the set of
      * node identifiers in the network.
@@ -708,4 +825,174 @@ public class BNetwork {
         return s.toString();
     }
 
+    /**
+     * Topological ordering of the nodes in the network, computed with Kahn's
+     * algorithm (starting from the end nodes). Among the nodes that can be
+     * selected at a given step, the ordering follows the criteria of
+     * BNode.compareTo (nodes with more ancestors first, start nodes last, action
+     * nodes at the very end), without computing the ancestors of the nodes for
+     * each comparison.
+     */
+    final class SortedNodes {
+
+        // the sorted nodes
+        final List<BNode> nodes;
+
+        // modification count of the network when the ordering was computed
+        final int networkVersion;
+
+        // sum of the relation versions of the nodes
+        final long relationsVersion;
+
+        /**
+         * Computes the topological ordering of the current nodes.
+         */
+        SortedNodes() {
+            networkVersion = modCount;
+            relationsVersion = getRelationsVersion();
+            nodes = sort(new ArrayList<BNode>(BNetwork.this.nodes.values()));
+        }
+
+        /**
+         * Returns true if the ordering is still valid for the network, i.e. if no
+         * node nor relation has been inserted or removed since its computation.
+         *
+         * @return true if the ordering is valid, else false
+         */
+        boolean isValid() {
+            return networkVersion == modCount
+                    && relationsVersion == getRelationsVersion();
+        }
+
+        /**
+         * Returns the sum of the relation versions of the nodes in the network
+         * (since these versions only increase, the sum changes whenever a relation
+         * is modified).
+         *
+         * @return the sum of the relation versions
+         */
+        private long getRelationsVersion() {
+            long version = 0;
+            for (BNode node : BNetwork.this.nodes.values()) {
+                version += node.getRelationsVersion();
+            }
+            return version;
+        }
+
+        /**
+         * Sorts the nodes in topological order, from the end nodes to the start
+         * nodes.
+         *
+         * @param nodesList the nodes to sort
+         * @return the sorted nodes
+         */
+        private List<BNode> sort(List<BNode> nodesList) {
+            Map<String, Integer> indices = new HashMap<>();
+            for (int i = 0; i < nodesList.size(); i++) {
+                indices.put(nodesList.get(i).getId(), i);
+            }
+            int[][] inputs = new int[nodesList.size()][];
+            int[] nbOutputs = new int[nodesList.size()];
+            for (int i = 0; i < nodesList.size(); i++) {
+                inputs[i] = nodesList.get(i).getInputNodeIds().stream()
+                        .filter(indices::containsKey).mapToInt(indices::get)
+                        .toArray();
+                for (int j : inputs[i]) {
+                    nbOutputs[j]++;
+                }
+            }
+            int[] nbAncestors = countAncestors(inputs);
+
+            Comparator<Integer> order = (i, j) -> {
+                BNode n1 = nodesList.get(i);
+                BNode n2 = nodesList.get(j);
+                boolean start1 = inputs[i].length == 0;
+                boolean start2 = inputs[j].length == 0;
+                if (start1 != start2) {
+                    return (start1) ? +1 : -1;
+                } else if (start1) {
+                    boolean action1 = n1 instanceof ActionNode;
+                    boolean action2 = n2 instanceof ActionNode;
+                    if (action1 != action2) {
+                        return (action1) ? +1 : -1;
+                    }
+                } else if (nbAncestors[i] != nbAncestors[j]) {
+                    return nbAncestors[j] - nbAncestors[i];
+                }
+                return StringUtils.compare(n1.getId(), n2.getId());
+            };
+
+            PriorityQueue<Integer> ready = new PriorityQueue<>(order);
+            for (int i = 0; i < nodesList.size(); i++) {
+                if (nbOutputs[i] == 0) {
+                    ready.add(i);
+                }
+            }
+            List<BNode> sorted = new ArrayList<>(nodesList.size());
+            while (!ready.isEmpty()) {
+                int i = ready.poll();
+                sorted.add(nodesList.get(i));
+                for (int j : inputs[i]) {
+                    if (--nbOutputs[j] == 0) {
+                        ready.add(j);
+                    }
+                }
+            }
+
+            // if the network contains cycles, the remaining nodes are appended
+            if (sorted.size() < nodesList.size()) {
+                log.warning("network contains cycles, cannot sort all nodes");
+                List<BNode> remaining = new ArrayList<>(nodesList);
+                remaining.removeAll(sorted);
+                Collections.sort(remaining);
+                sorted.addAll(remaining);
+            }
+            return sorted;
+        }
+
+        /**
+         * Counts the number of ancestors of each node, given the input nodes of
+         * each node (as indices). The ancestors are computed from the start nodes
+         * to the end nodes, so that the ancestors of each node are derived from
+         * those of its input nodes.
+         *
+         * @param inputs the indices of the input nodes for each node
+         * @return the number of ancestors for each node
+         */
+        private int[] countAncestors(int[][] inputs) {
+            int[] nbInputs = new int[inputs.length];
+            List<List<Integer>> outputs = new ArrayList<>(inputs.length);
+            for (int i = 0; i < inputs.length; i++) {
+                outputs.add(new ArrayList<Integer>());
+            }
+            Deque<Integer> ready = new ArrayDeque<>();
+            for (int i = 0; i < inputs.length; i++) {
+                nbInputs[i] = inputs[i].length;
+                for (int j : inputs[i]) {
+                    outputs.get(j).add(i);
+                }
+                if (nbInputs[i] == 0) {
+                    ready.add(i);
+                }
+            }
+            BitSet[] ancestors = new BitSet[inputs.length];
+            int[] nbAncestors = new int[inputs.length];
+            while (!ready.isEmpty()) {
+                int i = ready.poll();
+                ancestors[i] = new BitSet();
+                for (int j : inputs[i]) {
+                    ancestors[i].set(j);
+                    ancestors[i].or(ancestors[j]);
+                }
+                nbAncestors[i] = ancestors[i].cardinality();
+                for (int k : outputs.get(i)) {
+                    if (--nbInputs[k] == 0) {
+                        ready.add(k);
+                    }
+                }
+            }
+            return nbAncestors;
+        }
+    }
+
 }
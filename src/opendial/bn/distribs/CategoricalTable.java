@@ -63,8 +63,8 @@ public class CategoricalTable implements IndependentDistribution {
     // the probability table
     private Map<Value, Double> table;
 
-    // probability intervals (used for binary search in sampling)
-    private Intervals<Value> intervals;
+    // alias table for sampling (built lazily, and reset when the table changes)
+    private volatile Intervals<Value> intervals;
 
     // ===================================
     // TABLE CONSTRUCTION
@@ -147,8 +147,8 @@ public class CategoricalTable implements IndependentDistribution {
 
         if (changed) {
             table = InferenceUtils.normalise(newTable);
+            intervals = null;
         }
-        intervals = null;
         return changed;
     }
 
@@ -208,11 +208,13 @@ public class CategoricalTable implements IndependentDistribution {
      */
     @Override
     public Value sample() {
+        Intervals<Value> intervals = this.intervals;
         if (intervals == null) {
             if (table.isEmpty()) {
                 log.warning("creating intervals for an empty table");
             }
             intervals = new Intervals<>(table);
+            this.intervals = intervals;
         }
         if (intervals.isEmpty()) {
             log.warning("interval is empty, table: " + table);
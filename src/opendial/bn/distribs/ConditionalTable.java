@@ -25,8 +25,10 @@ package opendial.bn.distribs;
 
 import java.util.logging.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -67,6 +69,12 @@ public class ConditionalTable implements ProbDistribution {
     // the probability table
     protected HashMap<Assignment, IndependentDistribution> table;
 
+    // mixed-radix index over the conditional variables (created when needed)
+    private volatile ConditionIndex index;
+
+    // minimum number of cells allowed in the index (regardless of sparsity)
+    public static int MIN_INDEX_SIZE = 1024;
+
     // ===================================
     // TABLE CONSTRUCTION
     // ===================================
@@ -112,11 +120,13 @@ public class ConditionalTable implements ProbDistribution {
             table.get(condition).modifyVariableId(oldVarId, newVarId);
             if (condition.containsVar(oldVarId)) {
                 IndependentDistribution distrib = table.remove(condition);
-                Value v = condition.removePair(oldVarId);
-                condition.addPair(newVarId, v);
-                table.put(condition, distrib);
+                Assignment newCondition = condition.copy();
+                Value v = newCondition.removePair(oldVarId);
+                newCondition.addPair(newVarId, v);
+                table.put(newCondition, distrib);
             }
         }
+        index = null;
 
         if (conditionalVars.contains(oldVarId)) {
             conditionalVars.remove(oldVarId);
@@ -143,6 +153,7 @@ public class ConditionalTable implements ProbDistribution {
                     + distrib.getVariable());
         }
         conditionalVars.addAll(condition.getVariables());
+        index = null;
     }
 
     /**
@@ -198,6 +209,66 @@ public class ConditionalTable implements ProbDistribution {
         return ValueFactory.none();
     }
 
+    /**
+     * Returns the conditional variables of the table, in the order expected by
+     * the method sample(int[]).
+     *
+     * @return the ordered list of conditional variables
+     */
+    public List<String> getIndexedVariables() {
+        return getIndex().vars;
+    }
+
+    /**
+     * Returns the index of the value for the i-th conditional variable (in the order
+     * of getIndexedVariables()), or -1 if the value does not appear in any
+     * condition of the table.
+     *
+     * @param i     the position of the conditional variable
+     * @param value the value
+     * @return the index of the value
+     */
+    public int getValueIndex(int i, Value value) {
+        return getIndex().valueIndices.get(i).getOrDefault(value, -1);
+    }
+
+    /**
+     * Returns true if the conditions of the table can be indexed as an array, and
+     * the method sample(int[]) can thus be used (which is not the case for very
+     * sparse tables).
+     *
+     * @return true if the table is indexed, false otherwise
+     */
+    public boolean isIndexed() {
+        return getIndex().distribs != null;
+    }
+
+    /**
+     * Samples a head value given the condition, expressed as a vector of value
+     * indices for the conditional variables (see getValueIndex). The distribution
+     * for the condition is retrieved by a direct array lookup, without creating any
+     * object. If no distribution is defined for the condition, returns a none
+     * value.
+     *
+     * @param valueIndices the value indices for the conditional variables
+     * @return the sampled value
+     */
+    public Value sample(int[] valueIndices) {
+        ConditionIndex index = getIndex();
+        if (index.distribs == null) {
+            throw new RuntimeException("table for " + headVar + " is not indexed");
+        }
+        int offset = 0;
+        for (int i = 0; i < valueIndices.length; i++) {
+            if (valueIndices[i] < 0) {
+                return ValueFactory.none();
+            }
+            offset += valueIndices[i] * index.strides[i];
+        }
+        IndependentDistribution subdistrib = index.distribs[offset];
+        return (subdistrib != null) ? subdistrib.sample() : ValueFactory.none();
+    }
+
     /**
      * Returns the probability of the head assignment given the conditional
      * assignment. The method assumes that the posterior distribution has a discrete
@@ -309,6 +380,20 @@ public class ConditionalTable implements ProbDistribution {
     // UTILITIES
     // ===================================
 
+    /**
+     * Returns the index over the conditional variables (creating it if necessary)
+     *
+     * @return the condition index
+     */
+    private ConditionIndex getIndex() {
+        ConditionIndex index = this.index;
+        if (index == null) {
+            index = new ConditionIndex(table, conditionalVars);
+            this.index = index;
+        }
+        return index;
+    }
+
     /**
      * Returns the hashcode for the table.
      */
@@ -381,6 +466,73 @@ public class ConditionalTable implements ProbDistribution {
         return false;
     }
 
+    /**
+     * Mixed-radix index over the conditions of the table. Each conditional variable
+     * is associated with a dictionary of its values, and each condition is mapped
+     * to the position sum_i(index(y_i) * stride_i) in the array of distributions.
+     * Conditions that do not cover all conditional variables are not indexed (as in
+     * sample(Assignment), they cannot be reached by a full condition). If the table
+     * is too sparse for the array (more than 8 cells per condition, above
+     * MIN_INDEX_SIZE cells), the array is not created.
+     */
+    private static final class ConditionIndex {
+
+        // the ordered conditional variables
+        final List<String> vars;
+
+        // the value indices for each conditional variable
+        final List<Map<Value, Integer>> valueIndices;
+
+        // the stride for each conditional variable
+        final int[] strides;
+
+        // the distributions for each condition (null if undefined)
+        final IndependentDistribution[] distribs;
+
+        /**
+         * Creates the index for the given table
+         *
+         * @param table           the probability table
+         * @param conditionalVars the conditional variables
+         */
+        ConditionIndex(Map<Assignment, IndependentDistribution> table,
+                Set<String> conditionalVars) {
+            vars = Collections.unmodifiableList(new ArrayList<>(conditionalVars));
+            valueIndices = new ArrayList<>(vars.size());
+            for (int i = 0; i < vars.size(); i++) {
+                valueIndices.add(new HashMap<>());
+            }
+            for (Assignment condition : table.keySet()) {
+                if (condition.size() == vars.size()) {
+                    for (int i = 0; i < vars.size(); i++) {
+                        Map<Value, Integer> indices = valueIndices.get(i);
+                        indices.putIfAbsent(condition.getValue(vars.get(i)),
+                                indices.size());
+                    }
+                }
+            }
+            strides = new int[vars.size()];
+            long size = 1;
+            long maxSize = Math.max(MIN_INDEX_SIZE, 8L * table.size());
+            for (int i = vars.size() - 1; i >= 0 && size <= maxSize; i--) {
+                strides[i] = (int) size;
+                size *= Math.max(1, valueIndices.get(i).size());
+            }
+            distribs = (size <= maxSize) ? new IndependentDistribution[(int) size]
+                    : null;
+            for (Assignment condition : table.keySet()) {
+                if (distribs != null && condition.size() == vars.size()) {
+                    int offset = 0;
+                    for (int i = 0; i < vars.size(); i++) {
+                        offset += valueIndices.get(i)
+                                .get(condition.getValue(vars.get(i))) * strides[i];
+                    }
+                    distribs[offset] = table.get(condition);
+                }
+            }
+        }
+    }
+
     // ===================================
     // TABLE CONSTRUCTION
     // ===================================
@@ -32,6 +32,7 @@ import opendial.bn.values.ArrayVal;
 import opendial.bn.values.DoubleVal;
 import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
+import opendial.utils.RandomUtils;
 
 /**
  * Distribution defined "empirically" in terms of a set of samples on a collection of
@@ -48,9 +49,6 @@ public class EmpiricalDistribution implements MultivariateDistribution {
     // list of samples for the empirical distribution
     protected List<Assignment> samples;
 
-    // random sampler
-    private Random sampler;
-
     // cache for the discrete and continuous distributions
     private MultivariateTable discreteCache;
     private ContinuousDistribution continuousCache;
@@ -68,7 +66,6 @@ public class EmpiricalDistribution implements MultivariateDistribution {
     public EmpiricalDistribution() {
         this.samples = new ArrayList<>();
         this.variables = new HashSet<>();
-        sampler = new Random();
     }
 
     /**
@@ -123,7 +120,7 @@ public class EmpiricalDistribution implements MultivariateDistribution {
     public Assignment sample() {
 
         if (!samples.isEmpty()) {
-            int selection = sampler.nextInt(samples.size());
+            int selection = RandomUtils.getRandom().nextInt(samples.size());
             return samples.get(selection);
         } else {
             log.warning("distribution has no samples");
@@ -50,8 +50,8 @@ public class MultivariateTable implements MultivariateDistribution {
     // the probability table
     private Map<Assignment, Double> table;
 
-    // probability intervals (used for binary search in sampling)
-    private Intervals<Assignment> intervals;
+    // alias table for sampling (built lazily, and reset when the table changes)
+    private volatile Intervals<Assignment> intervals;
 
     // sampler
     Random sampler;
@@ -111,6 +111,7 @@ public class MultivariateTable implements MultivariateDistribution {
             newTable.put(new Assignment(row, assign), table.get(row));
         }
         table = newTable;
+        intervals = null;
     }
 
     // ===================================
@@ -186,8 +187,10 @@ public class MultivariateTable implements MultivariateDistribution {
     @Override
     public Assignment sample() {
 
+        Intervals<Assignment> intervals = this.intervals;
         if (intervals == null) {
             intervals = new Intervals<>(table);
+            this.intervals = intervals;
         }
         if (intervals.isEmpty()) {
             log.warning("interval is empty, table: " + table);
@@ -98,6 +98,33 @@ public interface ProbDistribution {
      */
     ProbDistribution getPosterior(Assignment condition);
 
+    /**
+     * Returns the distribution restricted to the evidence, i.e. conditioned on the
+     * values of the observed conditional variables. Evidence on other variables is
+     * ignored. The distribution is returned as such if none of its conditional
+     * variables is observed, and reduces to the (unconditional) distribution on X if
+     * all of them are.
+     *
+     * <p>
+     * Contrary to getPosterior(condition), the method can be applied to the complete
+     * evidence, and is meant to be called once before enumerating the rows of a
+     * factor, so that the branches that are inconsistent with the evidence are
+     * never enumerated.
+     *
+     * @param evidence the evidence (which may contain other variables)
+     * @return the restricted distribution
+     */
+    default ProbDistribution restrict(Assignment evidence) {
+        Set<String> inputVars = getInputVariables();
+        Assignment trimmed = evidence.getTrimmed(inputVars);
+        if (trimmed.isEmpty()) {
+            return this;
+        } else if (trimmed.size() == inputVars.size()) {
+            return getProbDistrib(trimmed);
+        }
+        return getPosterior(trimmed);
+    }
+
     /**
      * Prunes values whose frequency in the distribution is lower than the given
      * threshold.
@@ -27,6 +27,7 @@ import java.util.*;
 import java.util.logging.*;
 
 import opendial.utils.MathUtils;
+import opendial.utils.RandomUtils;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -49,10 +50,6 @@ public class DirichletDensityFunction implements DensityFunction {
     // normalisation factor
     private final double C;
 
-    // random number generator
-    private static final Random rng = new Random(Calendar.getInstance().getTimeInMillis()
-            + Thread.currentThread().getId());
-
     /**
      * Create a new Dirichlet density function with the provided alpha parameters
      *
@@ -180,8 +177,8 @@ public class DirichletDensityFunction implements DensityFunction {
             double d = ((1 - k) * Math.pow(k, (k / (1 - k))));
             double u, v, z, e, x;
             do {
-                u = rng.nextDouble();
-                v = rng.nextDouble();
+                u = RandomUtils.getRandom().nextDouble();
+                v = RandomUtils.getRandom().nextDouble();
                 z = -Math.log(u);
                 e = -Math.log(v);
                 x = Math.pow(z, c);
@@ -198,8 +195,8 @@ public class DirichletDensityFunction implements DensityFunction {
             double cheng = (1 + Math.log(4.5));
             double u, v, x, y, z, r;
             do {
-                u = rng.nextDouble();
-                v = rng.nextDouble();
+                u = RandomUtils.getRandom().nextDouble();
+                v = RandomUtils.getRandom().nextDouble();
                 y = ((1 / lam) * Math.log(v / (1 - v)));
                 x = (k * Math.exp(y));
                 z = (u * v * v);
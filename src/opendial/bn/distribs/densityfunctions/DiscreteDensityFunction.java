@@ -26,13 +26,13 @@ package opendial.bn.distribs.densityfunctions;
 import java.util.logging.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 import opendial.bn.values.ValueFactory;
 import opendial.utils.MathUtils;
+import opendial.utils.RandomUtils;
 import opendial.utils.StringUtils;
 
 import org.w3c.dom.Attr;
@@ -54,9 +54,6 @@ public class DiscreteDensityFunction implements DensityFunction {
     // the set of points for the density function
     private Map<double[], Double> points;
 
-    // the sampler
-    private Random sampler;
-
     // minimum distance between points
     private double minDistance;
 
@@ -66,9 +63,7 @@ public class DiscreteDensityFunction implements DensityFunction {
      * @param points a set of (value,prob) pairs
      */
     public DiscreteDensityFunction(Map<double[], Double> points) {
-        this.points = new HashMap<>();
-        this.points.putAll(points);
-        sampler = new Random();
+        this.points = new LinkedHashMap<>(points);
 
         // calculate the minimum distance between points
         this.minDistance = MathUtils.getMinEuclidianDistance(points.keySet());
@@ -119,7 +114,7 @@ public class DiscreteDensityFunction implements DensityFunction {
      */
     @Override
     public double[] sample() {
-        double sampled = sampler.nextFloat();
+        double sampled = RandomUtils.getRandom().nextDouble();
         double sum = 0.0;
         for (double[] point : points.keySet()) {
             sum += points.get(point);
@@ -27,6 +27,7 @@ import java.util.*;
 import java.util.logging.*;
 
 import opendial.bn.values.ValueFactory;
+import opendial.utils.RandomUtils;
 import opendial.utils.StringUtils;
 
 import org.w3c.dom.Attr;
@@ -55,9 +56,6 @@ public class GaussianDensityFunction implements DensityFunction {
     // the standard deviation of the Gaussian
     private final double[] stdDev;
 
-    // sampler object
-    private static final Random sampler = new Random();
-
     /**
      * Creates a new density function with the given mean and variance vector. Only
      * diagonal coveriance are currently supported
@@ -150,7 +148,7 @@ public class GaussianDensityFunction implements DensityFunction {
 
         double[] result = new double[mean.length];
         for (int i = 0; i < mean.length; i++) {
-            result[i] = (sampler.nextGaussian() * stdDev[i]) + mean[i];
+            result[i] = (RandomUtils.nextGaussian() * stdDev[i]) + mean[i];
         }
         return result;
     }
@@ -26,16 +26,15 @@ package opendial.bn.distribs.densityfunctions;
 import java.util.logging.*;
 
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import opendial.utils.MathUtils;
+import opendial.utils.RandomUtils;
 import opendial.utils.StringUtils;
 
 import org.w3c.dom.Document;
@@ -64,10 +63,6 @@ public class KernelDensityFunction implements DensityFunction {
     // the points
     private final double[][] points;
 
-    // the sampler
-    private static final Random sampler = new Random(Calendar.getInstance().getTimeInMillis()
-            + Thread.currentThread().getId());
-
     // whether the data points are bounded (if the sum of their values over the
     // dimensions must amount o 1.0).
     private final boolean isBounded;
@@ -152,7 +147,7 @@ public class KernelDensityFunction implements DensityFunction {
     public double[] sample() {
 
         // step 1 : selecting one point from the available points
-        double[] centre = points[sampler.nextInt(points.length)];
+        double[] centre = points[RandomUtils.getRandom().nextInt(points.length)];
 
         // step 2: sampling a point in its vicinity (following a Gaussian)
         double[] newPoint = new double[bandwidths.length];
@@ -160,7 +155,7 @@ public class KernelDensityFunction implements DensityFunction {
         double shift = 0.0;
         for (int i = 0; i < centre.length; i++) {
             newPoint[i] =
-                    (sampler.nextGaussian() * samplingDeviation[i]) + centre[i];
+                    (RandomUtils.nextGaussian() * samplingDeviation[i]) + centre[i];
             total += newPoint[i];
             if (newPoint[i] < shift) {
                 shift = newPoint[i];
@@ -27,6 +27,7 @@ import java.util.*;
 import java.util.logging.*;
 
 import opendial.bn.values.ValueFactory;
+import opendial.utils.RandomUtils;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -48,9 +49,6 @@ public class UniformDensityFunction implements DensityFunction {
     // maximum threshold
     private final double maximum;
 
-    // sampler
-    private static final Random sampler = new Random();
-
     /**
      * Creates a new uniform density function with the given minimum and maximum
      * threshold
@@ -86,7 +84,7 @@ public class UniformDensityFunction implements DensityFunction {
     @Override
     public double[] sample() {
         double length = maximum - minimum;
-        return new double[]{sampler.nextFloat() * length + minimum};
+        return new double[]{RandomUtils.getRandom().nextDouble() * length + minimum};
     }
 
     /**
@@ -26,13 +26,13 @@ package opendial.bn.nodes;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.utils.RandomUtils;
 
 /**
  * Representation of an action node (sometimes also called decision node). An action
@@ -49,8 +49,6 @@ public class ActionNode extends BNode {
     private Set<Value> actionValues;
     private Value[] actionValuesAsArray;
 
-    private Random sampler;
-
     // ===================================
     // NODE CONSTRUCTION
     // ===================================
@@ -63,7 +61,6 @@ public class ActionNode extends BNode {
     public ActionNode(String nodeId) {
         super(nodeId);
         actionValues = new HashSet<>();
-        sampler = new Random();
         actionValues.add(ValueFactory.none());
     }
 
@@ -91,6 +88,7 @@ public class ActionNode extends BNode {
     public void addValue(Value value) {
         actionValues.add(value);
         actionValuesAsArray = null;
+        updateVersion();
     }
 
     /**
@@ -112,6 +110,7 @@ public class ActionNode extends BNode {
     public void removeValue(Value value) {
         actionValues.remove(value);
         actionValuesAsArray = null;
+        updateVersion();
     }
 
     /**
@@ -121,6 +120,7 @@ public class ActionNode extends BNode {
      */
     public void removeValues(Set<Object> values) {
         actionValues.removeAll(values);
+        updateVersion();
     }
 
     /**
@@ -171,7 +171,7 @@ public class ActionNode extends BNode {
      * @return the sample value
      */
     public Value sample() {
-        int index = sampler.nextInt(actionValues.size());
+        int index = RandomUtils.getRandom().nextInt(actionValues.size());
         if (actionValuesAsArray == null) {
             actionValuesAsArray =
                     actionValues.toArray(new Value[actionValues.size()]);
@@ -215,6 +215,7 @@ public class ActionNode extends BNode {
 
     public void setValues(Set<Value> newValues) {
         actionValues = newValues;
+        updateVersion();
     }
 
 }
@@ -25,6 +25,7 @@ package opendial.bn.nodes;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -33,6 +34,8 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjDoubleConsumer;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -70,6 +73,15 @@ public abstract class BNode implements Comparable<BNode> {
     // Graphical model in which the node is included (can be null)
     BNetwork network;
 
+    // number of modifications of the node relations
+    private int relationsVersion = 0;
+
+    // counter providing increasing version stamps to nodes and networks
+    private static final AtomicLong versionCounter = new AtomicLong();
+
+    // version stamp of the last modification of the node
+    private volatile long version = nextVersion();
+
     // ===================================
     // NODE CONSTRUCTION
     // ===================================
@@ -113,6 +125,18 @@ public abstract class BNode implements Comparable<BNode> {
         inputNode.addOutputNode_internal(this);
     }
 
+    /**
+     * Adds a new relation from the node given as argument to the current node,
+     * without checking the validity of the relation (cycles, node types). This
+     * method should only be used to replicate relations from a valid network.
+     *
+     * @param inputNode the node to add
+     */
+    public void addInputNodeUnchecked(BNode inputNode) {
+        addInputNode_internal(inputNode);
+        inputNode.addOutputNode_internal(this);
+    }
+
     /**
      * Adds new relations from the nodes given as arguments to the current node
      *
@@ -197,6 +221,7 @@ public abstract class BNode implements Comparable<BNode> {
     public void setId(String newNodeId) {
         String oldNodeId = this.nodeId;
         this.nodeId = newNodeId;
+        updateVersion();
 
         modifyVariableId(oldNodeId, newNodeId);
 
@@ -221,6 +246,15 @@ public abstract class BNode implements Comparable<BNode> {
         this.network = network;
     }
 
+    /**
+     * Returns the Bayesian network associated with the node (can be null).
+     *
+     * @return the network of the node
+     */
+    public BNetwork getNetwork() {
+        return network;
+    }
+
     // ===================================
     // GETTERS
     // ===================================
@@ -256,6 +290,37 @@ public abstract class BNode implements Comparable<BNode> {
         return outputNodes.containsKey(nodeId);
     }
 
+    /**
+     * Returns the number of modifications of the node relations (insertions or
+     * removals of input and output nodes) since the node creation. The number can
+     * be used to detect changes in the network structure.
+     *
+     * @return the number of modifications of the relations
+     */
+    public int getRelationsVersion() {
+        return relationsVersion;
+    }
+
+    /**
+     * Returns the version stamp of the last modification of the node (identifier,
+     * relations, distribution or values). Version stamps are shared between all
+     * nodes and networks and strictly increase with each modification.
+     *
+     * @return the version stamp of the node
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a new version stamp, larger than all the stamps returned so far.
+     *
+     * @return the new version stamp
+     */
+    public static long nextVersion() {
+        return versionCounter.incrementAndGet();
+    }
+
     /**
      * Returns the set of input nodes
      *
@@ -584,6 +649,29 @@ public abstract class BNode implements Comparable<BNode> {
      */
     public abstract Map<Assignment, Double> getFactor();
 
+    /**
+     * Enumerates the rows of the factor matrix that are consistent with the
+     * evidence, and passes them one by one to the consumer. The rows that are
+     * inconsistent with the evidence are not generated. The assignment given to the
+     * consumer may be reused for the next rows, and should therefore not be
+     * retained.
+     *
+     * <p>
+     * By default, the method filters the rows of the full factor matrix. The
+     * subclasses can override it to enumerate the rows without materialising the
+     * matrix.
+     *
+     * @param evidence the evidence
+     * @param rows     the consumer for the (assignment, value) rows
+     */
+    public void getFactor(Assignment evidence, ObjDoubleConsumer<Assignment> rows) {
+        for (Map.Entry<Assignment, Double> row : getFactor().entrySet()) {
+            if (row.getKey().consistentWith(evidence)) {
+                rows.accept(row.getKey(), row.getValue());
+            }
+        }
+    }
+
     /**
      * Returns the (maximal) clique in the network that contains this node.
      *
@@ -636,6 +724,35 @@ public abstract class BNode implements Comparable<BNode> {
         }
     }
 
+    /**
+     * Returns the possible assignments of input values for the node that are
+     * consistent with the evidence. The input nodes in the evidence are restricted
+     * to their observed value (or to no value at all, if the observed value is not
+     * one of their possible values). Contrary to getPossibleConditions(), the
+     * assignments are generated lazily while iterating.
+     *
+     * @param evidence the evidence
+     * @return the possible conditions, as a lazy iterable
+     */
+    public Iterable<Assignment> getPossibleConditions(Assignment evidence) {
+        ValueRange possibleInputValues = new ValueRange();
+        for (BNode inputNode : inputNodes.values()) {
+            String inputId = inputNode.getId();
+            Set<Value> inputValues = inputNode.getValues();
+            if (evidence.containsVar(inputId)) {
+                Value observed = evidence.getValue(inputId);
+                inputValues = (inputValues.contains(observed))
+                        ? Collections.singleton(observed)
+                        : Collections.emptySet();
+            }
+            possibleInputValues.addValues(inputId, inputValues);
+            if (inputValues.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+        return possibleInputValues.getCombinations();
+    }
+
     // ===================================
     // UTILITIES
     // ===================================
@@ -648,6 +765,17 @@ public abstract class BNode implements Comparable<BNode> {
      */
     public abstract BNode copy();
 
+    /**
+     * Creates a copy of the current node that may share its content (e.g. its
+     * distribution) with the current node, as long as none of them is modified. By
+     * default, the method returns a full copy.
+     *
+     * @return the copy of the node
+     */
+    public BNode sharedCopy() {
+        return copy();
+    }
+
     /**
      * Compares the node to other nodes, in order to derive the topological order of
      * the network. If the node given as argument is one ancestor of this node,
@@ -749,6 +877,18 @@ public abstract class BNode implements Comparable<BNode> {
     // PROTECTED AND PRIVATE METHODS
     // ===================================
 
+    /**
+     * Marks the node as modified, by assigning it a new version stamp (which is
+     * also notified to the network of the node).
+     */
+    protected void updateVersion() {
+        long stamp = nextVersion();
+        version = stamp;
+        if (network != null) {
+            network.nodeModified(stamp);
+        }
+    }
+
     /**
      * Replaces the identifier for the input and output nodes with the new identifier
      *
@@ -780,6 +920,8 @@ public abstract class BNode implements Comparable<BNode> {
                     + " already included in the input nodes of " + nodeId);
         }
         inputNodes.put(inputNode.getId(), inputNode);
+        relationsVersion++;
+        updateVersion();
     }
 
     /**
@@ -795,11 +937,15 @@ public abstract class BNode implements Comparable<BNode> {
                     + " already included in the output nodes of " + nodeId);
         } else {
             outputNodes.put(outputNode.getId(), outputNode);
+            relationsVersion++;
+            updateVersion();
         }
     }
 
     protected boolean removeInputNode_internal(String inputNodeId) {
         BNode inputNode = inputNodes.remove(inputNodeId);
+        relationsVersion++;
+        updateVersion();
         return (inputNode != null);
     }
 
@@ -817,6 +963,8 @@ public abstract class BNode implements Comparable<BNode> {
                     "node " + outputNodeId + " is not an output node for " + nodeId);
         }
         BNode outputNode = outputNodes.remove(outputNodeId);
+        relationsVersion++;
+        updateVersion();
         return (outputNode != null);
     }
 
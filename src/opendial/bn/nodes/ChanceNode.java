@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.ObjDoubleConsumer;
 import java.util.logging.Logger;
 
 import opendial.Settings;
@@ -54,7 +55,11 @@ public class ChanceNode extends BNode {
     // the set of cached values for the node
     // NB: if the node has a continuous range, these values are based on
     // a discretisation procedure defined by the distribution
-    private Set<Value> cachedValues;
+    private volatile Set<Value> cachedValues;
+
+    // whether the distribution is shared with other nodes (see sharedCopy), in
+    // which case it must be copied before being modified
+    private boolean sharedDistrib = false;
 
     // ===================================
     // NODE CONSTRUCTION
@@ -87,15 +92,20 @@ public class ChanceNode extends BNode {
 
     /**
      * Sets the probability distribution of the node, and erases the existing one.
+     * The new distribution is owned by the node (and may thus be modified in
+     * place), so it must not wrap or reuse a distribution that is shared with other
+     * nodes: such distributions must first be retrieved with getMutableDistrib().
      *
      * @param distrib the distribution for the node
      */
     public void setDistrib(ProbDistribution distrib) {
         this.distrib = distrib;
+        sharedDistrib = false;
         if (!distrib.getVariable().equals(nodeId)) {
             log.warning(nodeId + "  != " + distrib.getVariable());
         }
         cachedValues = null;
+        updateVersion();
     }
 
     /**
@@ -118,7 +128,7 @@ public class ChanceNode extends BNode {
         // log.fine("changing id from " + this.nodeId + " to " + nodeId);
         String oldId = nodeId;
         super.setId(newId);
-        distrib.modifyVariableId(oldId, newId);
+        getMutableDistrib().modifyVariableId(oldId, newId);
     }
 
     /**
@@ -127,8 +137,12 @@ public class ChanceNode extends BNode {
      * @param threshold the probability threshold
      */
     public void pruneValues(double threshold) {
-        if (distrib.pruneValues(threshold)) {
+        ProbDistribution pruned = (sharedDistrib) ? distrib.copy() : distrib;
+        if (pruned.pruneValues(threshold)) {
+            distrib = pruned;
+            sharedDistrib = false;
             cachedValues = null;
+            updateVersion();
         }
     }
 
@@ -272,6 +286,23 @@ public class ChanceNode extends BNode {
         return distrib;
     }
 
+    /**
+     * Returns the probability distribution attached to the node, in order to modify
+     * it in place. If the distribution is shared with other nodes (following a
+     * shared copy of the node), it is first replaced by a private copy. Since the
+     * distribution is expected to be modified, the node version is updated.
+     *
+     * @return the distribution (not shared with other nodes)
+     */
+    public ProbDistribution getMutableDistrib() {
+        if (sharedDistrib) {
+            distrib = distrib.copy();
+            sharedDistrib = false;
+        }
+        updateVersion();
+        return distrib;
+    }
+
     /**
      * Returns the "factor matrix" mapping assignments of conditional variables + the
      * node variable to a probability value.
@@ -295,6 +326,42 @@ public class ChanceNode extends BNode {
         return factor;
     }
 
+    /**
+     * Enumerates the rows of the factor matrix that are consistent with the
+     * evidence. The conditions are enumerated lazily (with the input nodes in the
+     * evidence restricted to their observed value), and if the node itself is in
+     * the evidence, only its observed value is considered. The distribution is
+     * restricted to the evidence beforehand, so that the observed inputs are
+     * resolved once for the whole factor rather than for every row.
+     *
+     * @param evidence the evidence
+     * @param rows     the consumer for the (assignment, probability) rows
+     */
+    @Override
+    public void getFactor(Assignment evidence, ObjDoubleConsumer<Assignment> rows) {
+        Value observed = (evidence.containsVar(nodeId)) ? evidence.getValue(nodeId)
+                : null;
+        Assignment inputEvidence = evidence.getTrimmed(inputNodes.keySet());
+        ProbDistribution restricted = distrib.restrict(inputEvidence);
+        for (Assignment condition : getPossibleConditions(evidence)) {
+            Assignment free = (restricted == distrib) ? condition
+                    : condition.getPruned(inputEvidence.getVariables());
+            IndependentDistribution posterior = restricted.getProbDistrib(free);
+            Assignment row = new Assignment(condition);
+            if (observed != null) {
+                if (posterior.getValues().contains(observed)) {
+                    row.addPair(nodeId, observed);
+                    rows.accept(row, posterior.getProb(observed));
+                }
+                continue;
+            }
+            for (Value value : posterior.getValues()) {
+                row.addPair(nodeId, value);
+                rows.accept(row, posterior.getProb(value));
+            }
+        }
+    }
+
     // ===================================
     // UTILITIES
     // ===================================
@@ -314,6 +381,23 @@ public class ChanceNode extends BNode {
         return cn;
     }
 
+    /**
+     * Returns a copy of the node that shares its distribution with the current node.
+     * The distribution is only copied when one of the two nodes modifies it.
+     *
+     * @return the copy
+     */
+    @Override
+    public ChanceNode sharedCopy() {
+        ChanceNode cn = new ChanceNode(nodeId, distrib);
+        cn.sharedDistrib = true;
+        sharedDistrib = true;
+        if (cachedValues != null) {
+            cn.cachedValues = new HashSet<>(cachedValues);
+        }
+        return cn;
+    }
+
     /**
      * Returns the hashcode for the node (based on the hashcode of the identifier and
      * the distribution).
@@ -338,7 +422,7 @@ public class ChanceNode extends BNode {
     @Override
     protected void modifyVariableId(String oldId, String newId) {
         super.modifyVariableId(oldId, newId);
-        distrib.modifyVariableId(oldId, newId);
+        getMutableDistrib().modifyVariableId(oldId, newId);
     }
 
 }
@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.ObjDoubleConsumer;
 
 import opendial.bn.distribs.UtilityFunction;
 import opendial.bn.distribs.UtilityTable;
@@ -48,6 +49,10 @@ public class UtilityNode extends BNode {
     // the utility distribution
     protected UtilityFunction distrib;
 
+    // whether the distribution is shared with other nodes (see sharedCopy), in
+    // which case it must be copied before being modified
+    private boolean sharedDistrib = false;
+
     // ===================================
     // NODE CONSTRUCTION
     // ===================================
@@ -82,7 +87,7 @@ public class UtilityNode extends BNode {
      */
     public void addUtility(Assignment input, double value) {
         if (distrib instanceof UtilityTable) {
-            ((UtilityTable) distrib).setUtil(input, value);
+            ((UtilityTable) getMutableDistrib()).setUtil(input, value);
         } else {
             log.warning("utility distribution is not a table, cannot add value");
         }
@@ -95,7 +100,7 @@ public class UtilityNode extends BNode {
      */
     public void removeUtility(Assignment input) {
         if (distrib instanceof UtilityTable) {
-            ((UtilityTable) distrib).removeUtil(input);
+            ((UtilityTable) getMutableDistrib()).removeUtil(input);
         } else {
             log.warning("utility distribution is not a table, cannot remove value");
         }
@@ -103,12 +108,14 @@ public class UtilityNode extends BNode {
 
     public void setDistrib(UtilityFunction distrib) {
         this.distrib = distrib;
+        sharedDistrib = false;
+        updateVersion();
     }
 
     @Override
     public void setId(String newId) {
         super.setId(newId);
-        distrib.modifyVariableId(this.nodeId, newId);
+        getMutableDistrib().modifyVariableId(this.nodeId, newId);
     }
 
     // ===================================
@@ -163,6 +170,20 @@ public class UtilityNode extends BNode {
         return factor;
     }
 
+    /**
+     * Enumerates the rows of the factor matrix that are consistent with the
+     * evidence, without materialising the matrix.
+     *
+     * @param evidence the evidence
+     * @param rows     the consumer for the (assignment, utility) rows
+     */
+    @Override
+    public void getFactor(Assignment evidence, ObjDoubleConsumer<Assignment> rows) {
+        for (Assignment condition : getPossibleConditions(evidence)) {
+            rows.accept(condition, distrib.getUtil(condition));
+        }
+    }
+
     // ===================================
     // UTILITIES
     // ===================================
@@ -178,6 +199,21 @@ public class UtilityNode extends BNode {
         return new UtilityNode(nodeId, distrib.copy());
     }
 
+    /**
+     * Returns a copy of the node that shares its utility distribution with the
+     * current node. The distribution is only copied when one of the two nodes
+     * modifies it.
+     *
+     * @return the copy
+     */
+    @Override
+    public UtilityNode sharedCopy() {
+        UtilityNode copy = new UtilityNode(nodeId, distrib);
+        copy.sharedDistrib = true;
+        sharedDistrib = true;
+        return copy;
+    }
+
     /**
      * Returns a string representation of the node, consisting of the node utility
      * distribution
@@ -198,4 +234,24 @@ public class UtilityNode extends BNode {
         return nodeId.hashCode() - distrib.hashCode();
     }
 
+    // ===================================
+    // PRIVATE METHODS
+    // ===================================
+
+    /**
+     * Returns the utility distribution, after replacing it by a private copy if it
+     * is shared with other nodes. Since the distribution is expected to be
+     * modified, the node version is updated.
+     *
+     * @return the distribution (not shared with other nodes)
+     */
+    private UtilityFunction getMutableDistrib() {
+        if (sharedDistrib) {
+            distrib = distrib.copy();
+            sharedDistrib = false;
+        }
+        updateVersion();
+        return distrib;
+    }
+
 }
@@ -67,7 +67,7 @@ public final class BooleanVal implements Value {
      */
     @Override
     public boolean equals(Object o) {
-        return (o instanceof BooleanVal
+        return o == this || (o instanceof BooleanVal
                 && ((BooleanVal) o).getBoolean() == getBoolean());
     }
 
@@ -81,13 +81,14 @@ public final class BooleanVal implements Value {
     }
 
     /**
-     * Copies the boolean value
+     * Returns the boolean value itself, since boolean values are immutable and
+     * shared.
      *
-     * @return the copy
+     * @return the value
      */
     @Override
     public BooleanVal copy() {
-        return new BooleanVal(b);
+        return this;
     }
 
     /**
@@ -117,7 +118,7 @@ public final class BooleanVal implements Value {
     @Override
     public Value concatenate(Value v) {
         if (v instanceof BooleanVal) {
-            return new BooleanVal(b & ((BooleanVal) v).getBoolean());
+            return ValueFactory.create(b & ((BooleanVal) v).getBoolean());
         } else if (v instanceof NoneVal) {
             return this;
         } else {
@@ -72,7 +72,7 @@ public final class DoubleVal implements Value {
      */
     @Override
     public boolean equals(Object o) {
-        return (o instanceof DoubleVal
+        return o == this || (o instanceof DoubleVal
                 && Math.abs(((DoubleVal) o).getDouble() - getDouble()) < 0.000001);
     }
 
@@ -73,7 +73,9 @@ public final class StringVal implements Value {
      */
     @Override
     public boolean equals(Object o) {
-        if (o instanceof StringVal) {
+        if (o == this) {
+            return true;
+        } else if (o instanceof StringVal) {
             StringVal stringval = (StringVal) o;
             return stringval.str.equalsIgnoreCase(str);
         }
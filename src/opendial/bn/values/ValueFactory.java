@@ -29,6 +29,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,6 +49,21 @@ public class ValueFactory {
     // none value (no need to recreate one everytime)
     static final NoneVal noneValue = new NoneVal();
 
+    // boolean values (idem)
+    static final BooleanVal trueValue = new BooleanVal(true);
+    static final BooleanVal falseValue = new BooleanVal(false);
+
+    /**
+     * Maximum number of string representations kept in the intern cache. When the
+     * limit is reached, the cache is emptied and filled anew (the bound is only
+     * approximate when several threads create values at the same time).
+     */
+    public static int MAX_CACHE_SIZE = 20000;
+
+    // cache mapping raw strings to their (immutable) values
+    private static final Map<String, Value> cache =
+            new ConcurrentHashMap<String, Value>();
+
     // pattern to find a double value
     private static Pattern doublePattern =
             Pattern.compile("[-+]?[0-9]*\\.?[0-9]+([eE][-+]?[0-9]+)?");
@@ -66,6 +83,11 @@ public class ValueFactory {
      * contains a numeric value, "true", "false", "None", or opening and closing
      * brackets, convert it to the appropriate values. Else, returns a string value.
      *
+     * <p>
+     * Immutable values (strings, doubles, booleans and none) are interned, so that
+     * repeated calls with the same string return the same instance without parsing
+     * it again.
+     *
      * @param str the string representation for the value
      * @return the resulting value
      */
@@ -74,14 +96,39 @@ public class ValueFactory {
         if (str == null) {
             return noneValue;
         }
+        Value cached = cache.get(str);
+        if (cached != null) {
+            return cached;
+        }
+        Value value = parse(str);
+        if (value instanceof StringVal || value instanceof DoubleVal
+                || value instanceof BooleanVal || value instanceof NoneVal) {
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            Value previous = cache.putIfAbsent(str, value);
+            if (previous != null) {
+                return previous;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Parses the string representation of a value.
+     *
+     * @param str the string representation
+     * @return the resulting value
+     */
+    private static Value parse(String str) {
 
         Matcher m = doublePattern.matcher(str);
         if (m.matches()) {
             return new DoubleVal(Double.parseDouble(str));
         } else if (str.equalsIgnoreCase("true")) {
-            return new BooleanVal(true);
+            return trueValue;
         } else if (str.equalsIgnoreCase("false")) {
-            return new BooleanVal(false);
+            return falseValue;
         } else if (str.equalsIgnoreCase("None")) {
             return none();
         }
@@ -139,7 +186,7 @@ public class ValueFactory {
      * @return the double
      */
     public static BooleanVal create(boolean b) {
-        return new BooleanVal(b);
+        return (b) ? trueValue : falseValue;
     }
 
     /**
@@ -171,6 +218,15 @@ public class ValueFactory {
         return noneValue;
     }
 
+    /**
+     * Returns the current number of interned string representations
+     *
+     * @return the size of the intern cache
+     */
+    public static int getCacheSize() {
+        return cache.size();
+    }
+
     public static Value concatenate(Value value, Value value2) {
         if (value instanceof StringVal && value2 instanceof StringVal) {
             return new StringVal(((StringVal) value).getString() + " "
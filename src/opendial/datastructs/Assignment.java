@@ -28,7 +28,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -52,8 +51,9 @@ import org.w3c.dom.Element;
  *
  * <p>
  * Technically, the assignment is encoded as a map between the variable identifiers
- * and their associated value. This class offers various methods are provided for
- * creating, comparing and manipulating such assignments.
+ * and their associated value. This map is optimised for small assignments (see
+ * CompactMap), which are by far the most common ones. This class offers various
+ * methods are provided for creating, comparing and manipulating such assignments.
  *
  * @author Pierre Lison (plison@ifi.uio.no)
  */
@@ -62,7 +62,7 @@ public class Assignment {
     // logger
     final static Logger log = Logger.getLogger("OpenDial");
 
-    // the hashmap encoding the assignment
+    // the map encoding the assignment
     protected final Map<String, Value> map;
 
     // the cached value for the hash
@@ -76,7 +76,26 @@ public class Assignment {
      * Creates a new, empty assignment
      */
     public Assignment() {
-        map = new HashMap<String, Value>();
+        map = new CompactMap();
+    }
+
+    /**
+     * Creates a new, empty assignment with space for a given number of pairs
+     *
+     * @param capacity the expected number of pairs
+     */
+    private Assignment(int capacity) {
+        map = new CompactMap(capacity);
+    }
+
+    /**
+     * Creates a copy of the assignment, with space for additional pairs
+     *
+     * @param a     the assignment to copy
+     * @param extra the number of pairs that are expected to be added
+     */
+    private Assignment(Assignment a, int extra) {
+        map = new CompactMap(a.map, extra);
     }
 
     /**
@@ -85,7 +104,7 @@ public class Assignment {
      * @param a the assignment to copy
      */
     public Assignment(Assignment a) {
-        map = new HashMap<String, Value>(a.map);
+        map = new CompactMap(a.map);
     }
 
     /**
@@ -95,7 +114,7 @@ public class Assignment {
      * @param val the value
      */
     public Assignment(String var, Value val) {
-        map = new HashMap<String, Value>();
+        map = new CompactMap(1);
         map.put(var, val);
     }
 
@@ -106,7 +125,7 @@ public class Assignment {
      * @param val the value (as a string)
      */
     public Assignment(String var, String val) {
-        this();
+        this(1);
         map.put(var, ValueFactory.create(val));
     }
 
@@ -117,7 +136,7 @@ public class Assignment {
      * @param val the value (as a double)
      */
     public Assignment(String var, double val) {
-        this();
+        this(1);
         map.put(var, ValueFactory.create(val));
     }
 
@@ -128,7 +147,7 @@ public class Assignment {
      * @param val the value (as a boolean)
      */
     public Assignment(String var, boolean val) {
-        this();
+        this(1);
         map.put(var, ValueFactory.create(val));
     }
 
@@ -139,7 +158,7 @@ public class Assignment {
      * @param val the value (as a double array)
      */
     public Assignment(String var, double[] val) {
-        this();
+        this(1);
         map.put(var, ValueFactory.create(val));
     }
 
@@ -194,8 +213,7 @@ public class Assignment {
      * @param val the value
      */
     public Assignment(Assignment ass, String var, Value val) {
-        this();
-        addAssignment(ass);
+        this(ass, 1);
         addPair(var, val);
     }
 
@@ -208,8 +226,7 @@ public class Assignment {
      * @param val the value
      */
     public Assignment(Assignment ass, String var, String val) {
-        this();
-        addAssignment(ass);
+        this(ass, 1);
         addPair(var, val);
     }
 
@@ -222,8 +239,7 @@ public class Assignment {
      * @param val the value
      */
     public Assignment(Assignment ass, String var, double val) {
-        this();
-        addAssignment(ass);
+        this(ass, 1);
         addPair(var, val);
     }
 
@@ -236,8 +252,7 @@ public class Assignment {
      * @param val the value
      */
     public Assignment(Assignment ass, String var, boolean val) {
-        this();
-        addAssignment(ass);
+        this(ass, 1);
         addPair(var, val);
     }
 
@@ -262,7 +277,7 @@ public class Assignment {
      * @param val2 value of second variable
      */
     public Assignment(String var1, Value val1, String var2, Value val2) {
-        this();
+        this(2);
         map.put(var1, val1);
         map.put(var2, val2);
     }
@@ -512,13 +527,10 @@ public class Assignment {
      * @return a new assignment, without the accessory specifiers
      */
     public Assignment removePrimes() {
-        Assignment a = new Assignment();
+        Assignment a = new Assignment(map.size());
         for (String var : map.keySet()) {
-            if (!map.containsKey(var + "'")) {
-                boolean hasPrime = (var.charAt(var.length() - 1) == '\'');
-                String newVar =
-                        (hasPrime) ? var.substring(0, var.length() - 1) : var;
-                a.addPair(newVar, map.get(var));
+            if (!map.containsKey(Variables.addPrime(var))) {
+                a.addPair(Variables.removePrime(var), map.get(var));
             }
         }
 
@@ -561,9 +573,10 @@ public class Assignment {
     }
 
     public Assignment addPrimes() {
-        Assignment a = new Assignment();
+        Assignment a = new Assignment(map.size());
         map.entrySet().stream()
-                .forEach(e -> a.addPair(e.getKey() + "'", e.getValue()));
+                .forEach(e -> a.addPair(Variables.addPrime(e.getKey()),
+                        e.getValue()));
         return a;
     }
 
@@ -647,7 +660,7 @@ public class Assignment {
      * @return a new, trimmed assignment
      */
     public Assignment getTrimmed(Collection<String> variables) {
-        Assignment a = new Assignment();
+        Assignment a = new Assignment(Math.min(map.size(), variables.size()));
         int trimmedHash = 0;
         for (Entry<String, Value> e : map.entrySet()) {
             String var = e.getKey();
@@ -669,7 +682,7 @@ public class Assignment {
      * @return a new, pruned assignment
      */
     public Assignment getPruned(Collection<String> variables) {
-        Assignment a = new Assignment();
+        Assignment a = new Assignment(map.size());
         int trimmedHash = 0;
         for (Entry<String, Value> e : map.entrySet()) {
             String var = e.getKey();
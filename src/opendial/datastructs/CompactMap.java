@@ -0,0 +1,506 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.datastructs;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import opendial.bn.values.Value;
+
+/**
+ * Map from variable identifiers to values, optimised for small sizes. Up to
+ * MAX_COMPACT_SIZE pairs, the map is encoded as a single array of alternating
+ * identifiers and values (kept in insertion order), and lookups are performed by
+ * linear search. Beyond this size, the pairs are moved to a hash map.
+ *
+ * <p>
+ * The map is used to encode the pairs of an Assignment. Contrary to a hash map,
+ * creating or copying a small map only allocates the map object and its array.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+final class CompactMap extends AbstractMap<String, Value> {
+
+    // maximum number of pairs in the compact encoding
+    static final int MAX_COMPACT_SIZE = 8;
+
+    // empty array of pairs
+    private static final Object[] EMPTY = new Object[0];
+
+    // alternating identifiers and values (for the compact encoding)
+    private Object[] pairs;
+
+    // number of pairs in the compact encoding
+    private int size;
+
+    // hash map for the pairs (when the compact encoding is not used)
+    private HashMap<String, Value> large;
+
+    // views of the map
+    private Set<String> keys;
+    private Collection<Value> vals;
+    private Set<Entry<String, Value>> entries;
+
+    /**
+     * Creates an empty map
+     */
+    CompactMap() {
+        pairs = EMPTY;
+    }
+
+    /**
+     * Creates an empty map with enough space for the given number of pairs
+     *
+     * @param capacity the expected number of pairs
+     */
+    CompactMap(int capacity) {
+        if (capacity > MAX_COMPACT_SIZE) {
+            large = new HashMap<String, Value>(capacity * 4 / 3 + 1);
+        } else {
+            pairs = (capacity > 0) ? new Object[2 * capacity] : EMPTY;
+        }
+    }
+
+    /**
+     * Creates a copy of the map
+     *
+     * @param map the map to copy
+     */
+    CompactMap(Map<String, Value> map) {
+        this(map, 0);
+    }
+
+    /**
+     * Creates a copy of the map, with enough space for a number of additional
+     * pairs.
+     *
+     * @param map   the map to copy
+     * @param extra the number of pairs that are expected to be added
+     */
+    CompactMap(Map<String, Value> map, int extra) {
+        int capacity = map.size() + extra;
+        if (map instanceof CompactMap && ((CompactMap) map).large == null
+                && capacity <= MAX_COMPACT_SIZE) {
+            CompactMap other = (CompactMap) map;
+            pairs = (capacity > 0) ? Arrays.copyOf(other.pairs, 2 * capacity)
+                    : EMPTY;
+            size = other.size;
+        } else if (capacity > MAX_COMPACT_SIZE) {
+            large = new HashMap<String, Value>(capacity * 4 / 3 + 1);
+            large.putAll(map);
+        } else {
+            pairs = (capacity > 0) ? new Object[2 * capacity] : EMPTY;
+            for (Entry<String, Value> e : map.entrySet()) {
+                pairs[2 * size] = e.getKey();
+                pairs[2 * size + 1] = e.getValue();
+                size++;
+            }
+        }
+    }
+
+    // ===================================
+    // MAP OPERATIONS
+    // ===================================
+
+    @Override
+    public int size() {
+        return (large != null) ? large.size() : size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (large != null) ? large.containsKey(key) : indexOf(key) >= 0;
+    }
+
+    @Override
+    public Value get(Object key) {
+        if (large != null) {
+            return large.get(key);
+        }
+        int i = indexOf(key);
+        return (i >= 0) ? (Value) pairs[2 * i + 1] : null;
+    }
+
+    @Override
+    public Value getOrDefault(Object key, Value defaultValue) {
+        if (large != null) {
+            return large.getOrDefault(key, defaultValue);
+        }
+        int i = indexOf(key);
+        return (i >= 0) ? (Value) pairs[2 * i + 1] : defaultValue;
+    }
+
+    @Override
+    public Value put(String key, Value value) {
+        if (large != null) {
+            return large.put(key, value);
+        }
+        int i = indexOf(key);
+        if (i >= 0) {
+            Value old = (Value) pairs[2 * i + 1];
+            pairs[2 * i + 1] = value;
+            return old;
+        } else if (size == MAX_COMPACT_SIZE) {
+            large = new HashMap<String, Value>(4 * size);
+            for (int j = 0; j < size; j++) {
+                large.put((String) pairs[2 * j], (Value) pairs[2 * j + 1]);
+            }
+            pairs = EMPTY;
+            size = 0;
+            return large.put(key, value);
+        }
+        if (2 * size == pairs.length) {
+            pairs = Arrays.copyOf(pairs, Math.max(4, 2 * pairs.length));
+        }
+        pairs[2 * size] = key;
+        pairs[2 * size + 1] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Value> map) {
+        if (map instanceof CompactMap && ((CompactMap) map).large == null) {
+            CompactMap other = (CompactMap) map;
+            for (int j = 0; j < other.size; j++) {
+                put((String) other.pairs[2 * j], (Value) other.pairs[2 * j + 1]);
+            }
+        } else {
+            for (Entry<? extends String, ? extends Value> e : map.entrySet()) {
+                put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    @Override
+    public Value remove(Object key) {
+        if (large != null) {
+            return large.remove(key);
+        }
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Value old = (Value) pairs[2 * i + 1];
+        removeAt(i);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        large = null;
+        pairs = EMPTY;
+        size = 0;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        if (keys == null) {
+            keys = new KeySet();
+        }
+        return keys;
+    }
+
+    @Override
+    public Collection<Value> values() {
+        if (vals == null) {
+            vals = new Values();
+        }
+        return vals;
+    }
+
+    @Override
+    public Set<Entry<String, Value>> entrySet() {
+        if (entries == null) {
+            entries = new EntrySet();
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the hashcode of the map (as defined in Map.hashCode).
+     */
+    @Override
+    public int hashCode() {
+        if (large != null) {
+            return large.hashCode();
+        }
+        int hash = 0;
+        for (int i = 0; i < size; i++) {
+            hash += pairs[2 * i].hashCode() ^ pairs[2 * i + 1].hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * Returns true if the object is a map with the same pairs (as defined in
+     * Map.equals).
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (large == null && o instanceof CompactMap) {
+            CompactMap other = (CompactMap) o;
+            if (other.size() != size) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                Object val = other.get(pairs[2 * i]);
+                if (val == null || !val.equals(pairs[2 * i + 1])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.equals(o);
+    }
+
+    // ===================================
+    // PRIVATE METHODS
+    // ===================================
+
+    /**
+     * Returns the position of the identifier in the compact encoding, or -1 if it
+     * is absent.
+     *
+     * @param key the identifier
+     * @return its position
+     */
+    private int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (pairs[2 * i] == key) {
+                return i;
+            }
+        }
+        int hash = key.hashCode();
+        for (int i = 0; i < size; i++) {
+            Object k = pairs[2 * i];
+            if (k.hashCode() == hash && k.equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the pair at the given position in the compact encoding
+     *
+     * @param i the position
+     */
+    private void removeAt(int i) {
+        System.arraycopy(pairs, 2 * i + 2, pairs, 2 * i, 2 * (size - i - 1));
+        size--;
+        pairs[2 * size] = null;
+        pairs[2 * size + 1] = null;
+    }
+
+    /**
+     * Iterator over the positions of the compact encoding (supporting removals).
+     */
+    private abstract class PairIterator<T> implements Iterator<T> {
+
+        // position of the next pair
+        int next = 0;
+
+        // position of the last returned pair
+        int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        /**
+         * Moves to the next position
+         *
+         * @return the position
+         */
+        int nextIndex() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+    /**
+     * View of the identifiers in the map
+     */
+    private final class KeySet extends AbstractSet<String> {
+
+        @Override
+        public Iterator<String> iterator() {
+            if (large != null) {
+                return large.keySet().iterator();
+            }
+            return new PairIterator<String>() {
+                @Override
+                public String next() {
+                    return (String) pairs[2 * nextIndex()];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return CompactMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!containsKey(o)) {
+                return false;
+            }
+            CompactMap.this.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            CompactMap.this.clear();
+        }
+    }
+
+    /**
+     * View of the values in the map
+     */
+    private final class Values extends AbstractCollection<Value> {
+
+        @Override
+        public Iterator<Value> iterator() {
+            if (large != null) {
+                return large.values().iterator();
+            }
+            return new PairIterator<Value>() {
+                @Override
+                public Value next() {
+                    return (Value) pairs[2 * nextIndex() + 1];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return CompactMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            CompactMap.this.clear();
+        }
+    }
+
+    /**
+     * View of the pairs in the map
+     */
+    private final class EntrySet extends AbstractSet<Entry<String, Value>> {
+
+        @Override
+        public Iterator<Entry<String, Value>> iterator() {
+            if (large != null) {
+                return large.entrySet().iterator();
+            }
+            return new PairIterator<Entry<String, Value>>() {
+                @Override
+                public Entry<String, Value> next() {
+                    return new PairEntry(nextIndex());
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return CompactMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            CompactMap.this.clear();
+        }
+    }
+
+    /**
+     * Entry for a pair of the compact encoding
+     */
+    private final class PairEntry extends SimpleEntry<String, Value> {
+
+        private static final long serialVersionUID = 1L;
+
+        // position of the pair
+        final int index;
+
+        /**
+         * Creates the entry for the pair at the given position
+         *
+         * @param index the position
+         */
+        PairEntry(int index) {
+            super((String) pairs[2 * index], (Value) pairs[2 * index + 1]);
+            this.index = index;
+        }
+
+        @Override
+        public Value setValue(Value value) {
+            if (large == null && index < size && pairs[2 * index] == getKey()) {
+                pairs[2 * index + 1] = value;
+            } else {
+                put(getKey(), value);
+            }
+            return super.setValue(value);
+        }
+    }
+}
@@ -25,10 +25,14 @@ package opendial.datastructs;
 
 import java.util.logging.*;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.OptionalInt;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -151,6 +155,53 @@ public class ValueRange {
         return InferenceUtils.getAllCombinations(range);
     }
 
+    /**
+     * Enumerates the alternative assignments of values for the variables in the
+     * range, one at a time. Contrary to linearise(), the combinations are generated
+     * lazily while iterating, and are therefore never all held in memory. If the
+     * range has no variables, the enumeration contains a single, empty assignment.
+     * If one variable has no value, the enumeration is empty.
+     *
+     * @return the alternative assignments, as a lazy iterable
+     */
+    public Iterable<Assignment> getCombinations() {
+        List<String> vars = new ArrayList<String>(range.keySet());
+        List<Value[]> values = new ArrayList<Value[]>(vars.size());
+        for (String var : vars) {
+            values.add(range.get(var).toArray(new Value[0]));
+        }
+        return () -> new Iterator<Assignment>() {
+
+            // index of the current value for each variable (null when exhausted)
+            int[] indices = values.stream().allMatch(v -> v.length > 0)
+                    ? new int[vars.size()] : null;
+
+            @Override
+            public boolean hasNext() {
+                return indices != null;
+            }
+
+            @Override
+            public Assignment next() {
+                if (indices == null) {
+                    throw new NoSuchElementException();
+                }
+                Assignment combination = new Assignment();
+                for (int i = 0; i < indices.length; i++) {
+                    combination.addPair(vars.get(i), values.get(i)[indices[i]]);
+                }
+                int i = indices.length - 1;
+                for (; i >= 0 && ++indices[i] == values.get(i).length; i--) {
+                    indices[i] = 0;
+                }
+                if (i < 0) {
+                    indices = null;
+                }
+                return combination;
+            }
+        };
+    }
+
     /**
      * Returns the estimated number (higher bound) of combinations for the value
      * range.
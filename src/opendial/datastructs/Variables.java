@@ -0,0 +1,232 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.datastructs;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Cache of variable identifiers and of their variants. Each variable (including
+ * its primed and predicted variants, such as a_u' or a_u^p) is registered once, and
+ * the conversions between the variants of a variable (adding or removing primes,
+ * prediction variables) are computed once and then retrieved in constant time.
+ * The conversions return canonical string instances, instead of building new
+ * strings.
+ *
+ * <p>
+ * The cache is thread-safe. As the identifiers may be created dynamically (e.g.
+ * for templated variables), the cache is bounded: it is cleared when it reaches
+ * MAX_SIZE entries, after which the variables are registered anew.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public final class Variables {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    /**
+     * Maximum number of registered variables (the cache is cleared when full)
+     */
+    public static int MAX_SIZE = 10000;
+
+    // registered variables, indexed by their identifier
+    private static final Map<String, Variable> byName =
+            new ConcurrentHashMap<String, Variable>();
+
+    /**
+     * Returns the canonical instance of the variable identifier.
+     *
+     * @param variable the variable identifier
+     * @return the canonical (interned) identifier
+     */
+    public static String intern(String variable) {
+        return get(variable).name;
+    }
+
+    /**
+     * Returns the variable identifier with an additional prime (e.g. a_u' for
+     * a_u).
+     *
+     * @param variable the variable identifier
+     * @return the primed identifier
+     */
+    public static String addPrime(String variable) {
+        Variable v = get(variable);
+        if (v.primed == null) {
+            v.primed = get(v.name + "'");
+        }
+        return v.primed.name;
+    }
+
+    /**
+     * Returns the variable identifier without its last prime (e.g. a_u for a_u').
+     * If the identifier does not end with a prime, it is returned unchanged.
+     *
+     * @param variable the variable identifier
+     * @return the identifier without its last prime
+     */
+    public static String removePrime(String variable) {
+        Variable v = get(variable);
+        if (v.unprimed == null) {
+            v.unprimed = (v.name.endsWith("'"))
+                    ? get(v.name.substring(0, v.name.length() - 1)) : v;
+        }
+        return v.unprimed.name;
+    }
+
+    /**
+     * Returns the variable identifier without any prime (e.g. a_u for a_u'').
+     *
+     * @param variable the variable identifier
+     * @return the identifier without primes
+     */
+    public static String removePrimes(String variable) {
+        Variable v = get(variable);
+        if (v.base == null) {
+            v.base = (v.nbPrimes > 0) ? get(v.name.replace("'", "")) : v;
+        }
+        return v.base.name;
+    }
+
+    /**
+     * Returns the identifier of the prediction variable (e.g. a_u^p for a_u).
+     *
+     * @param variable the variable identifier
+     * @return the identifier of the prediction variable
+     */
+    public static String getPrediction(String variable) {
+        Variable v = get(variable);
+        if (v.prediction == null) {
+            v.prediction = get(v.name + "^p");
+        }
+        return v.prediction.name;
+    }
+
+    /**
+     * Returns the number of primes in the variable identifier. Contrary to the
+     * other methods, the identifier is not registered if it is not already.
+     *
+     * @param variable the variable identifier
+     * @return the number of primes
+     */
+    public static int getNbPrimes(String variable) {
+        Variable v = byName.get(variable);
+        return (v != null) ? v.nbPrimes : countPrimes(variable);
+    }
+
+    /**
+     * Returns the number of registered variables.
+     *
+     * @return the number of variables
+     */
+    public static int size() {
+        return byName.size();
+    }
+
+    /**
+     * Returns the registered variable for the identifier, registering it if
+     * necessary.
+     *
+     * @param variable the variable identifier
+     * @return the registered variable
+     */
+    private static Variable get(String variable) {
+        Variable v = byName.get(variable);
+        if (v == null) {
+            v = register(variable);
+        }
+        return v;
+    }
+
+    /**
+     * Registers the variable (if it is not already registered), clearing the cache
+     * if it is full.
+     *
+     * @param variable the variable identifier
+     * @return the registered variable
+     */
+    private static synchronized Variable register(String variable) {
+        Variable v = byName.get(variable);
+        if (v == null) {
+            if (byName.size() >= MAX_SIZE) {
+                byName.clear();
+            }
+            v = new Variable(variable);
+            byName.put(variable, v);
+        }
+        return v;
+    }
+
+    /**
+     * Counts the number of primes in the string.
+     *
+     * @param str the string
+     * @return the number of primes
+     */
+    private static int countPrimes(String str) {
+        int count = 0;
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) == '\'') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Registered variable, with its (lazily computed) variants.
+     */
+    static final class Variable {
+
+        // the canonical identifier
+        final String name;
+
+        // the number of primes in the identifier
+        final int nbPrimes;
+
+        // the variants of the variable
+        volatile Variable primed;
+        volatile Variable unprimed;
+        volatile Variable base;
+        volatile Variable prediction;
+
+        /**
+         * Creates a new variable
+         *
+         * @param name the identifier
+         */
+        Variable(String name) {
+            this.name = name;
+            this.nbPrimes = countPrimes(name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+}
@@ -26,12 +26,24 @@ package opendial.domains;
 import java.io.File;
 import java.util.logging.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import opendial.DialogueState;
 import opendial.Settings;
 import opendial.bn.BNetwork;
+import opendial.domains.rules.Rule;
+import opendial.domains.rules.distribs.AnchoredRule;
+import opendial.templates.Template;
+import opendial.templates.TemplateIndex;
+import opendial.utils.RandomUtils;
 import opendial.utils.XMLUtils;
 
 /**
@@ -45,6 +57,9 @@ public class Domain {
 
     final static Logger log = Logger.getLogger("OpenDial");
 
+    // whether independent models can be grounded in parallel
+    public static boolean PARALLEL_MODELS = true;
+
     // path to the source XML file (and its imports)
     File xmlFile;
     List<File> importedFiles;
@@ -55,7 +70,10 @@ public class Domain {
     BNetwork parameters;
 
     // list of models
-    List<Model> models;
+    ModelList models;
+
+    // index of the model triggers (rebuilt when the list of models changes)
+    TriggerIndex triggerIndex;
 
     // settings
     Settings settings;
@@ -65,7 +83,7 @@ public class Domain {
      */
     public Domain() {
         settings = new Settings();
-        models = new LinkedList<Model>();
+        models = new ModelList();
         initState = new DialogueState();
         parameters = new BNetwork();
         importedFiles = new ArrayList<File>();
@@ -164,6 +182,119 @@ public class Domain {
         return models;
     }
 
+    /**
+     * Returns the models triggered by the updated variables (that is, the models
+     * with at least one trigger matching one of the variables), in the order of
+     * their insertion in the domain. The triggers are looked up in an index built
+     * from the models, so that the cost of the operation does not depend on the
+     * number of models in the domain.
+     *
+     * @param updatedVars the updated variables
+     * @return the triggered models
+     */
+    public List<Model> getTriggeredModels(Collection<String> updatedVars) {
+        TriggerIndex index = getTriggerIndex();
+        List<Model> triggered = new ArrayList<Model>();
+        for (Integer i : index.getTriggered(updatedVars)) {
+            triggered.add(index.models[i]);
+        }
+        return triggered;
+    }
+
+    /**
+     * Triggers the models associated with the updated variables, in the order of
+     * their insertion in the domain. If a blocking model modifies the dialogue
+     * state, the remaining models are not triggered.
+     *
+     * <p>
+     * Successive non-blocking models that are mutually independent (i.e. none of
+     * them reads or writes a variable written by the others, according to the
+     * templates of their rules) are grounded in parallel on the state, and their
+     * anchored rules are then inserted one model at a time. The resulting state is
+     * the same as if the models were triggered sequentially.
+     *
+     * @param state       the dialogue state
+     * @param updatedVars the updated variables
+     */
+    public void triggerModels(DialogueState state, Collection<String> updatedVars) {
+        TriggerIndex index = getTriggerIndex();
+        List<Integer> batch = new ArrayList<Integer>();
+        for (Integer i : index.getTriggered(updatedVars)) {
+            Model model = index.models[i];
+            log.fine("model : " + model.toString());
+            boolean batchable = PARALLEL_MODELS && !model.isBlocking()
+                    && !index.conflicts(i, i);
+            if (batchable && batch.stream().noneMatch(j -> index.conflicts(i, j))) {
+                batch.add(i);
+                continue;
+            }
+            triggerBatch(state, index, batch);
+            batch.clear();
+            if (batchable) {
+                batch.add(i);
+            } else if (model.trigger(state) && model.isBlocking()) {
+                return;
+            }
+        }
+        triggerBatch(state, index, batch);
+    }
+
+    /**
+     * Triggers a batch of mutually independent models: the models are grounded in
+     * parallel, and their anchored rules are then inserted in the state, in the
+     * order of the batch. Each grounding draws its random numbers from its own
+     * generator, split beforehand from the generator of the calling thread.
+     *
+     * @param state the dialogue state
+     * @param index the trigger index
+     * @param batch the positions of the models in the batch
+     */
+    private static void triggerBatch(DialogueState state, TriggerIndex index,
+            List<Integer> batch) {
+        if (batch.size() == 1) {
+            index.models[batch.get(0)].trigger(state);
+        } else if (batch.size() > 1) {
+            List<SplittableRandom> randoms = new ArrayList<SplittableRandom>();
+            for (int i = 0; i < batch.size(); i++) {
+                randoms.add(RandomUtils.getRandom().split());
+            }
+            List<List<AnchoredRule>> grounded = IntStream.range(0, batch.size())
+                    .parallel()
+                    .mapToObj(i -> RandomUtils.callWith(randoms.get(i),
+                            () -> index.models[batch.get(i)].ground(state)))
+                    .collect(Collectors.toList());
+            for (int i = 0; i < batch.size(); i++) {
+                index.models[batch.get(i)].insert(state, grounded.get(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the trigger index for the current list of models (rebuilding it if
+     * the list or one of its models has been modified).
+     *
+     * @return the trigger index
+     */
+    private TriggerIndex getTriggerIndex() {
+        TriggerIndex index = triggerIndex;
+        if (index == null || !index.isValid(models)) {
+            index = buildTriggerIndex();
+        }
+        return index;
+    }
+
+    /**
+     * Builds the trigger index for the current list of models.
+     *
+     * @return the trigger index
+     */
+    private synchronized TriggerIndex buildTriggerIndex() {
+        if (triggerIndex == null || !triggerIndex.isValid(models)) {
+            triggerIndex = new TriggerIndex(models);
+        }
+        return triggerIndex;
+    }
+
     /**
      * Replaces the domain-specific settings
      *
@@ -223,4 +354,163 @@ public class Domain {
         return false;
     }
 
+    /**
+     * List of models, which keeps track of its modifications (in order to rebuild
+     * the trigger index when necessary).
+     */
+    @SuppressWarnings("serial")
+    static final class ModelList extends LinkedList<Model> {
+
+        /**
+         * Returns the number of structural modifications of the list
+         *
+         * @return the modification count
+         */
+        int getModCount() {
+            return modCount;
+        }
+
+        /**
+         * Replaces the model at the given position (which is counted as a
+         * modification of the list, contrary to LinkedList.set)
+         */
+        @Override
+        public Model set(int index, Model model) {
+            modCount++;
+            return super.set(index, model);
+        }
+    }
+
+    /**
+     * Index mapping the triggers to the position of their model in the domain.
+     */
+    static final class TriggerIndex {
+
+        // the indexed models
+        final Model[] models;
+
+        // the index of the triggers (associated with the model positions)
+        final TemplateIndex<Integer> templates;
+
+        // the modification count of the model list at construction time
+        final int modCount;
+
+        // the versions of the models at construction time
+        final int[] versions;
+
+        // input and output templates for each model (used for the conflict graph)
+        final List<Set<Template>> inputs;
+        final List<Set<Template>> outputs;
+
+        // conflict graph between the models (0 if not yet computed, 1 if the
+        // models are independent, 2 if they conflict)
+        final byte[][] conflicts;
+
+        /**
+         * Creates the index for the list of models
+         *
+         * @param modelList the list of models
+         */
+        TriggerIndex(ModelList modelList) {
+            modCount = modelList.getModCount();
+            models = modelList.toArray(new Model[modelList.size()]);
+            versions = new int[models.length];
+            templates = new TemplateIndex<Integer>();
+            inputs = new ArrayList<Set<Template>>(models.length);
+            outputs = new ArrayList<Set<Template>>(models.length);
+            conflicts = new byte[models.length][models.length];
+            for (int i = 0; i < models.length; i++) {
+                versions[i] = models[i].getVersion();
+                for (Template trigger : models[i].getTriggers()) {
+                    templates.add(trigger, i);
+                }
+                inputs.add(models[i].getInputTemplates());
+                Set<Template> modelOutputs = new HashSet<Template>();
+                for (Template output : models[i].getOutputTemplates()) {
+                    modelOutputs.add(output);
+                    modelOutputs.add(Template.create("=_" + output));
+                }
+                for (Rule r : models[i].getRules()) {
+                    modelOutputs.add(Template.create(r.getRuleId()));
+                }
+                outputs.add(modelOutputs);
+            }
+        }
+
+        /**
+         * Returns true if the index is still valid for the list of models, that is,
+         * if neither the list nor the triggers and rules of its models have been
+         * modified since the index was built.
+         *
+         * @param modelList the list of models
+         * @return true if the index is valid, else false
+         */
+        boolean isValid(ModelList modelList) {
+            if (modCount != modelList.getModCount()) {
+                return false;
+            }
+            for (int i = 0; i < models.length; i++) {
+                if (models[i].getVersion() != versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the positions of the models (with at least one rule) triggered by
+         * the updated variables, in increasing order.
+         *
+         * @param updatedVars the updated variables
+         * @return the positions of the triggered models
+         */
+        Collection<Integer> getTriggered(Collection<String> updatedVars) {
+            TreeSet<Integer> positions = new TreeSet<Integer>();
+            for (String var : updatedVars) {
+                positions.addAll(templates.getMatches(var));
+            }
+            positions.removeIf(i -> !models[i].hasRules());
+            return positions;
+        }
+
+        /**
+         * Returns true if the two models may interfere with one another, that is,
+         * if one of them writes a variable that is read or written by the other.
+         * If the two positions are identical, returns true if the model may read
+         * one of its own outputs.
+         *
+         * @param i the position of the first model
+         * @param j the position of the second model
+         * @return true if the models may conflict, else false
+         */
+        boolean conflicts(int i, int j) {
+            if (conflicts[i][j] == 0) {
+                boolean conflict = overlap(outputs.get(i), inputs.get(j))
+                        || overlap(outputs.get(j), inputs.get(i))
+                        || (i != j && overlap(outputs.get(i), outputs.get(j)));
+                conflicts[i][j] = conflicts[j][i] = (byte) (conflict ? 2 : 1);
+            }
+            return conflicts[i][j] == 2;
+        }
+
+        /**
+         * Returns true if at least one template of the first set may overlap with a
+         * template in the second set.
+         *
+         * @param set1 the first set of templates
+         * @param set2 the second set of templates
+         * @return true if the sets may overlap, else false
+         */
+        private static boolean overlap(Set<Template> set1, Set<Template> set2) {
+            for (Template t1 : set1) {
+                for (Template t2 : set2) {
+                    if (TemplateIndex.mayOverlap(t1, t2)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
 }
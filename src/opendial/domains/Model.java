@@ -26,11 +26,15 @@ package opendial.domains;
 import java.util.logging.*;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import opendial.DialogueState;
 import opendial.domains.rules.Rule;
+import opendial.domains.rules.distribs.AnchoredRule;
+import opendial.domains.rules.effects.Effect;
 import opendial.templates.Template;
 
 /**
@@ -59,6 +63,9 @@ public class Model {
     // collection of rules for the model
     private Collection<Rule> rules;
 
+    // number of modifications of the triggers and rules of the model
+    private volatile int version = 0;
+
     // ===================================
     // MODEL CONSTRUCTION
     // ===================================
@@ -95,6 +102,7 @@ public class Model {
      */
     public void addTrigger(String trigger) {
         triggers.add(Template.create(trigger));
+        version++;
     }
 
     /**
@@ -115,6 +123,7 @@ public class Model {
      */
     public void addRule(Rule rule) {
         rules.add(rule);
+        version++;
     }
 
     /**
@@ -140,6 +149,16 @@ public class Model {
         return id;
     }
 
+    /**
+     * Returns the number of modifications of the triggers and rules of the model
+     * (used to detect when the trigger index of the domain must be rebuilt).
+     *
+     * @return the version of the model
+     */
+    int getVersion() {
+        return version;
+    }
+
     /**
      * Returns the list of rules contained in the model
      *
@@ -149,6 +168,15 @@ public class Model {
         return new ArrayList<>(rules);
     }
 
+    /**
+     * Returns true if the model contains at least one rule
+     *
+     * @return true if the model has rules, false otherwise
+     */
+    boolean hasRules() {
+        return !rules.isEmpty();
+    }
+
     /**
      * Triggers the model with the given state and list of recently updated
      * variables.
@@ -169,6 +197,78 @@ public class Model {
         return !state.getNewVariables().isEmpty() || !state.getNewActionVariables().isEmpty();
     }
 
+    /**
+     * Anchors the rules of the model in the dialogue state, without modifying the
+     * state. Rules that cannot be anchored are skipped (with a warning).
+     *
+     * @param state the current dialogue state
+     * @return the relevant anchored rules
+     */
+    List<AnchoredRule> ground(DialogueState state) {
+        List<AnchoredRule> arules = new ArrayList<AnchoredRule>();
+        for (Rule r : rules) {
+            try {
+                arules.addAll(state.anchorRule(r));
+            } catch (RuntimeException e) {
+                log.warning("rule " + r.getRuleId() + " could not be applied: "
+                        + e.toString());
+                e.printStackTrace();
+            }
+        }
+        return arules;
+    }
+
+    /**
+     * Inserts the anchored rules (previously grounded by the model) into the
+     * dialogue state.
+     *
+     * @param state  the current dialogue state
+     * @param arules the anchored rules to insert
+     */
+    void insert(DialogueState state, List<AnchoredRule> arules) {
+        for (AnchoredRule arule : arules) {
+            try {
+                state.addAnchoredRule(arule);
+            } catch (RuntimeException e) {
+                log.warning("rule " + arule.getRule().getRuleId()
+                        + " could not be applied: " + e.toString());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns the input variables (possibly underspecified) of the model rules.
+     *
+     * @return the input templates
+     */
+    public Set<Template> getInputTemplates() {
+        Set<Template> inputs = new HashSet<Template>();
+        for (Rule r : rules) {
+            inputs.addAll(r.getInputVariables());
+        }
+        return inputs;
+    }
+
+    /**
+     * Returns the output variables (possibly underspecified) of the model rules,
+     * that is, the variables (or action variables) that can be modified by the
+     * rule effects.
+     *
+     * @return the output templates
+     */
+    public Set<Template> getOutputTemplates() {
+        Set<Template> outputs = new HashSet<Template>();
+        for (Rule r : rules) {
+            for (Effect e : r.getEffects()) {
+                for (String var : e.getOutputVariables()) {
+                    outputs.add(Template.create(var));
+                }
+            }
+        }
+        return outputs;
+    }
+
     /**
      * Returns true if the model is triggered by the updated variables.
      *
@@ -33,6 +33,7 @@ import java.util.stream.Collectors;
 
 import opendial.datastructs.Assignment;
 import opendial.datastructs.MathExpression;
+import opendial.datastructs.Variables;
 import opendial.domains.rules.Rule.RuleType;
 import opendial.domains.rules.effects.Effect;
 import opendial.domains.rules.parameters.ComplexParameter;
@@ -216,7 +217,8 @@ public class RuleOutput {
      */
     public Set<String> getOutputVariables() {
         return effects.keySet().stream()
-                .flatMap(e -> e.getOutputVariables().stream()).map(o -> o + "'")
+                .flatMap(e -> e.getOutputVariables().stream())
+                .map(o -> Variables.addPrime(o))
                 .collect(Collectors.toSet());
     }
 
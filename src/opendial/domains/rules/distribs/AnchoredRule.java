@@ -295,6 +295,29 @@ public final class AnchoredRule implements ProbDistribution, UtilityFunction {
         return new MarginalDistribution(this, condition);
     }
 
+    /**
+     * Returns the rule restricted to the evidence. If the input variables and the
+     * parameters of a probability rule are all observed, the method directly returns
+     * the output table for the observed values. Else, the observed values are fixed
+     * in a marginal distribution.
+     *
+     * @param evidence the evidence
+     * @return the restricted distribution
+     */
+    @Override
+    public ProbDistribution restrict(Assignment evidence) {
+        Set<String> observable = new HashSet<String>(inputs.getVariables());
+        observable.addAll(parameters);
+        Assignment trimmed = evidence.getTrimmed(observable);
+        if (trimmed.isEmpty()) {
+            return this;
+        } else if (trimmed.size() == observable.size()
+                && rule.getRuleType() == RuleType.PROB) {
+            return getProbDistrib(trimmed);
+        }
+        return new MarginalDistribution(this, trimmed);
+    }
+
     /**
      * Returns the possible values for the rule.
      */
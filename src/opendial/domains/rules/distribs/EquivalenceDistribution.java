@@ -26,7 +26,6 @@ package opendial.domains.rules.distribs;
 import java.util.logging.*;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Random;
 import java.util.Set;
 
 import opendial.bn.distribs.CategoricalTable;
@@ -38,7 +37,9 @@ import opendial.bn.values.StringVal;
 import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.Variables;
 import opendial.templates.Template;
+import opendial.utils.RandomUtils;
 
 /**
  * Representation of an equivalence distribution (see dissertation p. 78 for details)
@@ -59,9 +60,6 @@ public class EquivalenceDistribution implements ProbDistribution {
     // the variable label
     String baseVar;
 
-    // sampler
-    Random sampler;
-
     // probability of the equivalence variable when X or X^p have a None value.
     public static double NONE_PROB = 0.02;
 
@@ -72,7 +70,6 @@ public class EquivalenceDistribution implements ProbDistribution {
      */
     public EquivalenceDistribution(String variable) {
         this.baseVar = variable;
-        sampler = new Random();
     }
 
     /**
@@ -107,7 +104,7 @@ public class EquivalenceDistribution implements ProbDistribution {
     @Override
     public void modifyVariableId(String oldId, String newId) {
         if (baseVar.equals(oldId)) {
-            baseVar = newId.replace("'", "");
+            baseVar = Variables.removePrimes(newId);
         }
     }
 
@@ -118,7 +115,7 @@ public class EquivalenceDistribution implements ProbDistribution {
     public Value sample(Assignment condition) {
         double prob = getProb(condition);
 
-        if (sampler.nextDouble() < prob) {
+        if (RandomUtils.getRandom().nextDouble() < prob) {
             return ValueFactory.create(true);
         } else {
             return ValueFactory.create(false);
@@ -142,8 +139,8 @@ public class EquivalenceDistribution implements ProbDistribution {
     @Override
     public Set<String> getInputVariables() {
         Set<String> inputs = new HashSet<String>();
-        inputs.add(baseVar + "^p");
-        inputs.add(baseVar + "'");
+        inputs.add(Variables.getPrediction(baseVar));
+        inputs.add(Variables.addPrime(baseVar));
         return inputs;
     }
 
@@ -192,7 +189,42 @@ public class EquivalenceDistribution implements ProbDistribution {
      */
     @Override
     public IndependentDistribution getProbDistrib(Assignment condition) {
-        double positiveProb = getProb(condition);
+        return getTable(getProb(condition));
+    }
+
+    /**
+     * Returns the distribution restricted to the evidence. The method directly
+     * returns the table on the true and false values if both the predicted and
+     * actual values are observed, or if one of them is observed with a None value
+     * (in which case the probability does not depend on the other one). Else, the
+     * observed value is fixed in a marginal distribution.
+     *
+     * @param evidence the evidence
+     * @return the restricted distribution
+     */
+    @Override
+    public ProbDistribution restrict(Assignment evidence) {
+        String predictedVar = Variables.getPrediction(baseVar);
+        String actualVar = Variables.addPrime(baseVar);
+        Assignment trimmed = evidence.getTrimmed(predictedVar, actualVar, baseVar);
+        if (trimmed.isEmpty()) {
+            return this;
+        } else if (trimmed.getValues().contains(ValueFactory.none())) {
+            return getTable(NONE_PROB);
+        } else if (trimmed.containsVar(predictedVar) && (trimmed.size() > 1)) {
+            return getProbDistrib(trimmed);
+        }
+        return new MarginalDistribution(this, trimmed);
+    }
+
+    /**
+     * Returns the categorical table on the true and false values, given the
+     * probability of the true value.
+     *
+     * @param positiveProb the probability of eq=true
+     * @return the corresponding table
+     */
+    private IndependentDistribution getTable(double positiveProb) {
         CategoricalTable.Builder builder =
                 new CategoricalTable.Builder(getVariable());
         builder.addRow(true, positiveProb);
@@ -224,10 +256,12 @@ public class EquivalenceDistribution implements ProbDistribution {
 
         Value predicted = null;
         Value actual = null;
+        String predictedVar = Variables.getPrediction(baseVar);
+        String actualVar = Variables.addPrime(baseVar);
         for (String inputVar : condition.getVariables()) {
-            if (inputVar.equals(baseVar + "^p")) {
+            if (inputVar.equals(predictedVar)) {
                 predicted = condition.getValue(inputVar);
-            } else if (inputVar.equals(baseVar + "'")) {
+            } else if (inputVar.equals(actualVar)) {
                 actual = condition.getValue(inputVar);
             } else if (inputVar.equals(baseVar)) {
                 actual = condition.getValue(inputVar);
@@ -30,6 +30,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import opendial.bn.distribs.CategoricalTable;
@@ -40,6 +42,7 @@ import opendial.bn.values.SetVal;
 import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.Variables;
 import opendial.domains.rules.effects.BasicEffect;
 import opendial.domains.rules.effects.Effect;
 import opendial.utils.InferenceUtils;
@@ -65,13 +68,28 @@ public class OutputDistribution implements ProbDistribution {
     // incoming anchored rules
     List<AnchoredRule> inputRules;
 
+    /**
+     * Maximum number of effect combinations kept in the cache of each output
+     * distribution. When the limit is reached, the cache is emptied and filled anew.
+     */
+    public static int MAX_CACHE_SIZE = 1000;
+
+    // cache mapping combinations of input effects to the resulting distribution
+    final Map<Assignment, IndependentDistribution> cache =
+            new ConcurrentHashMap<Assignment, IndependentDistribution>();
+
+    // number of cache hits and misses (over all output distributions, striped
+    // to avoid contention between the sampling workers)
+    static final LongAdder nbHits = new LongAdder();
+    static final LongAdder nbMisses = new LongAdder();
+
     /**
      * Creates the output distribution for the output variable label
      *
      * @param var the variable name
      */
     public OutputDistribution(String var) {
-        this.baseVar = var.replace("'", "");
+        this.baseVar = Variables.removePrimes(var);
         this.primes = var.replace(baseVar, "");
         inputRules = new ArrayList<AnchoredRule>();
     }
@@ -83,6 +101,7 @@ public class OutputDistribution implements ProbDistribution {
      */
     public void addAnchoredRule(AnchoredRule rule) {
         inputRules.add(rule);
+        cache.clear();
     }
 
     /**
@@ -94,8 +113,9 @@ public class OutputDistribution implements ProbDistribution {
     @Override
     public void modifyVariableId(String oldId, String newId) {
         if ((baseVar + primes).equals(oldId)) {
-            this.baseVar = newId.replace("'", "");
+            this.baseVar = Variables.removePrimes(newId);
             this.primes = newId.replace(baseVar, "");
+            cache.clear();
         }
     }
 
@@ -107,7 +127,7 @@ public class OutputDistribution implements ProbDistribution {
      */
     @Override
     public Value sample(Assignment condition) {
-        IndependentDistribution result = getProbDistrib(condition);
+        IndependentDistribution result = getCachedDistrib(condition);
         return result.sample();
     }
 
@@ -129,48 +149,53 @@ public class OutputDistribution implements ProbDistribution {
      */
     @Override
     public double getProb(Assignment condition, Value head) {
-        IndependentDistribution result = getProbDistrib(condition);
+        IndependentDistribution result = getCachedDistrib(condition);
         return result.getProb(head);
     }
 
     /**
-     * Fills the cache with the resulting table for the given condition
+     * Returns the distribution for the output variable given the condition. The
+     * returned distribution is a copy of the one stored in the cache, and can thus
+     * be modified.
      *
-     * @param condition the condition for which to fill the cache
+     * @param condition the conditional assignment
+     * @return the resulting distribution
      */
     @Override
     public IndependentDistribution getProbDistrib(Assignment condition) {
+        return getCachedDistrib(condition).copy();
+    }
 
-        // creating the table
-        CategoricalTable.Builder builder =
-                new CategoricalTable.Builder(baseVar + primes);
+    /**
+     * Returns the number of cache hits for the distributions of all output
+     * variables.
+     *
+     * @return the number of cache hits
+     */
+    public static long getCacheHits() {
+        return nbHits.sum();
+    }
 
-        // combining all effects
-        List<BasicEffect> fullEffects = new ArrayList<BasicEffect>();
-        for (Value inputVal : condition.getValues()) {
-            if (inputVal instanceof Effect) {
-                fullEffects.addAll(((Effect) inputVal).getSubEffects());
-            }
-        }
-        Effect fullEffect = new Effect(fullEffects);
-        Map<Value, Double> values = fullEffect.getValues(baseVar);
-        // case 1: add effects
-        if (fullEffect.isNonExclusive(baseVar)) {
-            SetVal addVal = ValueFactory.create(values.keySet());
-            builder.addRow(addVal, 1.0);
-        }
-        // case 2 (most common): classical set operations
-        else if (!values.isEmpty()) {
-            double total = values.values().stream().mapToDouble(d -> d).sum();
-            for (Value v : values.keySet()) {
-                builder.addRow(v, values.get(v) / total);
-            }
-        }
-        // case 3: set to none value
-        else {
-            builder.addRow(ValueFactory.none(), 1.0);
-        }
-        return builder.build();
+    /**
+     * Returns the number of cache misses for the distributions of all output
+     * variables.
+     *
+     * @return the number of cache misses
+     */
+    public static long getCacheMisses() {
+        return nbMisses.sum();
+    }
+
+    /**
+     * Returns the proportion of calls for which the distribution of the output
+     * variable could be retrieved from the cache (0 if no call has been made).
+     *
+     * @return the cache hit rate
+     */
+    public static double getCacheHitRate() {
+        long hits = nbHits.sum();
+        long total = hits + nbMisses.sum();
+        return (total > 0) ? hits / (double) total : 0.0;
     }
 
     /**
@@ -184,6 +209,27 @@ public class OutputDistribution implements ProbDistribution {
         return new MarginalDistribution(this, condition);
     }
 
+    /**
+     * Returns the distribution restricted to the evidence. If all input rules are
+     * observed, the method directly returns the (cached) output table for the
+     * observed effects. Else, the observed effects are fixed in a marginal
+     * distribution.
+     *
+     * @param evidence the evidence
+     * @return the restricted distribution
+     */
+    @Override
+    public ProbDistribution restrict(Assignment evidence) {
+        Set<String> inputVars = getInputVariables();
+        Assignment trimmed = evidence.getTrimmed(inputVars);
+        if (trimmed.isEmpty()) {
+            return this;
+        } else if (trimmed.size() == inputVars.size()) {
+            return getProbDistrib(trimmed);
+        }
+        return new MarginalDistribution(this, trimmed);
+    }
+
     /**
      * Returns the possible outputs values given the input range in the parent nodes
      * (probability rule nodes)
@@ -252,6 +298,77 @@ public class OutputDistribution implements ProbDistribution {
         return "(output)";
     }
 
+    /**
+     * Returns the distribution for the output variable given the condition, using
+     * the cache. The cache is indexed by the input effects in the condition (the
+     * other values being irrelevant), so that all calls with the same combination
+     * of effects share the same distribution. This distribution should therefore not
+     * be modified.
+     *
+     * @param condition the conditional assignment
+     * @return the resulting distribution
+     */
+    private IndependentDistribution getCachedDistrib(Assignment condition) {
+        Assignment effects = new Assignment();
+        for (String inputVar : condition.getVariables()) {
+            Value inputVal = condition.getValue(inputVar);
+            if (inputVal instanceof Effect) {
+                effects.addPair(inputVar, inputVal);
+            }
+        }
+        IndependentDistribution result = cache.get(effects);
+        if (result != null) {
+            nbHits.increment();
+            return result;
+        }
+        nbMisses.increment();
+        result = createDistrib(effects);
+        if (cache.size() >= MAX_CACHE_SIZE) {
+            cache.clear();
+        }
+        cache.put(effects, result);
+        return result;
+    }
+
+    /**
+     * Creates the distribution for the output variable given the input effects, by
+     * combining all effects.
+     *
+     * @param effects the assignment of input effects
+     * @return the resulting distribution
+     */
+    private IndependentDistribution createDistrib(Assignment effects) {
+
+        // creating the table
+        CategoricalTable.Builder builder =
+                new CategoricalTable.Builder(baseVar + primes);
+
+        // combining all effects
+        List<BasicEffect> fullEffects = new ArrayList<BasicEffect>();
+        for (Value inputVal : effects.getValues()) {
+            fullEffects.addAll(((Effect) inputVal).getSubEffects());
+        }
+        Effect fullEffect = new Effect(fullEffects);
+        Map<Value, Double> values = fullEffect.getValues(baseVar);
+        // case 1: add effects
+        if (fullEffect.isNonExclusive(baseVar)) {
+            SetVal addVal = ValueFactory.create(values.keySet());
+            builder.addRow(addVal, 1.0);
+        }
+        // case 2 (most common): classical set operations
+        else if (!values.isEmpty()) {
+            double total = values.values().stream().mapToDouble(d -> d).sum();
+            for (Value v : values.keySet()) {
+                builder.addRow(v, values.get(v) / total);
+            }
+        }
+        // case 3: set to none value
+        else {
+            builder.addRow(ValueFactory.none(), 1.0);
+        }
+        return builder.build();
+    }
+
     /**
      * Calculates the possible values for the output distribution via linearisation
      * (more costly operation, but necessary in case of add effects).
@@ -266,7 +383,7 @@ public class OutputDistribution implements ProbDistribution {
         }
         Set<Assignment> combinations = InferenceUtils.getAllCombinations(range);
         Set<Value> values = combinations.stream()
-                .flatMap(cond -> getProbDistrib(cond).getValues().stream())
+                .flatMap(cond -> getCachedDistrib(cond).getValues().stream())
                 .collect(Collectors.toSet());
         if (values.isEmpty()) {
             values.add(ValueFactory.none());
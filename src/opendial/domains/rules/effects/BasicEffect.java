@@ -28,6 +28,7 @@ import java.util.logging.*;
 import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.Variables;
 import opendial.domains.rules.conditions.BasicCondition;
 import opendial.domains.rules.conditions.BasicCondition.Relation;
 import opendial.domains.rules.conditions.Condition;
@@ -147,7 +148,8 @@ public class BasicEffect {
      */
     public Condition convertToCondition() {
         Relation r = (negated) ? Relation.UNEQUAL : Relation.EQUAL;
-        return new BasicCondition(variableLabel + "'", variableValue, r);
+        return new BasicCondition(Variables.addPrime(variableLabel), variableValue,
+                r);
     }
 
     /**
@@ -38,6 +38,7 @@ import opendial.bn.values.SetVal;
 import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.Variables;
 import opendial.domains.rules.conditions.ComplexCondition;
 import opendial.domains.rules.conditions.ComplexCondition.BinaryOperator;
 import opendial.templates.Template;
@@ -276,9 +277,9 @@ public final class Effect implements Value {
         Assignment a = new Assignment();
         for (BasicEffect e : subeffects) {
             if (!e.negated) {
-                a.addPair(e.getVariable() + "'", e.getValue());
+                a.addPair(Variables.addPrime(e.getVariable()), e.getValue());
             } else {
-                a.addPair(e.getVariable() + "'", ValueFactory.none());
+                a.addPair(Variables.addPrime(e.getVariable()), ValueFactory.none());
             }
         }
         return a;
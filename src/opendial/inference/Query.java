@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -87,6 +88,9 @@ public abstract class Query {
     Collection<String> queryVars;
     Assignment evidence;
 
+    // the relevant nodes for the query (computed when needed)
+    private List<BNode> filteredNodes;
+
     public Query(BNetwork network, Collection<String> queryVars,
                  Assignment evidence) {
 
@@ -131,52 +135,127 @@ public abstract class Query {
 
     /**
      * Returns a list of nodes sorted according to the ordering in
-     * BNetwork.getSortedNodes() and pruned from the irrelevant nodes
+     * BNetwork.getSortedNodes() and pruned from the irrelevant nodes. The list is
+     * computed once per query.
      *
      * @return the ordered list of relevant nodes
      */
     public List<BNode> getFilteredSortedNodes() {
-        List<BNode> filteredNodes = new ArrayList<BNode>();
-        Set<String> irrelevantNodes = getIrrelevantNodes();
-        for (BNode node : network.getSortedNodes()) {
-            if (!irrelevantNodes.contains(node.getId())) {
-                filteredNodes.add(node);
-            }
+        if (filteredNodes == null) {
+            filteredNodes = Collections.unmodifiableList(computeFilteredSortedNodes());
         }
         return filteredNodes;
     }
 
     /**
      * Assuming a particular query P(queryVars|evidence) or U(queryVars|evidence) on
-     * the provided Bayesian network, determines which nodes is relevant for the
-     * inference and which one can be discarded without affecting the final result.
+     * the provided Bayesian network, determines which nodes are relevant for the
+     * inference, and returns them in the order of BNetwork.getSortedNodes().
+     *
+     * <p>
+     * The relevant nodes are the ancestors of the query variables, of the utility
+     * nodes (for utility queries) and of the requisite evidence variables. They are
+     * determined in a single pass over the sorted nodes (from the leaves to the
+     * roots), which amounts to removing all barren nodes. The evidence variables
+     * that are d-separated from the query variables given the rest of the evidence
+     * are not requisite (see getRequisiteEvidence), and the nodes that are only
+     * relevant to them are thus also pruned.
+     *
+     * @return the ordered list of relevant nodes
      */
-    private Set<String> getIrrelevantNodes() {
-
-        Set<String> irrelevantNodesIds = new HashSet<String>();
-
-        whileLoop:
-        while (true) {
-            for (String nodeId : new ArrayList<String>(network.getNodeIds())) {
-                BNode node = network.getNode(nodeId);
-                if (!irrelevantNodesIds.contains(nodeId)
-                        && irrelevantNodesIds.containsAll(node.getOutputNodesIds())
-                        && !queryVars.contains(nodeId)
-                        && !evidence.containsVar(nodeId)
-                        && !(node instanceof UtilityNode)) {
-                    irrelevantNodesIds.add(nodeId);
-                    continue whileLoop;
-                } else if (!(this instanceof UtilQuery)
-                        && !irrelevantNodesIds.contains(nodeId)
-                        && node instanceof UtilityNode) {
-                    irrelevantNodesIds.add(nodeId);
-                    continue whileLoop;
+    private List<BNode> computeFilteredSortedNodes() {
+
+        Set<String> requisiteEvidence = getRequisiteEvidence();
+        List<BNode> sortedNodes = network.getSortedNodes();
+        Set<String> relevantNodes = new HashSet<String>();
+        for (BNode node : sortedNodes) {
+            String nodeId = node.getId();
+            if (node instanceof UtilityNode) {
+                if (this instanceof UtilQuery) {
+                    relevantNodes.add(nodeId);
+                }
+            } else if (queryVars.contains(nodeId)
+                    || requisiteEvidence.contains(nodeId)) {
+                relevantNodes.add(nodeId);
+            } else {
+                for (String outputId : node.getOutputNodesIds()) {
+                    if (relevantNodes.contains(outputId)) {
+                        relevantNodes.add(nodeId);
+                        break;
+                    }
                 }
             }
-            break whileLoop;
         }
 
-        return irrelevantNodesIds;
+        List<BNode> filtered = new ArrayList<BNode>(relevantNodes.size());
+        for (BNode node : sortedNodes) {
+            if (relevantNodes.contains(node.getId())) {
+                filtered.add(node);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Returns the evidence variables that are requisite for the query, using the
+     * Bayes-Ball algorithm (Shachter, 1998). Balls are sent from the query
+     * variables (and from the utility nodes for utility queries), and bounce
+     * through the network according to the d-separation rules. The requisite
+     * evidence variables are the observed nodes that are visited by a ball. The
+     * remaining evidence variables are d-separated from the query variables given
+     * the requisite evidence, and can thus be ignored.
+     *
+     * @return the requisite evidence variables
+     */
+    private Set<String> getRequisiteEvidence() {
+
+        Set<String> requisite = new HashSet<String>();
+        if (evidence.isEmpty()) {
+            return requisite;
+        }
+
+        // nodes whose parents (top) and children (bottom) have been scheduled
+        Set<String> top = new HashSet<String>();
+        Set<String> bottom = new HashSet<String>();
+
+        // scheduled visits, with a flag indicating whether the visit is from a child
+        LinkedList<BNode> toVisit = new LinkedList<BNode>();
+        LinkedList<Boolean> fromChild = new LinkedList<Boolean>();
+        for (BNode node : network.getNodes()) {
+            if (queryVars.contains(node.getId())
+                    || (this instanceof UtilQuery && node instanceof UtilityNode)) {
+                toVisit.add(node);
+                fromChild.add(true);
+            }
+        }
+
+        while (!toVisit.isEmpty()) {
+            BNode node = toVisit.removeFirst();
+            boolean visitFromChild = fromChild.removeFirst();
+            String nodeId = node.getId();
+            boolean observed = evidence.containsVar(nodeId);
+            if (observed) {
+                requisite.add(nodeId);
+            }
+            // unobserved nodes pass the balls from their children to their parents
+            // and children, and observed nodes bounce the balls from their parents
+            // back to their parents
+            boolean toParents = (visitFromChild != observed);
+            boolean toChildren = !observed;
+            if (toParents && top.add(nodeId)) {
+                for (BNode inputNode : node.getInputNodes()) {
+                    toVisit.add(inputNode);
+                    fromChild.add(true);
+                }
+            }
+            if (toChildren && bottom.add(nodeId)) {
+                for (BNode outputNode : node.getOutputNodes()) {
+                    toVisit.add(outputNode);
+                    fromChild.add(false);
+                }
+            }
+        }
+        return requisite;
     }
 
     /**
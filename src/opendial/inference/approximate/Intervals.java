@@ -27,17 +27,21 @@ import java.util.logging.*;
 
 import java.util.Collection;
 import java.util.Map;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.function.Function;
 
+import opendial.utils.RandomUtils;
+
 /**
- * Representation of a collection of intervals, each of which is associated with a
- * content object, and start and end values. The difference between the start and end
- * values of an interval can for instance represent the object probability.
+ * Representation of a collection of objects, each of which is associated with a
+ * probability (or more generally a non-negative weight), from which objects can be
+ * sampled.
  *
  * <p>
- * The intervals can then be used for sampling a content object according to the
- * defined intervals.
+ * The sampling relies on an alias table (built with Vose's method), which is stored
+ * in primitive arrays and allows each object to be drawn in constant time. The
+ * collection is immutable once created, and can thus be shared between sampling
+ * threads (each of which draws its random numbers from its own generator).
  *
  * @author Pierre Lison (plison@ifi.uio.no)
  */
@@ -46,11 +50,14 @@ public class Intervals<T> {
     // logger
     final static Logger log = Logger.getLogger("OpenDial");
 
-    // the intervals
-    final Interval<T>[] intervals;
+    // the content objects
+    final Object[] objects;
+
+    // the probability of selecting the object itself rather than its alias
+    final double[] probs;
 
-    // sampler for the interval collection
-    final static Random sampler = new Random();
+    // the alias of each object
+    final int[] aliases;
 
     // total probability for the table
     final double totalProb;
@@ -61,26 +68,8 @@ public class Intervals<T> {
      * @param table the tables from which to create the intervals could not be
      *              created
      */
-    @SuppressWarnings("unchecked")
     public Intervals(Map<T, Double> table) {
-
-        intervals = new Interval[table.size()];
-        int i = 0;
-        double total = 0.0f;
-
-        for (T a : table.keySet()) {
-            double prob = table.get(a);
-            if (prob == Double.NaN) {
-                throw new RuntimeException("probability is NaN: " + table);
-            }
-            intervals[i++] = new Interval<T>(a, total, total + prob);
-            total += prob;
-        }
-
-        if (total < 0.0001) {
-            throw new RuntimeException("total prob is null: " + table);
-        }
-        totalProb = total;
+        this(table.keySet(), a -> table.get(a));
     }
 
     /**
@@ -91,19 +80,21 @@ public class Intervals<T> {
      * @param probs   the function associating a weight to each object intervals could
      *                not be created
      */
-    @SuppressWarnings("unchecked")
     public Intervals(Collection<T> content, Function<T, Double> probs) {
 
-        intervals = new Interval[content.size()];
+        int n = content.size();
+        objects = new Object[n];
+        double[] weights = new double[n];
         int i = 0;
-        double total = 0.0f;
+        double total = 0.0;
 
         for (T a : content) {
             double prob = probs.apply(a);
-            if (prob == Double.NaN) {
+            if (Double.isNaN(prob)) {
                 throw new RuntimeException("probability is NaN: " + a);
             }
-            intervals[i++] = new Interval<T>(a, total, total + prob);
+            objects[i] = a;
+            weights[i++] = prob;
             total += prob;
         }
 
@@ -111,41 +102,61 @@ public class Intervals<T> {
             throw new RuntimeException("total prob is null: " + content);
         }
         totalProb = total;
+        this.probs = new double[n];
+        aliases = new int[n];
+        buildAliasTable(weights);
     }
 
     /**
-     * Samples an object from the interval collection, using a simple binary search
-     * procedure.
+     * Samples an object from the interval collection, using the alias table. The
+     * random numbers are drawn from the generator of the current thread.
      *
      * @return the sampled object
      */
+    @SuppressWarnings("unchecked")
     public T sample() {
 
-        if (intervals.length == 0) {
+        if (objects.length == 0) {
             throw new RuntimeException("could not sample: empty interval");
         }
+        return (T) objects[sampleIndex(RandomUtils.getRandom())];
+    }
 
-        double rand = sampler.nextDouble() * totalProb;
-
-        int min = 0;
-        int max = intervals.length;
-        while (min <= max) {
-            int mid = min + (max - min) / 2;
-            switch (intervals[mid].compareTo(rand)) {
-                case +1:
-                    max = mid - 1;
-                    break;
-                case 0:
-                    return intervals[mid].getObject();
-                case -1:
-                    min = mid + 1;
-                    break;
-            }
+    /**
+     * Fills the array with the indices of objects sampled from the collection (the
+     * objects can then be retrieved with getObject). The random numbers are drawn
+     * from the generator of the current thread.
+     *
+     * @param indices the array to fill with the sampled indices
+     */
+    public void sampleIndices(int[] indices) {
+        if (objects.length == 0) {
+            throw new RuntimeException("could not sample: empty interval");
+        }
+        SplittableRandom random = RandomUtils.getRandom();
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = sampleIndex(random);
         }
+    }
 
-        throw new RuntimeException(
-                "could not sample given the intervals: " + toString());
+    /**
+     * Returns the object at the given index in the collection
+     *
+     * @param index the index
+     * @return the corresponding object
+     */
+    @SuppressWarnings("unchecked")
+    public T getObject(int index) {
+        return (T) objects[index];
+    }
 
+    /**
+     * Returns the number of objects in the collection
+     *
+     * @return the number of objects
+     */
+    public int size() {
+        return objects.length;
     }
 
     /**
@@ -154,8 +165,8 @@ public class Intervals<T> {
     @Override
     public String toString() {
         String s = "";
-        for (int i = 0; i < intervals.length; i++) {
-            s += intervals[i].toString() + "\n";
+        for (int i = 0; i < objects.length; i++) {
+            s += objects[i] + "[" + probs[i] + "," + objects[aliases[i]] + "]\n";
         }
         return s;
     }
@@ -166,76 +177,65 @@ public class Intervals<T> {
      * @return whether the interval is empty
      */
     public boolean isEmpty() {
-        return (intervals.length == 0);
-    }
-
-}
-
-/**
- * Representation of a single interval, made of an object, a start value, and an end
- * value
- *
- * @param <T>
- * @author Pierre Lison (plison@ifi.uio.no)
- */
-final class Interval<T> {
-
-    // the interval content
-    final T a;
-
-    // the start value
-    final double start;
-
-    // the end value
-    final double end;
-
-    /**
-     * Creates a new interval
-     *
-     * @param a     the interval content
-     * @param start the start value for the interval
-     * @param end   the end value for the interval
-     */
-    public Interval(T a, double start, double end) {
-        this.a = a;
-        this.start = start;
-        this.end = end;
+        return (objects.length == 0);
     }
 
     /**
-     * Returns the object associated with the interval
+     * Samples the index of an object with the given random generator.
      *
-     * @return the object
+     * @param random the random generator
+     * @return the sampled index
      */
-    public T getObject() {
-        return a;
+    private int sampleIndex(SplittableRandom random) {
+        int i = random.nextInt(objects.length);
+        return (random.nextDouble() < probs[i]) ? i : aliases[i];
     }
 
     /**
-     * Returns the position of the double value in comparison with the start and end
-     * values of the interval
+     * Builds the alias table for the given weights, using Vose's method. Each
+     * object is associated with a column of height 1 (after scaling the weights),
+     * filled by the object itself up to probs[i], and by its alias for the rest.
      *
-     * @param value the value to compare
-     * @return +1 if value < start, 0 if start <= value <= end, -1 if value > end
+     * @param weights the object weights
      */
-    public int compareTo(double value) {
-        if (value >= start) {
-            if (value < end) {
-                return 0;
+    private void buildAliasTable(double[] weights) {
+        int n = weights.length;
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int nbSmall = 0;
+        int nbLarge = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / totalProb;
+            if (scaled[i] < 1.0) {
+                small[nbSmall++] = i;
             } else {
-                return -1;
+                large[nbLarge++] = i;
             }
-        } else {
-            return +1;
         }
-
+        while (nbSmall > 0 && nbLarge > 0) {
+            int s = small[--nbSmall];
+            int l = large[--nbLarge];
+            probs[s] = scaled[s];
+            aliases[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if (scaled[l] < 1.0) {
+                small[nbSmall++] = l;
+            } else {
+                large[nbLarge++] = l;
+            }
+        }
+        // remaining columns are full (up to rounding errors)
+        while (nbLarge > 0) {
+            int l = large[--nbLarge];
+            probs[l] = 1.0;
+            aliases[l] = l;
+        }
+        while (nbSmall > 0) {
+            int s = small[--nbSmall];
+            probs[s] = 1.0;
+            aliases[s] = s;
+        }
     }
 
-    /**
-     * Returns a string representation for the interval
-     */
-    @Override
-    public String toString() {
-        return a + "[" + start + "," + end + "]";
-    }
 }
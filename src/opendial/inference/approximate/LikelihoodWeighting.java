@@ -1,15 +1,17 @@
 package opendial.inference.approximate;
 
 import java.util.logging.*;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Stack;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
+import opendial.bn.distribs.ConditionalTable;
 import opendial.bn.distribs.ContinuousDistribution;
 import opendial.bn.distribs.ProbDistribution;
 import opendial.bn.nodes.ActionNode;
@@ -19,6 +21,8 @@ import opendial.bn.nodes.UtilityNode;
 import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
 import opendial.inference.Query;
+import opendial.utils.Deadline;
+import opendial.utils.RandomUtils;
 
 /**
  * Sampling process (based on likelihood weighting) for a particular query.
@@ -35,8 +39,38 @@ public class LikelihoodWeighting {
 
     public static double WEIGHT_THRESHOLD = 0.0001f;
 
-    // the stack of weighted samples which have been collected so far
-    Stack<Sample> samples = new Stack<Sample>();
+    // number of parallel sampling workers
+    public static int NB_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    // number of samples in each chunk (with its own buffer and random generator)
+    public static int CHUNK_SIZE = 100;
+
+    // maximum number of node samplings in a chunk (the chunk size is reduced for
+    // large networks, as a chunk that is started is always completed)
+    public static int MAX_CHUNK_NODES = 10000;
+
+    // number of samples between two convergence checks (in anytime mode)
+    public static int BATCH_SIZE = 500;
+
+    // minimum effective sample size before the sampling can stop (in anytime mode)
+    public static double MIN_EFFECTIVE_SIZE = 200;
+
+    // the weighted samples which have been collected so far
+    List<Sample> samples;
+
+    // sum of the sample weights and of their squares
+    double totalWeight = 0.0;
+    double totalSquaredWeight = 0.0;
+
+    // whether all samples have the same weight
+    boolean uniformWeights = true;
+
+    // weighted counts for each query variable and value
+    Map<Assignment, Double> marginals = new HashMap<Assignment, Double>();
+
+    // weighted utilities and weights for each assignment of the query variables
+    // (for utility queries)
+    Map<Assignment, double[]> utilities = new HashMap<Assignment, double[]>();
 
     // the query
     Query query;
@@ -46,46 +80,68 @@ public class LikelihoodWeighting {
     // sorted nodes in the network
     List<BNode> sortedNodes;
 
-    // termination status
-    boolean isTerminated = false;
-
-    // scheduled thread pool to terminate sampling once the time limit is
-    // reached
-    static ScheduledExecutorService service = Executors.newScheduledThreadPool(2);
+    // deadline for the sampling (child of the current deadline of the thread, if
+    // any)
+    Deadline deadline;
 
     // ===================================
     // PUBLIC METHODS
     // ===================================
 
     /**
-     * Creates a new sampling query with the given arguments and starts sampling
-     * (using parallel streams).
+     * Creates a new sampling query with the given arguments and starts sampling,
+     * until the number of samples is reached or the time limit is exceeded.
      *
      * @param query           the query to answer
      * @param nbSamples       the number of samples to collect
      * @param maxSamplingTime maximum sampling time (in milliseconds)
      */
     public LikelihoodWeighting(Query query, int nbSamples, long maxSamplingTime) {
+        this(query, nbSamples, maxSamplingTime, 0.0);
+    }
+
+    /**
+     * Creates a new sampling query with the given arguments and starts sampling.
+     * The samples are divided in chunks of CHUNK_SIZE samples (or less, so that a
+     * chunk includes at most MAX_CHUNK_NODES node samplings), each of which has
+     * its own buffer and its own random generator (split in a deterministic manner
+     * from the generator of the calling thread). The chunks are collected by
+     * NB_WORKERS parallel workers, and their buffers are merged in order. The
+     * samples are thus reproducible for a given seed (unless the sampling time
+     * limit is reached), whatever the number of workers. The time limit is checked
+     * before starting each chunk, but the first chunk is always collected, so
+     * that the query returns some samples even if the time limit is exceeded.
+     *
+     * <p>
+     * If the tolerance is positive, the sampling operates in anytime mode: the
+     * chunks are collected in batches of BATCH_SIZE samples, and the sampling stops
+     * as soon as the effective sample size reaches MIN_EFFECTIVE_SIZE and the
+     * estimates for the query (marginal probabilities of the query variables, and
+     * expected utilities for utility queries) change by less than the tolerance
+     * between two batches. Otherwise, the sampling continues until the number of
+     * samples is reached or the time limit is exceeded.
+     *
+     * @param query           the query to answer
+     * @param nbSamples       the maximum number of samples to collect
+     * @param maxSamplingTime maximum sampling time (in milliseconds)
+     * @param tolerance       the tolerance for the convergence of the estimates (0
+     *                        to disable the early stopping)
+     */
+    public LikelihoodWeighting(Query query, int nbSamples, long maxSamplingTime,
+            double tolerance) {
         this.query = query;
         this.evidence = query.getEvidence();
         this.queryVars = query.getQueryVars();
 
         this.nbSamples = nbSamples;
-        sortedNodes = query.getFilteredSortedNodes();
+        sortedNodes = new ArrayList<BNode>(query.getFilteredSortedNodes());
         Collections.reverse(sortedNodes);
-        service.schedule(() -> isTerminated = true, maxSamplingTime,
-                TimeUnit.MILLISECONDS);
-        Stream.generate(() -> this)
-                // creates infinite stream
-                .parallel()
-                // parallelise
-                .map(p -> p.sample())
-                // generate a sample
-                .limit(nbSamples)
-                // stop when nbSamples are collected
-                .filter(s -> s.getWeight() > WEIGHT_THRESHOLD)
-                .filter(s -> !s.isEmpty()) // discard empty samples
-                .forEach(s -> samples.add(s)); // makes a list of samples
+        deadline = Deadline.create(maxSamplingTime);
+        try {
+            collectSamples(tolerance);
+        } finally {
+            deadline.close();
+        }
     }
 
     /**
@@ -97,6 +153,17 @@ public class LikelihoodWeighting {
                 + " samples already collected)";
     }
 
+    /**
+     * Returns the effective sample size of the collected samples, defined as the
+     * squared sum of their weights divided by the sum of their squared weights.
+     *
+     * @return the effective sample size
+     */
+    public double getEffectiveSampleSize() {
+        return (totalSquaredWeight > 0.0)
+                ? totalWeight * totalWeight / totalSquaredWeight : 0.0;
+    }
+
     /**
      * Returns the collected samples
      *
@@ -108,46 +175,37 @@ public class LikelihoodWeighting {
     }
 
     /**
-     * Runs the sample collection procedure until termination (either due to a
-     * time-out or the collection of a number of samples = nbSamples). The method
-     * loops until terminate() is called, or enough samples have been collected.
+     * Draws a batch of samples. The nodes are sampled column-wise (following the
+     * topological order of the network) across the whole batch, and each node is
+     * conditioned on the values of its input nodes.
      *
-     * @return the resulting sample
+     * @param batchSize the number of samples to draw
+     * @return the resulting batch of samples
      */
-    protected Sample sample() {
-        Sample sample = new Sample();
-        if (isTerminated) {
-            return sample;
-        }
-        try {
-            for (BNode n : sortedNodes) {
-                String id = n.getId();
+    protected SampleBatch sample(int batchSize) {
+        SampleBatch batch = new SampleBatch(batchSize);
+        for (BNode n : sortedNodes) {
+            String id = n.getId();
 
-                // if the node is an evidence node and has no input nodes
-                if (n.getInputNodeIds().isEmpty() && evidence.containsVar(id)) {
-                    sample.addPair(id, evidence.getValue(id));
+            // if the node is an evidence node and has no input nodes
+            if (n.getInputNodeIds().isEmpty() && evidence.containsVar(id)) {
+                batch.setValue(batch.addColumn(id), evidence.getValue(id));
 
-                } else if (n instanceof ChanceNode) {
-                    sampleChanceNode((ChanceNode) n, sample);
-                }
+            } else if (n instanceof ChanceNode) {
+                sampleChanceNode((ChanceNode) n, batch);
+            }
 
-                // if the node is an action node
-                else if (n instanceof ActionNode) {
-                    sampleActionNode((ActionNode) n, sample);
-                }
+            // if the node is an action node
+            else if (n instanceof ActionNode) {
+                sampleActionNode((ActionNode) n, batch);
+            }
 
-                // finally, if the node is a utility node, calculate the utility
-                else if (n instanceof UtilityNode) {
-                    double newUtil = ((UtilityNode) n).getUtility(sample);
-                    sample.addUtility(newUtil);
-                }
+            // finally, if the node is a utility node, calculate the utility
+            else if (n instanceof UtilityNode) {
+                sampleUtilityNode((UtilityNode) n, batch);
             }
-            sample.trim(queryVars);
-        } catch (RuntimeException e) {
-            log.warning("exception caught: " + e);
-            e.printStackTrace();
         }
-        return sample;
+        return batch;
     }
 
     // ===================================
@@ -155,70 +213,362 @@ public class LikelihoodWeighting {
     // ===================================
 
     /**
-     * Samples the given chance node and add it to the sample. If the variable is
-     * part of the evidence, updates the weight.
+     * Collects the samples in chunks (and batches of chunks, if the tolerance is
+     * positive), until the number of samples is reached, the deadline expires or
+     * the estimates have converged.
+     *
+     * @param tolerance the tolerance for the convergence of the estimates
+     */
+    private void collectSamples(double tolerance) {
+        int chunkSize = Math.max(1, Math.min(CHUNK_SIZE,
+                MAX_CHUNK_NODES / Math.max(1, sortedNodes.size())));
+        int nbChunks = (nbSamples + chunkSize - 1) / chunkSize;
+        SplittableRandom queryRandom = RandomUtils.getRandom().split();
+        SplittableRandom[] randoms = new SplittableRandom[nbChunks];
+        for (int i = 0; i < nbChunks; i++) {
+            randoms[i] = queryRandom.split();
+        }
+
+        samples = new ArrayList<Sample>(nbSamples);
+        int chunksPerBatch = (tolerance > 0.0)
+                ? Math.max(1, BATCH_SIZE / chunkSize) : Math.max(1, nbChunks);
+        Map<Assignment, Double> probEstimates = null;
+        Map<Assignment, Double> utilEstimates = null;
+        for (int start = 0; start < nbChunks
+                && (start == 0 || !deadline.isExpired()); start += chunksPerBatch) {
+            int end = Math.min(nbChunks, start + chunksPerBatch);
+            for (List<Sample> buffer : collectBatch(randoms, chunkSize, start,
+                    end)) {
+                buffer.forEach(s -> addSample(s));
+            }
+            if (tolerance > 0.0) {
+                Map<Assignment, Double> newProbEstimates = getProbEstimates();
+                Map<Assignment, Double> newUtilEstimates = getUtilEstimates();
+                boolean converged = probEstimates != null
+                        && getEffectiveSampleSize() >= MIN_EFFECTIVE_SIZE
+                        && getMaxDifference(probEstimates,
+                                newProbEstimates) <= tolerance
+                        && getMaxDifference(utilEstimates,
+                                newUtilEstimates) <= tolerance;
+                probEstimates = newProbEstimates;
+                utilEstimates = newUtilEstimates;
+                if (converged) {
+                    log.fine("sampling converged after " + samples.size()
+                            + " samples");
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the chunks of samples between the start (inclusive) and end
+     * (exclusive) indices, using parallel workers. The first chunk of the query is
+     * always collected, and the other ones only if the deadline has not expired.
+     *
+     * @param randoms   the random generators for each chunk
+     * @param chunkSize the number of samples in each chunk
+     * @param start     the index of the first chunk
+     * @param end       the index after the last chunk
+     * @return the buffers of collected samples, in the order of the chunks
+     */
+    private List<List<Sample>> collectBatch(SplittableRandom[] randoms,
+            int chunkSize, int start, int end) {
+        List<List<Sample>> buffers = new ArrayList<List<Sample>>(Collections
+                .nCopies(end - start, Collections.<Sample> emptyList()));
+        AtomicInteger nextChunk = new AtomicInteger(start);
+        int nbWorkers = Math.max(1, Math.min(NB_WORKERS, end - start));
+        IntStream.range(0, nbWorkers).parallel().forEach(w -> {
+            for (int i = nextChunk.getAndIncrement(); i < end
+                    && (i == 0 || !deadline.isExpired()); i = nextChunk
+                            .getAndIncrement()) {
+                int size = Math.min(chunkSize, nbSamples - i * chunkSize);
+                buffers.set(i - start, collectSamples(randoms[i], size));
+            }
+        });
+        return buffers;
+    }
+
+    /**
+     * Adds the sample to the collected samples, and updates the statistics on the
+     * sample weights and query estimates.
+     *
+     * @param sample the sample to add
+     */
+    private void addSample(Sample sample) {
+        double weight = sample.getWeight();
+        if (!samples.isEmpty() && weight != samples.get(0).getWeight()) {
+            uniformWeights = false;
+        }
+        samples.add(sample);
+        totalWeight += weight;
+        totalSquaredWeight += weight * weight;
+        for (String queryVar : queryVars) {
+            if (sample.containsVar(queryVar)) {
+                Assignment a = new Assignment(queryVar, sample.getValue(queryVar));
+                marginals.merge(a, weight, (w1, w2) -> w1 + w2);
+            }
+        }
+        if (query instanceof Query.UtilQuery) {
+            double[] util = utilities.computeIfAbsent(sample.getTrimmed(queryVars),
+                    a -> new double[2]);
+            util[0] += weight * sample.getUtility();
+            util[1] += weight;
+        }
+    }
+
+    /**
+     * Returns the current estimates of the marginal probabilities for each value
+     * of the query variables.
+     *
+     * @return the current probability estimates
+     */
+    private Map<Assignment, Double> getProbEstimates() {
+        Map<Assignment, Double> estimates = new HashMap<Assignment, Double>();
+        for (Assignment a : marginals.keySet()) {
+            estimates.put(a, marginals.get(a) / totalWeight);
+        }
+        return estimates;
+    }
+
+    /**
+     * Returns the current estimates of the expected utility for each assignment of
+     * the query variables (empty if the query is not a utility query).
+     *
+     * @return the current utility estimates
+     */
+    private Map<Assignment, Double> getUtilEstimates() {
+        Map<Assignment, Double> estimates = new HashMap<Assignment, Double>();
+        for (Assignment a : utilities.keySet()) {
+            double[] util = utilities.get(a);
+            estimates.put(a, util[0] / util[1]);
+        }
+        return estimates;
+    }
+
+    /**
+     * Returns the maximum absolute difference between the two estimates (missing
+     * estimates being set to 0).
      *
-     * @param n the chance node to sample
+     * @param estimates    the first estimates
+     * @param newEstimates the second estimates
+     * @return the maximum difference
      */
-    private void sampleChanceNode(ChanceNode n, Sample sample) {
+    private static double getMaxDifference(Map<Assignment, Double> estimates,
+            Map<Assignment, Double> newEstimates) {
+        double maxDiff = 0.0;
+        for (Assignment a : newEstimates.keySet()) {
+            double diff = newEstimates.get(a) - estimates.getOrDefault(a, 0.0);
+            maxDiff = Math.max(maxDiff, Math.abs(diff));
+        }
+        for (Assignment a : estimates.keySet()) {
+            if (!newEstimates.containsKey(a)) {
+                maxDiff = Math.max(maxDiff, Math.abs(estimates.get(a)));
+            }
+        }
+        return maxDiff;
+    }
+
+    /**
+     * Collects the samples of one chunk in a local buffer. The samples are drawn as
+     * one batch, and only the query variables are materialised in the buffer. The
+     * random generator of the chunk is associated with the current thread while
+     * sampling.
+     *
+     * @param random    the random generator for the chunk
+     * @param chunkSize the number of samples to draw
+     * @return the buffer of collected samples
+     */
+    private List<Sample> collectSamples(SplittableRandom random, int chunkSize) {
+        return RandomUtils.callWith(random, () -> {
+            SampleBatch batch = sample(chunkSize);
+            // discard empty samples or samples with a negligible weight
+            return batch.getSamples(queryVars, WEIGHT_THRESHOLD);
+        });
+    }
+
+    /**
+     * Samples the given chance node for each sample of the batch. If the variable is
+     * part of the evidence, updates the weights.
+     *
+     * @param n     the chance node to sample
+     * @param batch the batch of samples to extend
+     */
+    private void sampleChanceNode(ChanceNode n, SampleBatch batch) {
 
         String id = n.getId();
+        int column = batch.addColumn(id);
+
+        // if the node is defined by an indexed conditional table, use the fast path
+        if (!evidence.containsVar(id) && isIndexed(n.getDistrib(), batch)) {
+            sampleIndexedNode((ConditionalTable) n.getDistrib(), batch, column);
+        }
+
         // if the node is chance node and not evidence, sample from the values
-        if (!evidence.containsVar(id)) {
-            Value newVal = n.sample(sample);
-            sample.addPair(id, newVal);
+        else if (!evidence.containsVar(id)) {
+            Assignment[] conditions = batch.getConditions(n.getInputNodeIds());
+            RuntimeException error = null;
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    if (conditions[i] != null) {
+                        batch.setValue(column, i, n.sample(conditions[i]));
+                    }
+                } catch (RuntimeException e) {
+                    batch.discard(i);
+                    error = e;
+                }
+            }
+            if (error != null) {
+                log.warning("exception caught: " + error);
+                error.printStackTrace();
+            }
         }
 
         // if the node is an evidence node, update the weights
         else {
             Value evidenceValue = evidence.getValue(id);
+            batch.setValue(column, evidenceValue);
+            Assignment[] conditions = batch.getConditions(n.getInputNodeIds());
             ProbDistribution distrib = n.getDistrib();
-            double evidenceProb = 1.0;
             if (distrib instanceof ContinuousDistribution) {
-                evidenceProb = ((ContinuousDistribution) distrib)
+                double density = ((ContinuousDistribution) distrib)
                         .getProbDensity(evidenceValue);
-            } else {
-                evidenceProb = n.getProb(sample, evidenceValue);
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.addLogWeight(i, Math.log(density));
+                }
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (conditions[i] != null) {
+                    double evidenceProb = n.getProb(conditions[i], evidenceValue);
+                    batch.addLogWeight(i, Math.log(evidenceProb));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the distribution is a conditional table whose conditions
+     * can be indexed from the value indices of the batch (that is, if the table is
+     * indexed and all its conditional variables are in the batch).
+     *
+     * @param distrib the distribution
+     * @param batch   the batch of samples
+     * @return true if the fast path can be used, false otherwise
+     */
+    private static boolean isIndexed(ProbDistribution distrib, SampleBatch batch) {
+        if (!(distrib instanceof ConditionalTable)
+                || !((ConditionalTable) distrib).isIndexed()) {
+            return false;
+        }
+        for (String var : ((ConditionalTable) distrib).getIndexedVariables()) {
+            if (!batch.containsVar(var)) {
+                return false;
             }
-            sample.addLogWeight(Math.log(evidenceProb));
-            sample.addPair(id, evidenceValue);
+        }
+        return true;
+    }
+
+    /**
+     * Samples the head variable of the conditional table for each sample of the
+     * batch. The values of the conditional variables in the batch are first mapped
+     * to their index in the table, after which each draw is a direct lookup of the
+     * distribution in the table, followed by an alias-table draw.
+     *
+     * @param table  the conditional table
+     * @param batch  the batch of samples
+     * @param column the column index for the head variable
+     */
+    private void sampleIndexedNode(ConditionalTable table, SampleBatch batch,
+            int column) {
+        List<String> vars = table.getIndexedVariables();
+        int[] varColumns = new int[vars.size()];
+        int[][] mappings = new int[vars.size()][];
+        for (int i = 0; i < vars.size(); i++) {
+            varColumns[i] = batch.getColumn(vars.get(i));
+            List<Value> values = batch.getValues(varColumns[i]);
+            mappings[i] = new int[values.size()];
+            for (int j = 0; j < values.size(); j++) {
+                mappings[i][j] = table.getValueIndex(i, values.get(j));
+            }
+        }
+        int[] valueIndices = new int[vars.size()];
+        for (int row = 0; row < batch.size(); row++) {
+            if (batch.isDiscarded(row)) {
+                continue;
+            }
+            for (int i = 0; i < varColumns.length; i++) {
+                valueIndices[i] = mappings[i][batch.getIndex(varColumns[i], row)];
+            }
+            batch.setValue(column, row, table.sample(valueIndices));
         }
     }
 
     /**
      * Samples the action node. If the node is part of the evidence, simply add it to
-     * the sample. Else, samples an action at random.
+     * the batch. Else, samples an action at random for each sample.
      *
-     * @param n      the action node
-     * @param sample the weighted sample to extend
+     * @param n     the action node
+     * @param batch the batch of samples to extend
      */
-    private void sampleActionNode(ActionNode n, Sample sample) {
+    private void sampleActionNode(ActionNode n, SampleBatch batch) {
 
         String id = n.getId();
+        int column = batch.addColumn(id);
         if (!evidence.containsVar(id) && n.getInputNodeIds().isEmpty()) {
-            Value newVal = n.sample();
-            sample.addPair(id, newVal);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.setValue(column, i, n.sample());
+            }
         } else {
-            Value evidenceValue = evidence.getValue(id);
-            sample.addPair(id, evidenceValue);
+            batch.setValue(column, evidence.getValue(id));
+        }
+    }
+
+    /**
+     * Adds the utility of the utility node to each sample of the batch.
+     *
+     * @param n     the utility node
+     * @param batch the batch of samples
+     */
+    private void sampleUtilityNode(UtilityNode n, SampleBatch batch) {
+        Assignment[] conditions = batch.getConditions(n.getInputNodeIds());
+        RuntimeException error = null;
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                if (conditions[i] != null) {
+                    batch.addUtility(i, n.getUtility(conditions[i]));
+                }
+            } catch (RuntimeException e) {
+                batch.discard(i);
+                error = e;
+            }
+        }
+        if (error != null) {
+            log.warning("exception caught: " + error);
+            error.printStackTrace();
         }
     }
 
     /**
      * Redraw the samples according to their weight. The number of redrawn samples is
-     * the same as the one given as argument.
+     * the same as the one given as argument. If all samples have the same weight,
+     * the samples are left unchanged.
      *
      * @param samples the initial samples (with their weight)
      * @return the redrawn samples given their weight redrawn.
      */
     private void redrawSamples() {
+        if (uniformWeights) {
+            return;
+        }
         try {
             Intervals<Sample> intervals =
                     new Intervals<Sample>(samples, s -> s.getWeight());
-            Stack<Sample> newSamples = new Stack<Sample>();
-            int sampleSize = samples.size();
-            for (int j = 0; j < sampleSize; j++) {
-                newSamples.add(intervals.sample());
+            int[] indices = new int[samples.size()];
+            intervals.sampleIndices(indices);
+            List<Sample> newSamples = new ArrayList<Sample>(indices.length);
+            for (int index : indices) {
+                newSamples.add(intervals.getObject(index));
             }
             samples = newSamples;
         } catch (RuntimeException e) {
@@ -0,0 +1,379 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.approximate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import opendial.bn.values.Value;
+import opendial.datastructs.Assignment;
+
+/**
+ * Batch of weighted samples stored in columnar form. Each variable of the batch is
+ * associated with a column of value indices (one per sample), pointing to the
+ * dictionary of distinct values for the variable. The logarithmic weights and
+ * utilities of the samples are stored in primitive arrays.
+ *
+ * <p>
+ * The batch is filled column by column (following the topological order of the
+ * network), and the samples are only materialised as Sample objects for the
+ * variables of interest, once the batch is complete.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class SampleBatch {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    // number of samples in the batch
+    final int size;
+
+    // column index for each variable
+    final Map<String, Integer> columnIndices = new HashMap<String, Integer>();
+
+    // value indices for each column
+    final List<int[]> columns = new ArrayList<int[]>();
+
+    // distinct values for each column, and their index
+    final List<List<Value>> dictionaries = new ArrayList<List<Value>>();
+    final List<Map<Value, Integer>> valueIndices =
+            new ArrayList<Map<Value, Integer>>();
+
+    // logarithmic weights of the samples
+    final double[] logWeights;
+
+    // utilities of the samples
+    final double[] utilities;
+
+    // ===================================
+    // BATCH CONSTRUCTION
+    // ===================================
+
+    /**
+     * Creates a new, empty batch of samples (with zero log-weights and utilities)
+     *
+     * @param size the number of samples in the batch
+     */
+    public SampleBatch(int size) {
+        this.size = size;
+        logWeights = new double[size];
+        utilities = new double[size];
+    }
+
+    /**
+     * Adds a new column for the variable (if it does not already exist) and returns
+     * its index.
+     *
+     * @param variable the variable
+     * @return the column index for the variable
+     */
+    public int addColumn(String variable) {
+        Integer column = columnIndices.get(variable);
+        if (column == null) {
+            column = columns.size();
+            columnIndices.put(variable, column);
+            columns.add(new int[size]);
+            dictionaries.add(new ArrayList<Value>());
+            valueIndices.add(new HashMap<Value, Integer>());
+        }
+        return column;
+    }
+
+    /**
+     * Sets the value of the variable in the given column for a particular sample.
+     *
+     * @param column the column index
+     * @param row    the sample index
+     * @param value  the value
+     */
+    public void setValue(int column, int row, Value value) {
+        columns.get(column)[row] = getValueIndex(column, value);
+    }
+
+    /**
+     * Sets the value of the variable in the given column for all samples.
+     *
+     * @param column the column index
+     * @param value  the value
+     */
+    public void setValue(int column, Value value) {
+        Arrays.fill(columns.get(column), getValueIndex(column, value));
+    }
+
+    /**
+     * Adds a logarithmic weight to the weight of the sample
+     *
+     * @param row          the sample index
+     * @param addLogWeight the weight to add
+     */
+    public void addLogWeight(int row, double addLogWeight) {
+        logWeights[row] += addLogWeight;
+    }
+
+    /**
+     * Discards the sample from the batch, by setting its weight to zero. The
+     * discarded samples are no longer sampled nor materialised.
+     *
+     * @param row the sample index
+     */
+    public void discard(int row) {
+        logWeights[row] = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Adds a utility to the sample
+     *
+     * @param row     the sample index
+     * @param newUtil the utility to add
+     */
+    public void addUtility(int row, double newUtil) {
+        utilities[row] += newUtil;
+    }
+
+    // ===================================
+    // GETTERS
+    // ===================================
+
+    /**
+     * Returns the number of samples in the batch
+     *
+     * @return the batch size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the batch contains a column for the variable
+     *
+     * @param variable the variable
+     * @return true if the variable is in the batch, false otherwise
+     */
+    public boolean containsVar(String variable) {
+        return columnIndices.containsKey(variable);
+    }
+
+    /**
+     * Returns the column index for the variable, or -1 if the variable is not in
+     * the batch
+     *
+     * @param variable the variable
+     * @return the column index
+     */
+    public int getColumn(String variable) {
+        return columnIndices.getOrDefault(variable, -1);
+    }
+
+    /**
+     * Returns the distinct values in the given column (the value indices of the
+     * column point to this list)
+     *
+     * @param column the column index
+     * @return the distinct values of the column
+     */
+    public List<Value> getValues(int column) {
+        return Collections.unmodifiableList(dictionaries.get(column));
+    }
+
+    /**
+     * Returns the value index in the given column for a particular sample.
+     *
+     * @param column the column index
+     * @param row    the sample index
+     * @return the value index
+     */
+    public int getIndex(int column, int row) {
+        return columns.get(column)[row];
+    }
+
+    /**
+     * Returns the value of the variable in the given column for a particular
+     * sample.
+     *
+     * @param column the column index
+     * @param row    the sample index
+     * @return the value
+     */
+    public Value getValue(int column, int row) {
+        return dictionaries.get(column).get(columns.get(column)[row]);
+    }
+
+    /**
+     * Returns true if the sample has been discarded (or has a zero weight)
+     *
+     * @param row the sample index
+     * @return true if the sample is discarded, false otherwise
+     */
+    public boolean isDiscarded(int row) {
+        return logWeights[row] == Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Returns the sample weight (exponentiated value, not the logarithmic one!)
+     *
+     * @param row the sample index
+     * @return the (exponentiated) weight for the sample
+     */
+    public double getWeight(int row) {
+        return Math.exp(logWeights[row]);
+    }
+
+    /**
+     * Returns the utility of the sample
+     *
+     * @param row the sample index
+     * @return the utility
+     */
+    public double getUtility(int row) {
+        return utilities[row];
+    }
+
+    /**
+     * Returns the assignments of the given variables for each sample of the batch
+     * (variables without a column are ignored, and the assignment is null for the
+     * discarded samples). Samples with identical values for these variables share
+     * the same assignment object, which should therefore not be modified.
+     *
+     * @param variables the variables
+     * @return the assignments for each sample
+     */
+    public Assignment[] getConditions(Collection<String> variables) {
+        List<Integer> varColumns = new ArrayList<Integer>(variables.size());
+        List<String> varNames = new ArrayList<String>(variables.size());
+        long nbCombinations = 1;
+        for (String var : variables) {
+            Integer column = columnIndices.get(var);
+            if (column != null) {
+                varColumns.add(column);
+                varNames.add(var);
+                nbCombinations *= Math.max(1, dictionaries.get(column).size());
+                if (nbCombinations > Integer.MAX_VALUE) {
+                    nbCombinations = -1;
+                    break;
+                }
+            }
+        }
+
+        Assignment[] conditions = new Assignment[size];
+        Map<Long, Assignment> cache = new HashMap<Long, Assignment>();
+        for (int row = 0; row < size; row++) {
+            if (isDiscarded(row)) {
+                continue;
+            }
+            long key = (nbCombinations > 0) ? 0 : row;
+            if (nbCombinations > 0) {
+                for (int column : varColumns) {
+                    key = key * Math.max(1, dictionaries.get(column).size())
+                            + columns.get(column)[row];
+                }
+            }
+            Assignment condition = cache.get(key);
+            if (condition == null) {
+                condition = new Assignment();
+                for (int i = 0; i < varColumns.size(); i++) {
+                    condition.addPair(varNames.get(i),
+                            getValue(varColumns.get(i), row));
+                }
+                cache.put(key, condition);
+            }
+            conditions[row] = condition;
+        }
+        return conditions;
+    }
+
+    /**
+     * Materialises the samples of the batch whose weight is above the threshold,
+     * restricted to the given variables. Samples with no value for these variables
+     * are discarded.
+     *
+     * @param variables the variables to include in the samples
+     * @param threshold the minimum weight for a sample
+     * @return the resulting samples
+     */
+    public List<Sample> getSamples(Collection<String> variables, double threshold) {
+        List<Integer> varColumns = new ArrayList<Integer>(variables.size());
+        List<String> varNames = new ArrayList<String>(variables.size());
+        for (String var : variables) {
+            Integer column = columnIndices.get(var);
+            if (column != null) {
+                varColumns.add(column);
+                varNames.add(var);
+            }
+        }
+        List<Sample> samples = new ArrayList<Sample>(size);
+        if (varColumns.isEmpty()) {
+            return samples;
+        }
+        for (int row = 0; row < size; row++) {
+            if (getWeight(row) > threshold) {
+                Sample sample = new Sample();
+                for (int i = 0; i < varColumns.size(); i++) {
+                    sample.addPair(varNames.get(i), getValue(varColumns.get(i), row));
+                }
+                sample.logWeight = logWeights[row];
+                sample.utility = utilities[row];
+                samples.add(sample);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Returns a string representation of the batch
+     */
+    @Override
+    public String toString() {
+        return "batch of " + size + " samples for " + columnIndices.keySet();
+    }
+
+    // ===================================
+    // PRIVATE METHODS
+    // ===================================
+
+    /**
+     * Returns the index of the value in the dictionary of the column (adding it if
+     * necessary).
+     *
+     * @param column the column index
+     * @param value  the value
+     * @return the index of the value
+     */
+    private int getValueIndex(int column, Value value) {
+        Map<Value, Integer> indices = valueIndices.get(column);
+        Integer index = indices.get(value);
+        if (index == null) {
+            index = indices.size();
+            indices.put(value, index);
+            dictionaries.get(column).add(value);
+        }
+        return index;
+    }
+}
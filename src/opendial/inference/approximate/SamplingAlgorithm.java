@@ -59,6 +59,8 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 
     long maxSamplingTime = Settings.maxSamplingTime;
 
+    double tolerance = Settings.samplingTolerance;
+
     // ===================================
     // CONSTRUCTORS
     // ===================================
@@ -75,6 +77,21 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
         this.maxSamplingTime = maxSamplingTime;
     }
 
+    /**
+     * Creates a new likelihood weighting algorithm with the specified number of
+     * samples and sampling time, operating in anytime mode: the sampling stops as
+     * soon as the query estimates have converged within the given tolerance.
+     *
+     * @param nbSamples       the maximum number of samples to collect
+     * @param maxSamplingTime the maximum sampling time
+     * @param tolerance       the tolerance for the convergence of the estimates (0
+     *                        to disable the early stopping)
+     */
+    public SamplingAlgorithm(int nbSamples, long maxSamplingTime, double tolerance) {
+        this(nbSamples, maxSamplingTime);
+        this.tolerance = tolerance;
+    }
+
     /**
      * Creates a new likelihood weighting algorithm with the specified number of
      * samples and sampling time
@@ -98,7 +115,8 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 
         // creates a new query thread
         LikelihoodWeighting isquery =
-                new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+                new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+                        tolerance);
 
         // extract and redraw the samples according to their weight.
         List<Sample> samples = isquery.getSamples();
@@ -142,7 +160,8 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
         try {
             // creates a new query thread
             LikelihoodWeighting isquery =
-                    new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+                    new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+                        tolerance);
 
             // extract and redraw the samples
             List<Sample> samples = isquery.getSamples();
@@ -172,7 +191,8 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
         Query query = new Query.UtilQuery(network, network.getChanceNodeIds(),
                 new Assignment());
         LikelihoodWeighting isquery =
-                new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+                new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+                        tolerance);
 
         // extract and redraw the samples
         List<Sample> samples = isquery.getSamples();
@@ -200,7 +220,8 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
         Collection<String> queryVars = query.getQueryVars();
         // creates a new query thread
         LikelihoodWeighting isquery =
-                new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+                new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+                        tolerance);
 
         // extract and redraw the samples
         List<Sample> samples = isquery.getSamples();
@@ -267,14 +288,16 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
         for (Query query : weightedQueries.keySet()) {
             Consumer<Collection<Sample>> weightScheme = weightedQueries.get(query);
             LikelihoodWeighting isquery =
-                    new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+                    new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+                        tolerance);
             List<Sample> samples = isquery.getSamples();
             weightScheme.accept(samples);
             Intervals<Sample> intervals =
                     new Intervals<Sample>(samples, s -> s.getWeight());
-            int sampleSize = samples.size();
-            for (int j = 0; j < sampleSize; j++) {
-                distrib.addSample(intervals.sample());
+            int[] indices = new int[samples.size()];
+            intervals.sampleIndices(indices);
+            for (int index : indices) {
+                distrib.addSample(intervals.getObject(index));
             }
         }
         return distrib;
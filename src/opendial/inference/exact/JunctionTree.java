@@ -0,0 +1,512 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.exact;
+
+import java.util.logging.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import opendial.bn.BNetwork;
+import opendial.bn.distribs.ContinuousDistribution;
+import opendial.bn.distribs.MultivariateDistribution;
+import opendial.bn.distribs.MultivariateTable;
+import opendial.bn.distribs.UtilityTable;
+import opendial.bn.nodes.BNode;
+import opendial.bn.nodes.ChanceNode;
+import opendial.bn.nodes.UtilityNode;
+import opendial.datastructs.Assignment;
+import opendial.inference.InferenceAlgorithm;
+import opendial.inference.Query;
+import opendial.inference.SwitchingAlgorithm;
+import opendial.inference.exact.VariableElimination.EliminationOrder;
+
+/**
+ * Junction-tree (clique tree) inference algorithm. The Bayesian network is compiled
+ * into a tree of cliques, which is then calibrated with Shafer-Shenoy message
+ * passing. Once calibrated, the marginal distribution of any set of variables
+ * included in a clique can be directly extracted from the clique beliefs.
+ *
+ * <p>
+ * The algorithm keeps the calibrated tree for the last network and evidence, and
+ * reuses it as long as the network version (see BNetwork.getVersion()) and the
+ * evidence remain unchanged. Since compilation is only worthwhile if the network is
+ * queried several times, the tree is only compiled once the same network and
+ * evidence have been queried COMPILATION_THRESHOLD times. The tree only covers the
+ * nodes that are relevant for the variables queried so far (see
+ * Query.getFilteredSortedNodes()), so that barren and d-separated nodes are neither
+ * compiled nor prevent the compilation. It is recompiled (for the extended set of
+ * variables) when a query targets other variables. Queries that cannot be
+ * answered by the tree (utility queries, reductions, queries spanning several
+ * cliques, networks with continuous distributions or too large cliques) are
+ * delegated to a fallback algorithm.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class JunctionTree implements InferenceAlgorithm {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    // number of queries on the same network and evidence before compiling the tree
+    public static int COMPILATION_THRESHOLD = 2;
+
+    // the algorithm used when the query cannot be answered by the tree
+    final InferenceAlgorithm fallback;
+
+    // the clique tree for the last queried network and evidence
+    private CliqueTree tree;
+
+    // number of calibrated trees
+    private int nbCalibrations = 0;
+
+    /**
+     * Creates a new junction-tree algorithm, with the switching algorithm as fallback
+     */
+    public JunctionTree() {
+        this(new SwitchingAlgorithm());
+    }
+
+    /**
+     * Creates a new junction-tree algorithm, with the given fallback algorithm
+     *
+     * @param fallback the algorithm to use for the queries that cannot be answered
+     *                 with the tree
+     */
+    public JunctionTree(InferenceAlgorithm fallback) {
+        this.fallback = fallback;
+    }
+
+    // ===================================
+    // MAIN QUERY METHODS
+    // ===================================
+
+    /**
+     * Queries for the probability distribution of the set of random variables in the
+     * Bayesian network, given the provided evidence. The distribution is extracted
+     * from the calibrated tree if possible, and computed with the fallback algorithm
+     * otherwise.
+     *
+     * @param query the full query
+     * @return the corresponding distribution
+     */
+    @Override
+    public MultivariateDistribution queryProb(Query.ProbQuery query) {
+        CliqueTree calibrated = getCalibratedTree(query);
+        if (calibrated != null) {
+            MultivariateTable result = calibrated.getMarginal(query.getQueryVars());
+            if (result != null) {
+                return result;
+            }
+        }
+        return fallback.queryProb(query);
+    }
+
+    /**
+     * Queries for the utility of a particular set of (action) variables, given the
+     * provided evidence. The query is delegated to the fallback algorithm.
+     *
+     * @param query the full query
+     * @return the utility distribution
+     */
+    @Override
+    public UtilityTable queryUtil(Query.UtilQuery query) {
+        return fallback.queryUtil(query);
+    }
+
+    /**
+     * Reduces the Bayesian network to a subset of its variables. The query is
+     * delegated to the fallback algorithm.
+     *
+     * @param query the reduction query
+     * @return the reduced network
+     */
+    @Override
+    public BNetwork reduce(Query.ReduceQuery query) {
+        return fallback.reduce(query);
+    }
+
+    /**
+     * Returns the number of times a clique tree has been compiled and calibrated by
+     * the algorithm
+     *
+     * @return the number of calibrations
+     */
+    public synchronized int getNbCalibrations() {
+        return nbCalibrations;
+    }
+
+    // ===================================
+    // PRIVATE METHODS
+    // ===================================
+
+    /**
+     * Returns the calibrated tree for the network and evidence of the query, or null
+     * if the tree is not (yet) compiled or cannot be compiled.
+     *
+     * @param query the query
+     * @return the calibrated tree, or null
+     */
+    private synchronized CliqueTree getCalibratedTree(Query query) {
+        Collection<String> queryVars = query.getQueryVars();
+        if (tree == null || !tree.isValid(query.getNetwork(), query.getEvidence())) {
+            tree = new CliqueTree(query.getNetwork(), query.getEvidence(), queryVars);
+        } else if (!tree.targets.containsAll(queryVars) && tree.compiled) {
+            Set<String> targets = new HashSet<String>(tree.targets);
+            targets.addAll(queryVars);
+            int nbQueries = tree.nbQueries;
+            tree = new CliqueTree(query.getNetwork(), query.getEvidence(), targets);
+            tree.nbQueries = nbQueries;
+        } else if (!tree.targets.containsAll(queryVars) && tree.compilable) {
+            tree.targets.addAll(queryVars);
+        }
+        if (!tree.compiled && ++tree.nbQueries >= COMPILATION_THRESHOLD) {
+            tree.compile();
+            if (tree.compiled) {
+                nbCalibrations++;
+            }
+        }
+        return (tree.compiled) ? tree : null;
+    }
+
+    /**
+     * Clique tree for a particular network and evidence.
+     */
+    private static final class CliqueTree {
+
+        // the network and evidence
+        final BNetwork network;
+        final Assignment evidence;
+
+        // the variables covered by the tree (once compiled, all the variables
+        // of the relevant nodes)
+        final Set<String> targets;
+
+        // version of the network when the tree was created
+        final long version;
+
+        // number of queries for the network and evidence
+        int nbQueries = 0;
+
+        // whether the tree is compiled and calibrated
+        boolean compiled = false;
+
+        // whether the tree cannot be compiled
+        boolean compilable = true;
+
+        // the cliques and their neighbours in the tree
+        final List<Set<String>> cliques = new ArrayList<Set<String>>();
+        final List<List<Integer>> neighbours = new ArrayList<List<Integer>>();
+
+        // the initial potential of each clique
+        final List<TensorFactor> potentials = new ArrayList<TensorFactor>();
+
+        // incoming messages for each clique, indexed by the sending clique
+        final List<Map<Integer, TensorFactor>> messages =
+                new ArrayList<Map<Integer, TensorFactor>>();
+
+        // clique beliefs (computed when needed)
+        final Map<Integer, TensorFactor> beliefs = new HashMap<Integer, TensorFactor>();
+
+        /**
+         * Creates a new (not yet compiled) clique tree for the network and evidence,
+         * covering the given variables
+         *
+         * @param network  the network
+         * @param evidence the evidence
+         * @param targets  the variables to cover
+         */
+        CliqueTree(BNetwork network, Assignment evidence,
+                   Collection<String> targets) {
+            this.network = network;
+            this.evidence = new Assignment(evidence);
+            this.targets = new HashSet<String>(targets);
+            this.version = network.getVersion();
+        }
+
+        /**
+         * Returns true if the tree was built for the same network (in the same
+         * version) and the same evidence, and false otherwise.
+         *
+         * @param network  the network
+         * @param evidence the evidence
+         * @return true if the tree can be reused, false otherwise
+         */
+        boolean isValid(BNetwork network, Assignment evidence) {
+            return this.network == network && version == network.getVersion()
+                    && this.evidence.equals(evidence);
+        }
+
+        /**
+         * Compiles the relevant part of the network (for the target variables) into
+         * a clique tree and calibrates it. If this part cannot be compiled, the tree
+         * is left uncompiled.
+         */
+        void compile() {
+            if (!compilable) {
+                return;
+            }
+            compilable = false;
+
+            // creates the factors of the relevant nodes
+            Query query = new Query.ProbQuery(network, targets, evidence);
+            List<TensorFactor> factors = new ArrayList<TensorFactor>();
+            for (BNode node : query.getFilteredSortedNodes()) {
+                if (node instanceof UtilityNode) {
+                    continue;
+                }
+                targets.add(node.getId());
+                if (node.getInputNodeIds()
+                        .size() > SwitchingAlgorithm.MAX_BRANCHING_FACTOR) {
+                    return;
+                }
+                if (node instanceof ChanceNode && ((ChanceNode) node)
+                        .getDistrib() instanceof ContinuousDistribution) {
+                    return;
+                }
+                TensorFactor factor = TensorFactor.fromRows(
+                        rows -> node.getFactor(evidence, rows), false, evidence);
+                if (!factor.isEmpty()) {
+                    factors.add(factor);
+                }
+            }
+
+            // triangulates the moral graph
+            Map<String, Set<String>> graph = new HashMap<String, Set<String>>();
+            Map<String, Integer> sizes = new HashMap<String, Integer>();
+            VariableElimination.createInteractionGraph(factors, graph, sizes);
+            List<String> vars = new ArrayList<String>(network.getSortedNodesIds());
+            vars.retainAll(graph.keySet());
+            List<Set<String>> eliminationCliques = new ArrayList<Set<String>>();
+            VariableElimination.triangulate(graph, sizes, vars,
+                    EliminationOrder.WEIGHTED_MIN_FILL, eliminationCliques);
+
+            // retains the maximal cliques
+            for (Set<String> clique : eliminationCliques) {
+                if (cliques.stream().anyMatch(c -> c.containsAll(clique))) {
+                    continue;
+                }
+                long size = 1;
+                for (String var : clique) {
+                    size *= sizes.get(var);
+                }
+                if (size > SwitchingAlgorithm.MAX_NBVALUES) {
+                    return;
+                }
+                cliques.add(clique);
+                neighbours.add(new ArrayList<Integer>());
+                potentials.add(TensorFactor.unit());
+                messages.add(new HashMap<Integer, TensorFactor>());
+            }
+
+            connectCliques();
+
+            // assigns each factor to a clique
+            for (TensorFactor factor : factors) {
+                for (int i = 0; i < cliques.size(); i++) {
+                    if (cliques.get(i).containsAll(factor.getVariables())) {
+                        potentials.set(i, potentials.get(i).product(factor));
+                        break;
+                    }
+                }
+            }
+
+            calibrate();
+            compilable = true;
+            compiled = true;
+        }
+
+        /**
+         * Connects the cliques into a maximum spanning tree, where the weight of an
+         * edge is the number of variables shared by the two cliques.
+         */
+        private void connectCliques() {
+            if (cliques.isEmpty()) {
+                return;
+            }
+            boolean[] inTree = new boolean[cliques.size()];
+            inTree[0] = true;
+            for (int k = 1; k < cliques.size(); k++) {
+                int bestI = -1;
+                int bestJ = -1;
+                int bestWeight = -1;
+                for (int i = 0; i < cliques.size(); i++) {
+                    if (!inTree[i]) {
+                        continue;
+                    }
+                    for (int j = 0; j < cliques.size(); j++) {
+                        if (inTree[j]) {
+                            continue;
+                        }
+                        int weight = getSeparator(i, j).size();
+                        if (weight > bestWeight) {
+                            bestI = i;
+                            bestJ = j;
+                            bestWeight = weight;
+                        }
+                    }
+                }
+                inTree[bestJ] = true;
+                neighbours.get(bestI).add(bestJ);
+                neighbours.get(bestJ).add(bestI);
+            }
+        }
+
+        /**
+         * Calibrates the tree with a collect and a distribute pass of Shafer-Shenoy
+         * message passing, rooted at the first clique.
+         */
+        private void calibrate() {
+            if (cliques.isEmpty()) {
+                return;
+            }
+            List<Integer> order = new ArrayList<Integer>();
+            int[] parents = new int[cliques.size()];
+            parents[0] = -1;
+            LinkedList<Integer> toProcess = new LinkedList<Integer>();
+            toProcess.add(0);
+            while (!toProcess.isEmpty()) {
+                int i = toProcess.removeFirst();
+                order.add(i);
+                for (int j : neighbours.get(i)) {
+                    if (j != parents[i]) {
+                        parents[j] = i;
+                        toProcess.add(j);
+                    }
+                }
+            }
+            for (int k = order.size() - 1; k > 0; k--) {
+                int i = order.get(k);
+                sendMessage(i, parents[i]);
+            }
+            for (int i : order) {
+                for (int j : neighbours.get(i)) {
+                    if (j != parents[i]) {
+                        sendMessage(i, j);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sends the message from clique i to clique j, which is the product of the
+         * potential of i with all its incoming messages (except the one from j),
+         * summed out over the variables that are not in the separator.
+         *
+         * @param i the sending clique
+         * @param j the receiving clique
+         */
+        private void sendMessage(int i, int j) {
+            TensorFactor message = potentials.get(i);
+            for (Map.Entry<Integer, TensorFactor> incoming : messages.get(i)
+                    .entrySet()) {
+                if (incoming.getKey() != j) {
+                    message = message.product(incoming.getValue());
+                }
+            }
+            Set<String> separator = getSeparator(i, j);
+            for (String var : new ArrayList<String>(message.getVariables())) {
+                if (!separator.contains(var)) {
+                    message = message.sumOut(var);
+                }
+            }
+            messages.get(j).put(i, message);
+        }
+
+        /**
+         * Returns the marginal distribution for the query variables, or null if the
+         * variables are not included in a single clique of the tree.
+         *
+         * @param queryVars the query variables
+         * @return the marginal distribution, or null
+         */
+        synchronized MultivariateTable getMarginal(Collection<String> queryVars) {
+            Set<String> hiddenQueryVars = new HashSet<String>(queryVars);
+            hiddenQueryVars.removeAll(evidence.getVariables());
+            TensorFactor marginal = null;
+            if (hiddenQueryVars.isEmpty()) {
+                marginal = TensorFactor.unit();
+            }
+            for (int i = 0; i < cliques.size() && marginal == null; i++) {
+                if (cliques.get(i).containsAll(hiddenQueryVars)) {
+                    marginal = getBelief(i);
+                }
+            }
+            if (marginal == null) {
+                return null;
+            }
+            for (String var : new ArrayList<String>(marginal.getVariables())) {
+                if (!hiddenQueryVars.contains(var)) {
+                    marginal = marginal.sumOut(var);
+                }
+            }
+            for (String var : queryVars) {
+                if (evidence.containsVar(var)) {
+                    marginal = marginal.extend(var, evidence.getValue(var));
+                }
+            }
+            MultivariateTable.Builder builder = new MultivariateTable.Builder();
+            builder.addRows(marginal.toDoubleFactor().getProbTable());
+            builder.normalise();
+            return builder.build();
+        }
+
+        /**
+         * Returns the belief of the clique (product of its potential with all its
+         * incoming messages)
+         *
+         * @param i the clique
+         * @return the clique belief
+         */
+        private TensorFactor getBelief(int i) {
+            TensorFactor belief = beliefs.get(i);
+            if (belief == null) {
+                belief = potentials.get(i);
+                for (TensorFactor message : messages.get(i).values()) {
+                    belief = belief.product(message);
+                }
+                beliefs.put(i, belief);
+            }
+            return belief;
+        }
+
+        /**
+         * Returns the variables shared by the two cliques
+         *
+         * @param i the first clique
+         * @param j the second clique
+         * @return the separator
+         */
+        private Set<String> getSeparator(int i, int j) {
+            Set<String> separator = new HashSet<String>(cliques.get(i));
+            separator.retainAll(cliques.get(j));
+            return separator;
+        }
+    }
+}
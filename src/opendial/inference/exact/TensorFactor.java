@@ -0,0 +1,690 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.exact;
+
+import java.util.logging.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ObjDoubleConsumer;
+
+import opendial.bn.values.Value;
+import opendial.datastructs.Assignment;
+
+/**
+ * Dense factor combining probability and utility values, used by the variable
+ * elimination algorithm. The factor is defined over an ordered list of variables,
+ * each associated with a finite domain of values. The probability and utility
+ * values are stored in flat arrays indexed by mixed-radix strides over these
+ * domains (the last variable having a stride of 1), so that product, sum-out and
+ * evidence reduction boil down to index arithmetic.
+ *
+ * <p>
+ * Since the factors of a Bayesian network are not always complete Cartesian
+ * products, each cell is also marked as defined or not. Undefined cells correspond
+ * to the assignments that are absent from the map-based DoubleFactor.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public final class TensorFactor {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    // the factor variables
+    final String[] vars;
+
+    // the domain of each variable
+    final Value[][] domains;
+
+    // the stride of each variable
+    final int[] strides;
+
+    // the probability of each cell
+    final double[] probs;
+
+    // the utility of each cell
+    final double[] utils;
+
+    // whether each cell is defined
+    final boolean[] defined;
+
+    // index of each value in the domains (only created for large domains)
+    private List<Map<Value, Integer>> valueIndices;
+
+    // ===================================
+    // CONSTRUCTION METHODS
+    // ===================================
+
+    /**
+     * Creates a new factor with the given variables and domains, and with all cells
+     * undefined.
+     *
+     * @param vars    the variables
+     * @param domains the domain of each variable
+     */
+    private TensorFactor(String[] vars, Value[][] domains) {
+        this.vars = vars;
+        this.domains = domains;
+        this.strides = new int[vars.length];
+        long size = 1;
+        for (int i = vars.length - 1; i >= 0; i--) {
+            strides[i] = (int) size;
+            size *= domains[i].length;
+            if (size > Integer.MAX_VALUE) {
+                throw new RuntimeException("factor is too large: "
+                        + Arrays.toString(vars));
+            }
+        }
+        probs = new double[(int) size];
+        utils = new double[(int) size];
+        defined = new boolean[(int) size];
+    }
+
+    /**
+     * Creates a factor without variables, made of a single cell with probability 1
+     * and utility 0.
+     *
+     * @return the unit factor
+     */
+    public static TensorFactor unit() {
+        TensorFactor factor = new TensorFactor(new String[0], new Value[0][]);
+        factor.probs[0] = 1.0;
+        factor.defined[0] = true;
+        return factor;
+    }
+
+    /**
+     * Creates a factor from a table mapping assignments (which must all be defined
+     * on the same variables) to values. If utility is true, the values are treated
+     * as utilities (with a probability of 1). Else, they are treated as
+     * probabilities (with a utility of 0).
+     *
+     * @param table   the table
+     * @param utility whether the table values are utilities
+     * @return the corresponding factor
+     */
+    public static TensorFactor fromTable(Map<Assignment, Double> table,
+                                         boolean utility) {
+        if (table.isEmpty()) {
+            return empty();
+        }
+        String[] vars = table.keySet().iterator().next().getVariables()
+                .toArray(new String[0]);
+        List<Map<Value, Integer>> indices = new ArrayList<Map<Value, Integer>>();
+        for (int i = 0; i < vars.length; i++) {
+            indices.add(new LinkedHashMap<Value, Integer>());
+        }
+        for (Assignment a : table.keySet()) {
+            for (int i = 0; i < vars.length; i++) {
+                Map<Value, Integer> index = indices.get(i);
+                Value v = a.getValue(vars[i]);
+                if (!index.containsKey(v)) {
+                    index.put(v, index.size());
+                }
+            }
+        }
+        Value[][] domains = new Value[vars.length][];
+        for (int i = 0; i < vars.length; i++) {
+            domains[i] = indices.get(i).keySet().toArray(new Value[0]);
+        }
+        TensorFactor factor = new TensorFactor(vars, domains);
+        for (Map.Entry<Assignment, Double> e : table.entrySet()) {
+            int cell = 0;
+            for (int i = 0; i < vars.length; i++) {
+                cell += indices.get(i).get(e.getKey().getValue(vars[i]))
+                        * factor.strides[i];
+            }
+            factor.probs[cell] = (utility) ? 1.0 : e.getValue();
+            factor.utils[cell] = (utility) ? e.getValue() : 0.0;
+            factor.defined[cell] = true;
+        }
+        return factor;
+    }
+
+    /**
+     * Creates a factor from a stream of rows (which must all be defined on the same
+     * variables), reduced to the cells that are consistent with the evidence. The
+     * rows are provided by the generator (e.g. BNode.getFactor(evidence, rows)) and
+     * are assumed to be consistent with the evidence. The evidence variables are
+     * removed from the resulting factor, as in reduce(evidence).
+     *
+     * <p>
+     * Each row is directly converted into value indices, so that only the indices
+     * and values of the rows are kept until the factor is created (and not the row
+     * assignments).
+     *
+     * @param generator the generator of (assignment, value) rows
+     * @param utility   whether the row values are utilities
+     * @param evidence  the evidence
+     * @return the corresponding factor
+     */
+    public static TensorFactor fromRows(Consumer<ObjDoubleConsumer<Assignment>> generator,
+                                        boolean utility, Assignment evidence) {
+        RowBuffer buffer = new RowBuffer(evidence);
+        generator.accept(buffer);
+        if (buffer.vars == null) {
+            return empty();
+        }
+        String[] vars = buffer.vars;
+        Value[][] domains = new Value[vars.length][];
+        for (int i = 0; i < vars.length; i++) {
+            domains[i] = buffer.indices.get(i).keySet().toArray(new Value[0]);
+        }
+        TensorFactor factor = new TensorFactor(vars, domains);
+        for (int r = 0; r < buffer.nbRows; r++) {
+            int cell = 0;
+            for (int i = 0; i < vars.length; i++) {
+                cell += buffer.rows[r * vars.length + i] * factor.strides[i];
+            }
+            factor.probs[cell] = (utility) ? 1.0 : buffer.values[r];
+            factor.utils[cell] = (utility) ? buffer.values[r] : 0.0;
+            factor.defined[cell] = true;
+        }
+        return factor;
+    }
+
+    // ===================================
+    // FACTOR OPERATIONS
+    // ===================================
+
+    /**
+     * Returns the reduction of the factor to the cells that are consistent with the
+     * evidence. The evidence variables are removed from the resulting factor.
+     *
+     * @param evidence the evidence
+     * @return the reduced factor
+     */
+    public TensorFactor reduce(Assignment evidence) {
+        int base = 0;
+        int nbRemaining = 0;
+        boolean[] observed = new boolean[vars.length];
+        for (int i = 0; i < vars.length; i++) {
+            if (!evidence.containsVar(vars[i])) {
+                nbRemaining++;
+                continue;
+            }
+            int index = indexOf(i, evidence.getValue(vars[i]));
+            if (index < 0) {
+                return empty();
+            }
+            observed[i] = true;
+            base += index * strides[i];
+        }
+        if (nbRemaining == vars.length) {
+            return this;
+        }
+        String[] newVars = new String[nbRemaining];
+        Value[][] newDomains = new Value[nbRemaining][];
+        int[] oldStrides = new int[nbRemaining];
+        for (int i = 0, j = 0; i < vars.length; i++) {
+            if (!observed[i]) {
+                newVars[j] = vars[i];
+                newDomains[j] = domains[i];
+                oldStrides[j++] = strides[i];
+            }
+        }
+        return restrict(base, oldStrides, newVars, newDomains);
+    }
+
+    /**
+     * Returns the pointwise product of the two factors. The cells of the product
+     * are only defined if the corresponding cells are defined in both factors. The
+     * probabilities are multiplied, and the utilities are added.
+     *
+     * @param other the other factor
+     * @return the product
+     */
+    public TensorFactor product(TensorFactor other) {
+
+        List<String> newVars = new ArrayList<String>(Arrays.asList(vars));
+        List<Value[]> newDomains = new ArrayList<Value[]>();
+        for (int i = 0; i < vars.length; i++) {
+            int j = other.indexOf(vars[i]);
+            newDomains.add((j < 0) ? domains[i] : intersect(domains[i], other, j));
+        }
+        for (int j = 0; j < other.vars.length; j++) {
+            if (indexOf(other.vars[j]) < 0) {
+                newVars.add(other.vars[j]);
+                newDomains.add(other.domains[j]);
+            }
+        }
+        TensorFactor result = new TensorFactor(newVars.toArray(new String[0]),
+                newDomains.toArray(new Value[0][]));
+
+        int[][] offsets1 = result.getOffsets(this);
+        int[][] offsets2 = result.getOffsets(other);
+        int[] counters = new int[result.vars.length];
+        int cell1 = initialOffset(offsets1);
+        int cell2 = initialOffset(offsets2);
+        for (int cell = 0; cell < result.probs.length; cell++) {
+            if (defined[cell1] && other.defined[cell2]) {
+                result.probs[cell] = probs[cell1] * other.probs[cell2];
+                result.utils[cell] = utils[cell1] + other.utils[cell2];
+                result.defined[cell] = true;
+            }
+            // increments the counters, and updates the offsets accordingly
+            for (int k = counters.length - 1; k >= 0; k--) {
+                int prev = counters[k];
+                int next = (prev + 1 < result.domains[k].length) ? prev + 1 : 0;
+                counters[k] = next;
+                if (offsets1[k] != null) {
+                    cell1 += offsets1[k][next] - offsets1[k][prev];
+                }
+                if (offsets2[k] != null) {
+                    cell2 += offsets2[k][next] - offsets2[k][prev];
+                }
+                if (next > 0) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sums out the variable from the factor. The probabilities are summed, and the
+     * utilities are averaged with respect to the probabilities.
+     *
+     * @param var the variable to sum out
+     * @return the resulting factor
+     */
+    public TensorFactor sumOut(String var) {
+        int k = indexOf(var);
+        if (k < 0) {
+            return this;
+        }
+        String[] newVars = new String[vars.length - 1];
+        Value[][] newDomains = new Value[vars.length - 1][];
+        for (int i = 0, j = 0; i < vars.length; i++) {
+            if (i != k) {
+                newVars[j] = vars[i];
+                newDomains[j++] = domains[i];
+            }
+        }
+        TensorFactor result = new TensorFactor(newVars, newDomains);
+        int stride = strides[k];
+        int block = stride * domains[k].length;
+        for (int cell = 0; cell < probs.length; cell++) {
+            if (defined[cell]) {
+                int newCell = (cell / block) * stride + (cell % stride);
+                result.probs[newCell] += probs[cell];
+                result.utils[newCell] += probs[cell] * utils[cell];
+                result.defined[newCell] = true;
+            }
+        }
+        for (int cell = 0; cell < result.probs.length; cell++) {
+            double prob = result.probs[cell];
+            if (prob > 0.0 && result.utils[cell] != 0 && prob != 1) {
+                result.utils[cell] = result.utils[cell] / prob;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new factor extended with a variable with a single value.
+     *
+     * @param var the variable to add
+     * @param val the variable value
+     * @return the extended factor
+     */
+    public TensorFactor extend(String var, Value val) {
+        String[] newVars = Arrays.copyOf(vars, vars.length + 1);
+        Value[][] newDomains = Arrays.copyOf(domains, domains.length + 1);
+        newVars[vars.length] = var;
+        newDomains[vars.length] = new Value[]{val};
+        // since the new variable has a single value, the cells are unchanged
+        return restrict(0, Arrays.copyOf(strides, strides.length + 1), newVars,
+                newDomains);
+    }
+
+    // ===================================
+    // GETTERS
+    // ===================================
+
+    /**
+     * Returns true if the factor has no variables or no defined cells, and false
+     * otherwise.
+     *
+     * @return true if the factor is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        if (vars.length == 0) {
+            return true;
+        }
+        for (int cell = 0; cell < defined.length; cell++) {
+            if (defined[cell]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the variables of the factor
+     *
+     * @return the variables
+     */
+    public List<String> getVariables() {
+        return Arrays.asList(vars);
+    }
+
+    /**
+     * Returns true if the factor contains the variable, and false otherwise
+     *
+     * @param var the variable
+     * @return true if the variable is in the factor, false otherwise
+     */
+    public boolean hasVariable(String var) {
+        return indexOf(var) >= 0;
+    }
+
+    /**
+     * Returns the number of values in the domain of the variable (or 0 if the
+     * variable is absent from the factor)
+     *
+     * @param var the variable
+     * @return the domain size
+     */
+    public int getDomainSize(String var) {
+        int i = indexOf(var);
+        return (i >= 0) ? domains[i].length : 0;
+    }
+
+    /**
+     * Returns the number of cells in the factor
+     *
+     * @return the number of cells
+     */
+    public int size() {
+        return probs.length;
+    }
+
+    /**
+     * Converts the factor into a (map-based) double factor, containing one entry for
+     * each defined cell.
+     *
+     * @return the corresponding double factor
+     */
+    public DoubleFactor toDoubleFactor() {
+        DoubleFactor factor = new DoubleFactor();
+        int[] counters = new int[vars.length];
+        for (int cell = 0; cell < probs.length; cell++) {
+            if (defined[cell]) {
+                Assignment a = new Assignment();
+                for (int i = 0; i < vars.length; i++) {
+                    a.addPair(vars[i], domains[i][counters[i]]);
+                }
+                factor.addEntry(a, probs[cell], utils[cell]);
+            }
+            for (int k = counters.length - 1; k >= 0; k--) {
+                counters[k] = (counters[k] + 1) % domains[k].length;
+                if (counters[k] > 0) {
+                    break;
+                }
+            }
+        }
+        return factor;
+    }
+
+    /**
+     * Returns a string representation of the factor
+     */
+    @Override
+    public String toString() {
+        return toDoubleFactor().toString();
+    }
+
+    // ===================================
+    // PRIVATE METHODS
+    // ===================================
+
+    /**
+     * Buffer for the rows of a factor, storing the value indices of each row (for
+     * the non-evidence variables) and the row values in growing arrays.
+     */
+    private static final class RowBuffer implements ObjDoubleConsumer<Assignment> {
+
+        // the evidence (whose variables are skipped)
+        final Assignment evidence;
+
+        // the variables of the rows, minus the evidence (null before the first row)
+        String[] vars;
+
+        // the index of each value, for each variable
+        List<Map<Value, Integer>> indices;
+
+        // the value indices of the rows (one block of vars.length per row)
+        int[] rows = new int[64];
+
+        // the values of the rows
+        double[] values = new double[16];
+
+        // the number of rows
+        int nbRows = 0;
+
+        /**
+         * Creates a new, empty buffer
+         *
+         * @param evidence the evidence
+         */
+        RowBuffer(Assignment evidence) {
+            this.evidence = evidence;
+        }
+
+        /**
+         * Adds the row to the buffer
+         *
+         * @param row   the row assignment
+         * @param value the row value
+         */
+        @Override
+        public void accept(Assignment row, double value) {
+            if (vars == null) {
+                vars = row.getVariables().stream()
+                        .filter(v -> !evidence.containsVar(v))
+                        .toArray(String[]::new);
+                indices = new ArrayList<Map<Value, Integer>>(vars.length);
+                for (int i = 0; i < vars.length; i++) {
+                    indices.add(new LinkedHashMap<Value, Integer>());
+                }
+            }
+            if ((nbRows + 1) * vars.length > rows.length) {
+                rows = Arrays.copyOf(rows, 2 * (nbRows + 1) * vars.length);
+            }
+            if (nbRows == values.length) {
+                values = Arrays.copyOf(values, 2 * values.length);
+            }
+            for (int i = 0; i < vars.length; i++) {
+                Map<Value, Integer> index = indices.get(i);
+                Value v = row.getValue(vars[i]);
+                Integer position = index.get(v);
+                if (position == null) {
+                    position = index.size();
+                    index.put(v, position);
+                }
+                rows[nbRows * vars.length + i] = position;
+            }
+            values[nbRows++] = value;
+        }
+    }
+
+    /**
+     * Returns an empty factor (without defined cells).
+     *
+     * @return the empty factor
+     */
+    private static TensorFactor empty() {
+        return new TensorFactor(new String[0], new Value[0][]);
+    }
+
+    /**
+     * Returns a new factor whose cells are copied from the current factor, starting
+     * at the base cell and following the given strides for each new variable.
+     *
+     * @param base       the cell corresponding to the first cell of the new factor
+     * @param oldStrides the strides (in the current factor) of the new variables
+     * @param newVars    the new variables
+     * @param newDomains the domains of the new variables
+     * @return the new factor
+     */
+    private TensorFactor restrict(int base, int[] oldStrides, String[] newVars,
+                                  Value[][] newDomains) {
+        TensorFactor result = new TensorFactor(newVars, newDomains);
+        int[] counters = new int[newVars.length];
+        int oldCell = base;
+        for (int cell = 0; cell < result.probs.length; cell++) {
+            result.probs[cell] = probs[oldCell];
+            result.utils[cell] = utils[oldCell];
+            result.defined[cell] = defined[oldCell];
+            for (int k = counters.length - 1; k >= 0; k--) {
+                counters[k]++;
+                oldCell += oldStrides[k];
+                if (counters[k] < newDomains[k].length) {
+                    break;
+                }
+                oldCell -= counters[k] * oldStrides[k];
+                counters[k] = 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the offsets of each value of the current factor variables in the
+     * other factor (or null for variables absent from the other factor).
+     *
+     * @param other the other factor
+     * @return the offsets
+     */
+    private int[][] getOffsets(TensorFactor other) {
+        int[][] offsets = new int[vars.length][];
+        for (int i = 0; i < vars.length; i++) {
+            int j = other.indexOf(vars[i]);
+            if (j >= 0) {
+                offsets[i] = new int[domains[i].length];
+                for (int v = 0; v < domains[i].length; v++) {
+                    offsets[i][v] = other.indexOf(j, domains[i][v]) * other.strides[j];
+                }
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Returns the sum of the offsets for the first value of each variable
+     *
+     * @param offsets the offsets
+     * @return the initial offset
+     */
+    private static int initialOffset(int[][] offsets) {
+        int offset = 0;
+        for (int[] o : offsets) {
+            if (o != null && o.length > 0) {
+                offset += o[0];
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the values of the domain that are also in the domain of the j-th
+     * variable of the other factor
+     *
+     * @param domain the domain
+     * @param other  the other factor
+     * @param j      the variable index in the other factor
+     * @return the intersection of the two domains
+     */
+    private static Value[] intersect(Value[] domain, TensorFactor other, int j) {
+        Collection<Value> intersection = new ArrayList<Value>(domain.length);
+        for (Value v : domain) {
+            if (other.indexOf(j, v) >= 0) {
+                intersection.add(v);
+            }
+        }
+        return intersection.toArray(new Value[0]);
+    }
+
+    /**
+     * Returns the position of the variable in the factor, or -1 if absent.
+     *
+     * @param var the variable
+     * @return the variable position
+     */
+    private int indexOf(String var) {
+        for (int i = 0; i < vars.length; i++) {
+            if (vars[i].equals(var)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position of the value in the domain of the i-th variable, or -1
+     * if absent.
+     *
+     * @param i     the variable position
+     * @param value the value
+     * @return the value position
+     */
+    private int indexOf(int i, Value value) {
+        Value[] domain = domains[i];
+        if (domain.length > 16) {
+            if (valueIndices == null) {
+                valueIndices = new ArrayList<Map<Value, Integer>>(
+                        Collections.nCopies(vars.length, null));
+            }
+            Map<Value, Integer> indices = valueIndices.get(i);
+            if (indices == null) {
+                indices = new HashMap<Value, Integer>();
+                for (int v = 0; v < domain.length; v++) {
+                    indices.putIfAbsent(domain[v], v);
+                }
+                valueIndices.set(i, indices);
+            }
+            return indices.getOrDefault(value, -1);
+        }
+        for (int v = 0; v < domain.length; v++) {
+            if (domain[v] == value) {
+                return v;
+            }
+        }
+        for (int v = 0; v < domain.length; v++) {
+            if (domain[v].equals(value)) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -25,9 +25,9 @@ package opendial.inference.exact;
 
 import java.util.logging.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -52,12 +52,59 @@ import opendial.inference.Query;
 /**
  * Implementation of the Variable Elimination algorithm.
  *
+ * <p>
+ * The hidden variables are eliminated in an order that is computed once per query,
+ * following one of the heuristics in EliminationOrder. The statistics of the last
+ * query (elimination order and maximum size of the intermediate factors) can be
+ * retrieved via getLastStatistics().
+ *
  * @author Pierre Lison (plison@ifi.uio.no)
  */
 public class VariableElimination implements InferenceAlgorithm {
 
     final static Logger log = Logger.getLogger("OpenDial");
 
+    /**
+     * Heuristics for the elimination order of the hidden variables:
+     * <ul>
+     * <li>TOPOLOGICAL: the order of the nodes in the network (from the leaves)
+     * <li>MIN_DEGREE: the variable with the fewest neighbours in the interaction graph
+     * <li>MIN_FILL: the variable whose elimination adds the fewest edges to the graph
+     * <li>WEIGHTED_MIN_FILL: same as MIN_FILL, but each edge is weighted by the
+     * product of the domain sizes of its two variables
+     * </ul>
+     * Ties are broken by the topological order.
+     */
+    public static enum EliminationOrder {
+        TOPOLOGICAL, MIN_DEGREE, MIN_FILL, WEIGHTED_MIN_FILL
+    }
+
+    // default elimination order
+    public static EliminationOrder DEFAULT_ORDER = EliminationOrder.WEIGHTED_MIN_FILL;
+
+    // elimination order used by the algorithm
+    final EliminationOrder order;
+
+    // statistics for the last query
+    private volatile Statistics lastStatistics;
+
+    /**
+     * Creates a new variable elimination algorithm, with the default elimination
+     * order
+     */
+    public VariableElimination() {
+        this(DEFAULT_ORDER);
+    }
+
+    /**
+     * Creates a new variable elimination algorithm, with the given elimination order
+     *
+     * @param order the elimination order heuristic
+     */
+    public VariableElimination(EliminationOrder order) {
+        this.order = order;
+    }
+
     // ===================================
     // MAIN QUERY METHODS
     // ===================================
@@ -105,26 +152,52 @@ public class VariableElimination implements InferenceAlgorithm {
      * the inference
      */
     private DoubleFactor createQueryFactor(Query query) {
+        return createQueryTensor(query).toDoubleFactor();
+    }
 
-        List<DoubleFactor> factors = new LinkedList<DoubleFactor>();
+    /**
+     * Generates the full (dense) factor associated with the query variables, using
+     * the variable-elimination algorithm.
+     *
+     * @param query the query
+     * @return the full factor containing all query variables
+     */
+    private TensorFactor createQueryTensor(Query query) {
+
+        List<TensorFactor> factors = new LinkedList<TensorFactor>();
         Collection<String> queryVars = query.getQueryVars();
         Assignment evidence = query.getEvidence();
+        List<String> hiddenVars = new ArrayList<String>();
 
         for (BNode n : query.getFilteredSortedNodes()) {
             // create the basic factor for every variable
-            DoubleFactor basicFactor = makeFactor(n, evidence);
+            TensorFactor basicFactor = makeFactor(n, evidence);
             if (!basicFactor.isEmpty()) {
                 factors.add(basicFactor);
-                // if the variable is hidden, we sum it out
-                if (!queryVars.contains(n.getId())) {
-                    factors = sumOut(n.getId(), factors);
+                if (!queryVars.contains(n.getId())
+                        && basicFactor.hasVariable(n.getId())) {
+                    hiddenVars.add(n.getId());
                 }
             }
         }
+
+        // sum out the hidden variables
+        Statistics stats = new Statistics(getEliminationOrder(factors, hiddenVars));
+        for (String hiddenVar : stats.eliminationOrder) {
+            factors = sumOut(hiddenVar, factors, stats);
+        }
+
         // compute the final product, and normalise
-        DoubleFactor finalProduct = pointwiseProduct(factors);
+        TensorFactor finalProduct = pointwiseProduct(factors);
+        stats.update(finalProduct);
+        lastStatistics = stats;
+        log.fine("variable elimination: " + stats);
         finalProduct = addEvidencePairs(finalProduct, query);
-        finalProduct.trim(queryVars);
+        for (String var : new ArrayList<String>(finalProduct.getVariables())) {
+            if (!queryVars.contains(var)) {
+                finalProduct = finalProduct.sumOut(var);
+            }
+        }
         return finalProduct;
     }
 
@@ -134,29 +207,32 @@ public class VariableElimination implements InferenceAlgorithm {
      *
      * @param nodeId  the Bayesian node corresponding to the variable
      * @param factors the factors to sum out
+     * @param stats   the query statistics to update
      * @return the summed out factor
      */
-    private List<DoubleFactor> sumOut(String nodeId, List<DoubleFactor> factors) {
+    private List<TensorFactor> sumOut(String nodeId, List<TensorFactor> factors,
+                                      Statistics stats) {
 
         // we divide the factors into two lists: the factors which are
         // independent of the variable, and those who aren't
-        List<DoubleFactor> dependentFactors = new LinkedList<DoubleFactor>();
-        List<DoubleFactor> remainingFactors = new LinkedList<DoubleFactor>();
+        List<TensorFactor> dependentFactors = new LinkedList<TensorFactor>();
+        List<TensorFactor> remainingFactors = new LinkedList<TensorFactor>();
 
-        for (DoubleFactor f : factors) {
-            if (!f.getVariables().contains(nodeId)) {
+        for (TensorFactor f : factors) {
+            if (!f.hasVariable(nodeId)) {
                 remainingFactors.add(f);
             } else {
                 dependentFactors.add(f);
             }
         }
+        if (dependentFactors.isEmpty()) {
+            return remainingFactors;
+        }
 
-        // we compute the product of the dependent factors
-        DoubleFactor productDependentFactors = pointwiseProduct(dependentFactors);
-
-        // we sum out the dependent factors
-        DoubleFactor sumDependentFactors =
-                sumOutDependent(nodeId, productDependentFactors);
+        // we compute the product of the dependent factors, and sum out the variable
+        TensorFactor productDependentFactors = pointwiseProduct(dependentFactors);
+        stats.update(productDependentFactors);
+        TensorFactor sumDependentFactors = productDependentFactors.sumOut(nodeId);
 
         if (!sumDependentFactors.isEmpty()) {
             remainingFactors.add(sumDependentFactors);
@@ -165,76 +241,21 @@ public class VariableElimination implements InferenceAlgorithm {
         return remainingFactors;
     }
 
-    /**
-     * Sums out the variable from the given factor, and returns the result
-     *
-     * @param node   the Bayesian node corresponding to the variable
-     * @param factor the factor to sum out
-     * @return the summed out factor
-     */
-    private DoubleFactor sumOutDependent(String nodeId, DoubleFactor factor) {
-
-        // create the new factor
-        DoubleFactor sumFactor = new DoubleFactor();
-
-        for (Assignment a : factor.getValues()) {
-            Assignment reducedA = new Assignment(a);
-            reducedA.removePair(nodeId);
-            double[] entry = factor.getEntry(a);
-            double prob = entry[0];
-            double util = entry[1];
-            sumFactor.incrementEntry(reducedA, prob, prob * util);
-        }
-
-        sumFactor.normaliseUtil();
-
-        return sumFactor;
-    }
-
     /**
      * Computes the pointwise matrix product of the list of factors
      *
      * @param factors the factors
      * @return the pointwise product of the factors
      */
-    private DoubleFactor pointwiseProduct(List<DoubleFactor> factors) {
+    private TensorFactor pointwiseProduct(List<TensorFactor> factors) {
 
         if (factors.isEmpty()) {
-            DoubleFactor factor = new DoubleFactor();
-            factor.addEntry(new Assignment(), 1.0, 0.0);
-            return factor;
-        } else if (factors.size() == 1) {
-            return factors.get(0);
+            return TensorFactor.unit();
         }
-        DoubleFactor factor = factors.get(0);
-        factors.remove(0);
-        for (DoubleFactor f : factors) {
-
-            DoubleFactor tempFactor = new DoubleFactor();
-            Set<String> sharedVars = new HashSet<String>(f.getVariables());
-            sharedVars.retainAll(factor.getVariables());
-
-            for (Assignment a : f.getValues()) {
-
-                double[] entry = f.getEntry(a);
-                double prob = entry[0];
-                double util = entry[1];
-
-                for (Assignment b : factor.getValues()) {
-                    if (b.consistentWith(a, sharedVars)) {
-                        double[] entry2 = factor.getEntry(b);
-                        double prob2 = entry2[0];
-                        double util2 = entry2[1];
-                        double product = prob * prob2;
-                        double sum = util + util2;
-
-                        tempFactor.addEntry(new Assignment(a, b), product, sum);
-                    }
-                }
-            }
-            factor = tempFactor;
+        TensorFactor factor = factors.get(0);
+        for (TensorFactor f : factors.subList(1, factors.size())) {
+            factor = factor.product(f);
         }
-
         return factor;
     }
 
@@ -246,29 +267,17 @@ public class VariableElimination implements InferenceAlgorithm {
      * @param evidence the evidence
      * @return the factor for the node
      */
-    private DoubleFactor makeFactor(BNode node, Assignment evidence) {
-
-        DoubleFactor factor = new DoubleFactor();
-
-        // generates all possible assignments for the node content
-        Map<Assignment, Double> flatTable = node.getFactor();
-        for (Assignment a : flatTable.keySet()) {
-
-            // verify that the assignment is consistent with the evidence
-            if (a.consistentWith(evidence)) {
-                // adding a new entry to the factor
-                Assignment a2 = new Assignment(a);
-                a2.removePairs(evidence.getVariables());
-
-                if (node instanceof ChanceNode || node instanceof ActionNode) {
-                    factor.addEntry(a2, flatTable.get(a), 0.0f);
-                } else if (node instanceof UtilityNode) {
-                    factor.addEntry(a2, 1.0f, flatTable.get(a));
-                }
-            }
+    private TensorFactor makeFactor(BNode node, Assignment evidence) {
+
+        // enumerates the possible assignments consistent with the evidence
+        if (node instanceof ChanceNode || node instanceof ActionNode) {
+            return TensorFactor.fromRows(rows -> node.getFactor(evidence, rows), false,
+                    evidence);
+        } else if (node instanceof UtilityNode) {
+            return TensorFactor.fromRows(rows -> node.getFactor(evidence, rows), true,
+                    evidence);
         }
-
-        return factor;
+        return TensorFactor.fromTable(Collections.emptyMap(), false);
     }
 
     /**
@@ -276,24 +285,227 @@ public class VariableElimination implements InferenceAlgorithm {
      * when a variable specified in the evidence also appears in the query), extends
      * the distribution to add the evidence assignment pairs.
      *
-     * @param query        the query
-     * @param distribution the computed distribution
+     * @param query  the query
+     * @param factor the computed factor
      */
-    private DoubleFactor addEvidencePairs(DoubleFactor factor, Query query) {
+    private TensorFactor addEvidencePairs(TensorFactor factor, Query query) {
 
         Set<String> inter = new HashSet<String>(query.getQueryVars());
         inter.retainAll(query.getEvidence().getVariables());
         Assignment evidence = query.getEvidence().getTrimmed(inter);
-        if (!inter.isEmpty()) {
-            DoubleFactor newFactor = new DoubleFactor();
-            for (Assignment a : factor.getAssignments()) {
-                Assignment assign = new Assignment(a, evidence);
-                double[] entry = factor.getEntry(a);
-                newFactor.addEntry(assign, entry[0], entry[1]);
+        for (String var : evidence.getVariables()) {
+            if (!factor.hasVariable(var)) {
+                factor = factor.extend(var, evidence.getValue(var));
             }
-            return newFactor;
-        } else {
-            return factor;
+        }
+        return factor;
+    }
+
+    // ===================================
+    // ELIMINATION ORDER
+    // ===================================
+
+    /**
+     * Returns the order in which to eliminate the hidden variables, according to
+     * the heuristic of the algorithm. The heuristics are greedy: at each step, the
+     * variable with the lowest cost is selected and removed from the interaction
+     * graph, after connecting all its neighbours.
+     *
+     * @param factors    the initial factors
+     * @param hiddenVars the hidden variables, in topological order
+     * @return the elimination order
+     */
+    private List<String> getEliminationOrder(List<TensorFactor> factors,
+                                             List<String> hiddenVars) {
+        if (order == EliminationOrder.TOPOLOGICAL || hiddenVars.size() < 2) {
+            return hiddenVars;
+        }
+        Map<String, Set<String>> graph = new HashMap<String, Set<String>>();
+        Map<String, Integer> sizes = new HashMap<String, Integer>();
+        createInteractionGraph(factors, graph, sizes);
+        return triangulate(graph, sizes, hiddenVars, order, null);
+    }
+
+    /**
+     * Creates the interaction graph of the factors (in which two variables are
+     * connected if they appear in the same factor) and records the domain size of
+     * each variable.
+     *
+     * @param factors the factors
+     * @param graph   the graph to fill, mapping each variable to its neighbours
+     * @param sizes   the domain sizes to fill
+     */
+    static void createInteractionGraph(Collection<TensorFactor> factors,
+                                       Map<String, Set<String>> graph,
+                                       Map<String, Integer> sizes) {
+        for (TensorFactor f : factors) {
+            for (String var : f.getVariables()) {
+                Set<String> neighbours = graph.get(var);
+                if (neighbours == null) {
+                    neighbours = new HashSet<String>();
+                    graph.put(var, neighbours);
+                }
+                neighbours.addAll(f.getVariables());
+                neighbours.remove(var);
+                sizes.put(var, Math.max(sizes.getOrDefault(var, 0),
+                        f.getDomainSize(var)));
+            }
+        }
+    }
+
+    /**
+     * Greedily eliminates the variables from the interaction graph (which is
+     * modified in the process) following the heuristic, and returns the elimination
+     * order. If cliques is not null, the clique formed by each eliminated variable
+     * and its neighbours is added to it.
+     *
+     * @param graph   the interaction graph
+     * @param sizes   the domain size of each variable
+     * @param vars    the variables to eliminate, in topological order
+     * @param order   the heuristic
+     * @param cliques the list of cliques to fill (can be null)
+     * @return the elimination order
+     */
+    static List<String> triangulate(Map<String, Set<String>> graph,
+                                    Map<String, Integer> sizes, List<String> vars,
+                                    EliminationOrder order, List<Set<String>> cliques) {
+
+        List<String> remaining = new ArrayList<String>(vars);
+        List<String> eliminationOrder = new ArrayList<String>(vars.size());
+        while (!remaining.isEmpty()) {
+            String best = remaining.get(0);
+            long bestCost = Long.MAX_VALUE;
+            for (String var : remaining) {
+                if (order == EliminationOrder.TOPOLOGICAL) {
+                    break;
+                }
+                long cost = getCost(var, graph, sizes, order);
+                if (cost < bestCost) {
+                    best = var;
+                    bestCost = cost;
+                }
+            }
+            Set<String> neighbours = graph.remove(best);
+            if (cliques != null) {
+                Set<String> clique = new HashSet<String>(neighbours);
+                clique.add(best);
+                cliques.add(clique);
+            }
+            for (String neighbour : neighbours) {
+                Set<String> others = graph.get(neighbour);
+                others.remove(best);
+                others.addAll(neighbours);
+                others.remove(neighbour);
+            }
+            remaining.remove(best);
+            eliminationOrder.add(best);
+        }
+        return eliminationOrder;
+    }
+
+    /**
+     * Returns the cost of eliminating the variable from the interaction graph.
+     *
+     * @param var   the variable
+     * @param graph the interaction graph
+     * @param sizes the domain size of each variable
+     * @param order the heuristic
+     * @return the elimination cost
+     */
+    private static long getCost(String var, Map<String, Set<String>> graph,
+                                Map<String, Integer> sizes, EliminationOrder order) {
+        Set<String> neighbours = graph.get(var);
+        if (order == EliminationOrder.MIN_DEGREE) {
+            return neighbours.size();
+        }
+        long cost = 0;
+        for (String n1 : neighbours) {
+            Set<String> n1Neighbours = graph.get(n1);
+            for (String n2 : neighbours) {
+                if (n1.compareTo(n2) < 0 && !n1Neighbours.contains(n2)) {
+                    cost += (order == EliminationOrder.WEIGHTED_MIN_FILL)
+                            ? (long) sizes.get(n1) * sizes.get(n2) : 1;
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Returns the statistics for the last query processed by the algorithm (or null
+     * if no query has yet been processed). If the algorithm is used concurrently,
+     * the statistics refer to the last query to complete.
+     *
+     * @return the statistics for the last query
+     */
+    public Statistics getLastStatistics() {
+        return lastStatistics;
+    }
+
+    /**
+     * Statistics on a variable elimination query.
+     */
+    public static final class Statistics {
+
+        // the elimination order
+        final List<String> eliminationOrder;
+
+        // the maximum number of cells in an intermediate factor
+        int maxFactorSize;
+
+        // the number of intermediate factors
+        int nbFactors;
+
+        /**
+         * Creates new statistics for a query
+         *
+         * @param eliminationOrder the elimination order
+         */
+        Statistics(List<String> eliminationOrder) {
+            this.eliminationOrder = eliminationOrder;
+        }
+
+        /**
+         * Updates the statistics with a new intermediate factor
+         *
+         * @param factor the factor
+         */
+        void update(TensorFactor factor) {
+            maxFactorSize = Math.max(maxFactorSize, factor.size());
+            nbFactors++;
+        }
+
+        /**
+         * Returns the elimination order of the hidden variables
+         *
+         * @return the elimination order
+         */
+        public List<String> getEliminationOrder() {
+            return Collections.unmodifiableList(eliminationOrder);
+        }
+
+        /**
+         * Returns the maximum number of cells in an intermediate factor
+         *
+         * @return the maximum factor size
+         */
+        public int getMaxFactorSize() {
+            return maxFactorSize;
+        }
+
+        /**
+         * Returns the number of intermediate factors computed during the query
+         *
+         * @return the number of intermediate factors
+         */
+        public int getNbFactors() {
+            return nbFactors;
+        }
+
+        @Override
+        public String toString() {
+            return "order=" + eliminationOrder + ", max factor size="
+                    + maxFactorSize + ", intermediate factors=" + nbFactors;
         }
     }
 
@@ -317,7 +529,7 @@ public class VariableElimination implements InferenceAlgorithm {
         Collection<String> queryVars = query.getQueryVars();
 
         // create the query factor
-        DoubleFactor queryFactor = createQueryFactor(query);
+        TensorFactor queryFactor = createQueryTensor(query);
         BNetwork reduced = new BNetwork();
 
         List<String> sortedNodesIds = network.getSortedNodesIds();
@@ -353,22 +565,21 @@ public class VariableElimination implements InferenceAlgorithm {
      * @param toEstimate the variable to estimate
      * @return the relevant factor associated with the node could be found
      */
-    private DoubleFactor getRelevantFactor(DoubleFactor fullFactor, String headVar,
+    private DoubleFactor getRelevantFactor(TensorFactor fullFactor, String headVar,
                                            Set<String> inputVars) {
 
         // summing out unrelated variables
-        DoubleFactor factor = fullFactor.copy();
+        TensorFactor factor = fullFactor;
         for (String otherVar : new ArrayList<String>(factor.getVariables())) {
             if (!otherVar.equals(headVar) && !inputVars.contains(otherVar)) {
-                List<DoubleFactor> summedOut =
-                        sumOut(otherVar, Arrays.asList(factor));
+                TensorFactor summedOut = factor.sumOut(otherVar);
                 if (!summedOut.isEmpty()) {
-                    factor = summedOut.get(0);
+                    factor = summedOut;
                 }
             }
         }
 
-        return factor;
+        return factor.toDoubleFactor();
     }
 
     /**
@@ -27,9 +27,6 @@ import java.util.logging.*;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import opendial.DialogueState;
 import opendial.DialogueSystem;
@@ -39,6 +36,7 @@ import opendial.bn.distribs.MultivariateTable;
 import opendial.bn.distribs.UtilityTable;
 import opendial.datastructs.Assignment;
 import opendial.domains.Model;
+import opendial.utils.Deadline;
 
 /**
  * Online forward planner for OpenDial. The planner constructs a lookahead tree (with
@@ -86,10 +84,6 @@ public class ForwardPlanner implements Module {
 
     boolean paused = false;
 
-    // scheduled thread pool to terminate planning once the time limit is
-    // reached
-    static ScheduledExecutorService service = Executors.newScheduledThreadPool(2);
-
     /**
      * Constructs a forward planner for the dialogue system.
      *
@@ -105,9 +99,9 @@ public class ForwardPlanner implements Module {
     @Override
     public void pause(boolean shouldBePaused) {
         paused = shouldBePaused;
-        if (currentProcess != null && !currentProcess.isTerminated) {
+        if (currentProcess != null && !currentProcess.deadline.isExpired()) {
             log.fine("trying to terminate the process?");
-            currentProcess.isTerminated = true;
+            currentProcess.deadline.cancel();
         }
     }
 
@@ -152,12 +146,16 @@ public class ForwardPlanner implements Module {
 
         DialogueState initState;
 
-        boolean isTerminated = false;
+        // deadline for the planning (the queries performed during the lookahead
+        // are created as children of it)
+        Deadline deadline;
 
         /**
          * Creates the planning process. Timeout is set to twice the maximum sampling
          * time. Then, runs the planner until the horizon has been reached, or the
          * planner has run out of time. Adds the best action to the dialogue state.
+         * The inference queries performed during the lookahead are interrupted as
+         * soon as the planning deadline expires (or the planner is paused).
          *
          * @param initState initial dialogue state.
          */
@@ -171,8 +169,7 @@ public class ForwardPlanner implements Module {
             // responses
             timeout = (initState.hasChanceNode(settings.userSpeech)) ? timeout / 5
                     : timeout;
-            service.schedule(() -> isTerminated = true, timeout,
-                    TimeUnit.MILLISECONDS);
+            deadline = new Deadline(timeout);
 
             try {
                 // step 1: extract the Q-values
@@ -193,11 +190,12 @@ public class ForwardPlanner implements Module {
                 // step 4: add the selection action to the dialogue state
                 initState.addToState(bestAction.removePrimes());
                 // log.fine("BEST ACTION: " + bestAction);
-                isTerminated = true;
             } catch (RuntimeException e) {
                 log.warning("could not perform planning, aborting action selection: "
                         + e);
                 e.printStackTrace();
+            } finally {
+                deadline.cancel();
             }
         }
 
@@ -221,27 +219,49 @@ public class ForwardPlanner implements Module {
             }
 
             UtilityTable qValues = new UtilityTable();
-            double discount = system.getSettings().discountFactor;
 
             for (Assignment action : rewards.getRows()) {
                 double reward = rewards.getUtil(action);
                 qValues.setUtil(action, reward);
 
-                if (horizon > 1 && !isTerminated && !paused
+                if (horizon > 1 && !deadline.isExpired() && !paused
                         && hasTransition(action)) {
+                    double expected = getLookahead(state, action, horizon);
+                    qValues.setUtil(action, qValues.getUtil(action) + expected);
+                }
+            }
+            return qValues;
+        }
 
+        /**
+         * Returns the discounted expected value of the dialogue state after
+         * performing the action. The inference queries are run with the planning
+         * deadline as parent. If one of these queries fails because the deadline
+         * has expired, the lookahead is aborted and 0 is returned.
+         *
+         * @param state   the dialogue state
+         * @param action  the action to perform
+         * @param horizon the planning horizon
+         * @return the discounted expected value after the action
+         */
+        private double getLookahead(DialogueState state, Assignment action,
+                int horizon) {
+            double discount = system.getSettings().discountFactor;
+            try {
+                double expected = Deadline.callWith(deadline, () -> {
                     DialogueState copy = state.copy();
                     copy.addToState(action.removePrimes());
                     updateState(copy);
-
-                    if (!action.isDefault()) {
-                        double expected =
-                                discount * getExpectedValue(copy, horizon - 1);
-                        qValues.setUtil(action, qValues.getUtil(action) + expected);
-                    }
+                    return (action.isDefault()) ? 0.0
+                            : discount * getExpectedValue(copy, horizon - 1);
+                });
+                return expected;
+            } catch (RuntimeException e) {
+                if (deadline.isExpired()) {
+                    return 0.0;
                 }
+                throw e;
             }
-            return qValues;
         }
 
         /**
@@ -255,12 +275,11 @@ public class ForwardPlanner implements Module {
             while (!state.getNewVariables().isEmpty()) {
                 Set<String> toProcess = state.getNewVariables();
                 state.reduce();
-                for (Model model : system.getDomain().getModels()) {
-                    if (model.isTriggered(state, toProcess)) {
-                        boolean change = model.trigger(state);
-                        if (change && model.isBlocking()) {
-                            break;
-                        }
+                for (Model model : system.getDomain()
+                        .getTriggeredModels(toProcess)) {
+                    boolean change = model.trigger(state);
+                    if (change && model.isBlocking()) {
+                        break;
                     }
                 }
             }
@@ -274,12 +293,9 @@ public class ForwardPlanner implements Module {
          * @return true if a transition is defined, false otherwise.
          */
         private boolean hasTransition(Assignment action) {
-            for (Model m : system.getDomain().getModels()) {
-                if (m.isTriggered(action.removePrimes().getVariables())) {
-                    return true;
-                }
-            }
-            return false;
+            return !system.getDomain()
+                    .getTriggeredModels(action.removePrimes().getVariables())
+                    .isEmpty();
         }
 
         /**
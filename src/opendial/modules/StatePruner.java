@@ -40,6 +40,7 @@ import opendial.bn.nodes.ChanceNode;
 import opendial.bn.nodes.UtilityNode;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.Variables;
 import opendial.domains.rules.distribs.AnchoredRule;
 import opendial.domains.rules.distribs.EquivalenceDistribution;
 import opendial.inference.SwitchingAlgorithm;
@@ -126,13 +127,13 @@ public class StatePruner {
                 continue;
             }
             // keeping the newest nodes
-            else if (!(state.hasChanceNode(node.getId() + "'"))) {
+            else if (!(state.hasChanceNode(Variables.addPrime(node.getId())))) {
                 nodesToKeep.add(node.getId());
             }
 
             if (state.isIncremental(node.getId())) {
                 node.getDescendantIds().stream().filter(i -> state.hasChanceNode(i))
-                        .filter(i -> !state.hasChanceNode(i + "'"))
+                        .filter(i -> !state.hasChanceNode(Variables.addPrime(i)))
                         .forEach(i -> nodesToKeep.add(i));
             }
 
@@ -235,7 +236,7 @@ public class StatePruner {
                         state.queryProb(node.getId(), false).toDiscrete();
                 for (ChanceNode outputNode : node.getOutputNodes(ChanceNode.class)) {
                     MarginalDistribution newDistrib = new MarginalDistribution(
-                            outputNode.getDistrib(), initDistrib);
+                            outputNode.getMutableDistrib(), initDistrib);
                     outputNode.setDistrib(newDistrib);
                 }
                 newState.removeNode(node.getId());
@@ -252,7 +253,7 @@ public class StatePruner {
     private static void removePrimes(DialogueState reduced) {
 
         for (ChanceNode cn : new HashSet<ChanceNode>(reduced.getChanceNodes())) {
-            if (reduced.hasChanceNode(cn.getId() + "'")) {
+            if (reduced.hasChanceNode(Variables.addPrime(cn.getId()))) {
                 log.warning("Reduction problem: two variables for " + cn.getId());
                 reduced.removeNode(cn.getId());
             }
@@ -260,7 +261,7 @@ public class StatePruner {
 
         for (String nodeId : new HashSet<String>(reduced.getChanceNodeIds())) {
             if (nodeId.contains("'")) {
-                String newId = nodeId.replace("'", "");
+                String newId = Variables.removePrimes(nodeId);
                 if (!reduced.hasChanceNode(newId)) {
                     reduced.getChanceNode(nodeId).setId(newId);
                 } else {
@@ -302,14 +303,13 @@ public class StatePruner {
                 Assignment onlyAssign = new Assignment(node.getId(), node.sample());
                 for (ChanceNode outputNode : node.getOutputNodes(ChanceNode.class)) {
                     if (!(outputNode.getDistrib() instanceof AnchoredRule)) {
-                        ProbDistribution curDistrib = outputNode.getDistrib();
+                        ProbDistribution curDistrib = outputNode.getMutableDistrib();
                         outputNode.removeInputNode(node.getId());
                         if (outputNode.getInputNodeIds().isEmpty()) {
                             outputNode.setDistrib(
                                     curDistrib.getProbDistrib(onlyAssign));
                         } else {
-                            outputNode
-                                    .setDistrib(curDistrib.getPosterior(onlyAssign));
+                            outputNode.setDistrib(curDistrib.restrict(onlyAssign));
                         }
                     }
                 }
@@ -172,12 +172,10 @@ public class Simulator implements Module {
             Set<String> toProcess = simulatorState.getNewVariables();
             simulatorState.reduce();
 
-            for (Model model : domain.getModels()) {
-                if (model.isTriggered(simulatorState, toProcess)) {
-                    boolean change = model.trigger(simulatorState);
-                    if (change && model.isBlocking()) {
-                        break;
-                    }
+            for (Model model : domain.getTriggeredModels(toProcess)) {
+                boolean change = model.trigger(simulatorState);
+                if (change && model.isBlocking()) {
+                    break;
                 }
             }
 
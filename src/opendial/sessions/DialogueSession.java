@@ -0,0 +1,103 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.sessions;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import opendial.DialogueSystem;
+import opendial.Settings;
+import opendial.UpdateExecutor;
+import opendial.domains.Domain;
+
+/**
+ * Lightweight dialogue system hosted by a {@link SessionManager}. A session owns its
+ * own dialogue state, but shares the (read-only) dialogue domain and settings with
+ * all the other sessions of the manager. The session only runs the forward planner
+ * as module (no GUI, recorder or remote connector).
+ *
+ * <p>
+ * The mailbox of the session is drained on the worker pool of the manager: updates
+ * are executed in the order of their submission, one at a time for a given
+ * session, while updates of distinct sessions run in parallel.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class DialogueSession extends DialogueSystem {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    // the session identifier
+    final String id;
+
+    /**
+     * Creates a new dialogue session for the domain, with the given settings. The
+     * updates of the session are performed on the provided worker pool. The session
+     * is not started.
+     *
+     * @param id         the session identifier
+     * @param domain     the (shared) dialogue domain
+     * @param settings   the (shared) system settings
+     * @param workerPool the (shared) worker pool
+     */
+    protected DialogueSession(String id, Domain domain, Settings settings,
+            Executor workerPool) {
+        super(domain, settings);
+        this.id = id;
+        updater = new UpdateExecutor(workerPool, UpdateExecutor.MAILBOX_CAPACITY);
+    }
+
+    /**
+     * Submits an update to the mailbox of the session.
+     *
+     * @param update the update to apply, returning the updated variables
+     * @return the future set of variables updated in the process
+     */
+    CompletableFuture<Set<String>> submit(
+            Function<DialogueSystem, Set<String>> update) {
+        return updater.submit(() -> update.apply(this));
+    }
+
+    /**
+     * Returns the session identifier
+     *
+     * @return the identifier
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns a string representation of the session
+     */
+    @Override
+    public String toString() {
+        return "session " + id + ": " + curState.toString();
+    }
+
+}
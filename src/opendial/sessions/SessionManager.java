@@ -0,0 +1,319 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.sessions;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import opendial.DialogueSystem;
+import opendial.Settings;
+import opendial.UpdateExecutor;
+import opendial.datastructs.Assignment;
+import opendial.domains.Domain;
+import opendial.readers.XMLDomainReader;
+
+/**
+ * Manager for a (possibly large) number of concurrent dialogue sessions running on
+ * the same dialogue domain. The domain is parsed once and shared by all sessions,
+ * each session maintaining its own dialogue state.
+ *
+ * <p>
+ * The updates of the sessions are executed on a fixed pool of worker threads. Each
+ * session has its own mailbox of pending updates (see {@link UpdateExecutor}),
+ * which is drained on the worker pool. The updates of a given session are thus
+ * processed sequentially, in the order of their submission, while the updates of
+ * distinct sessions are processed in parallel.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class SessionManager {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    // the shared dialogue domain
+    final Domain domain;
+
+    // the shared settings
+    final Settings settings;
+
+    // the active sessions, indexed by their identifier
+    final Map<String, DialogueSession> sessions;
+
+    // the pool of worker threads
+    final ExecutorService workers;
+
+    // the number of workers
+    final int nbWorkers;
+
+    // the number of updates processed so far
+    final AtomicLong nbUpdates = new AtomicLong();
+
+    // ===================================
+    // MANAGER CONSTRUCTION
+    // ===================================
+
+    /**
+     * Creates a new session manager for the domain, with one worker thread per
+     * available processor.
+     *
+     * @param domainFile the dialogue domain file
+     */
+    public SessionManager(String domainFile) {
+        this(XMLDomainReader.extractDomain(domainFile));
+    }
+
+    /**
+     * Creates a new session manager for the domain, with one worker thread per
+     * available processor.
+     *
+     * @param domain the dialogue domain
+     */
+    public SessionManager(Domain domain) {
+        this(domain, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new session manager for the domain, with the given number of worker
+     * threads.
+     *
+     * @param domain    the dialogue domain
+     * @param nbWorkers the number of worker threads
+     */
+    public SessionManager(Domain domain, int nbWorkers) {
+        if (nbWorkers < 1) {
+            throw new RuntimeException("number of workers must be >= 1");
+        }
+        this.domain = domain;
+        this.nbWorkers = nbWorkers;
+        settings = new Settings();
+        settings.fillSettings(domain.getSettings().getSpecifiedMapping());
+        settings.showGUI = false;
+        sessions = new ConcurrentHashMap<String, DialogueSession>();
+        workers = Executors.newFixedThreadPool(nbWorkers, r -> {
+            Thread t = new Thread(r, "session-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // ===================================
+    // SESSION MANAGEMENT
+    // ===================================
+
+    /**
+     * Creates and starts a new session with the given identifier. The initial
+     * update of the session is scheduled on the worker pool.
+     *
+     * @param id the session identifier
+     * @return the created session
+     */
+    public DialogueSession createSession(String id) {
+        DialogueSession session =
+                new DialogueSession(id, domain, settings, workers);
+        if (sessions.putIfAbsent(id, session) != null) {
+            throw new RuntimeException("session " + id + " already exists");
+        }
+        submit(id, s -> {
+            s.startSystem();
+            return s.getState().getChanceNodeIds();
+        });
+        return session;
+    }
+
+    /**
+     * Closes the session with the given identifier. Updates that were already
+     * scheduled for the session are still processed.
+     *
+     * @param id the session identifier
+     */
+    public void closeSession(String id) {
+        DialogueSession session = sessions.remove(id);
+        if (session == null) {
+            log.warning("session " + id + " does not exist");
+        }
+    }
+
+    /**
+     * Returns the session with the given identifier, if one exists. Else, returns
+     * null.
+     *
+     * @param id the session identifier
+     * @return the session (or null)
+     */
+    public DialogueSession getSession(String id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * Returns the identifiers of the active sessions
+     *
+     * @return the session identifiers
+     */
+    public Collection<String> getSessionIds() {
+        return Collections.unmodifiableSet(sessions.keySet());
+    }
+
+    /**
+     * Returns the number of active sessions
+     *
+     * @return the number of sessions
+     */
+    public int getNbSessions() {
+        return sessions.size();
+    }
+
+    // ===================================
+    // SESSION UPDATES
+    // ===================================
+
+    /**
+     * Schedules an update of the session with the given identifier. The update
+     * function is applied to the session once all previously scheduled updates of
+     * the session have been processed.
+     *
+     * @param id     the session identifier
+     * @param update the update to apply, returning the updated variables
+     * @return the future set of variables updated in the process
+     */
+    public CompletableFuture<Set<String>> submit(String id,
+            Function<DialogueSystem, Set<String>> update) {
+        DialogueSession session = sessions.get(id);
+        if (session == null) {
+            throw new RuntimeException("session " + id + " does not exist");
+        }
+        return session.submit(s -> {
+            Set<String> updated = update.apply(s);
+            nbUpdates.incrementAndGet();
+            return updated;
+        });
+    }
+
+    /**
+     * Schedules the addition of the user input to the dialogue state of the session
+     * and its subsequent update.
+     *
+     * @param id        the session identifier
+     * @param userInput the user input
+     * @return the future set of variables updated in the process
+     */
+    public CompletableFuture<Set<String>> addUserInput(String id, String userInput) {
+        return submit(id, s -> s.addUserInput(userInput));
+    }
+
+    /**
+     * Schedules the addition of the user input (as a N-best list) to the dialogue
+     * state of the session and its subsequent update.
+     *
+     * @param id        the session identifier
+     * @param userInput the user input as an N-best list
+     * @return the future set of variables updated in the process
+     */
+    public CompletableFuture<Set<String>> addUserInput(String id,
+            Map<String, Double> userInput) {
+        return submit(id, s -> s.addUserInput(userInput));
+    }
+
+    /**
+     * Schedules the addition of the assignment to the dialogue state of the session
+     * and its subsequent update.
+     *
+     * @param id     the session identifier
+     * @param assign the value assignment to add
+     * @return the future set of variables updated in the process
+     */
+    public CompletableFuture<Set<String>> addContent(String id, Assignment assign) {
+        return submit(id, s -> s.addContent(assign));
+    }
+
+    // ===================================
+    // GETTERS
+    // ===================================
+
+    /**
+     * Returns the dialogue domain shared by the sessions
+     *
+     * @return the dialogue domain
+     */
+    public Domain getDomain() {
+        return domain;
+    }
+
+    /**
+     * Returns the settings shared by the sessions
+     *
+     * @return the settings
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns the number of worker threads
+     *
+     * @return the number of workers
+     */
+    public int getNbWorkers() {
+        return nbWorkers;
+    }
+
+    /**
+     * Returns the number of session updates processed so far
+     *
+     * @return the number of processed updates
+     */
+    public long getNbProcessedUpdates() {
+        return nbUpdates.get();
+    }
+
+    /**
+     * Shuts down the worker pool, after waiting (for at most the given number of
+     * milliseconds) for the completion of the scheduled updates.
+     *
+     * @param timeout the maximum waiting time, in milliseconds
+     */
+    public void shutdown(long timeout) {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                log.warning("some session updates were not completed");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+        }
+        sessions.clear();
+    }
+
+}
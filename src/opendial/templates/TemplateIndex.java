@@ -0,0 +1,296 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.templates;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Index of templates (each associated with an object), used to efficiently retrieve
+ * the objects whose template matches a given string. The index relies on:
+ * <ul>
+ * <li>a hash map for the string templates (using their lowercase form, since
+ * string templates are case-insensitive);
+ * <li>a prefix trie on the literal prefix of the regular expression templates, in
+ * order to only try the regular expressions whose prefix is compatible with the
+ * string;
+ * <li>a plain list for the other templates (functional, relational, etc.).
+ * </ul>
+ * The results are memoised for each string, so that repeated lookups of the same
+ * string take constant time. Lookups can be performed concurrently once the index
+ * is constructed.
+ *
+ * @param <T> the type of objects associated with the templates
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class TemplateIndex<T> {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    // maximum number of memoised lookups
+    public static int MAX_MEMO_SIZE = 10000;
+
+    // string templates, indexed by their lowercase form
+    final Map<String, List<Entry<T>>> exact;
+
+    // regular expression templates, indexed by their (lowercase) literal prefix
+    final TrieNode<T> trie;
+
+    // all regular expression templates
+    final List<Entry<T>> regexes;
+
+    // the remaining templates
+    final List<Entry<T>> others;
+
+    // memoised lookups
+    final Map<String, List<T>> memo;
+
+    // number of templates in the index
+    int nbTemplates = 0;
+
+    /**
+     * Creates a new, empty index
+     */
+    public TemplateIndex() {
+        exact = new HashMap<String, List<Entry<T>>>();
+        trie = new TrieNode<T>();
+        regexes = new ArrayList<Entry<T>>();
+        others = new ArrayList<Entry<T>>();
+        memo = new ConcurrentHashMap<String, List<T>>();
+    }
+
+    /**
+     * Adds the template to the index, associated with the given object.
+     *
+     * @param template the template
+     * @param object   the associated object
+     */
+    public void add(Template template, T object) {
+        Entry<T> entry = new Entry<T>(template, object, nbTemplates++);
+        if (template instanceof StringTemplate) {
+            String key = ((StringTemplate) template).string.trim()
+                    .toLowerCase(Locale.ROOT);
+            exact.computeIfAbsent(key, k -> new ArrayList<Entry<T>>()).add(entry);
+        } else if (template instanceof RegexTemplate) {
+            regexes.add(entry);
+            TrieNode<T> node = trie;
+            for (char c : getLiteralPrefix(((RegexTemplate) template).rawString)
+                    .toCharArray()) {
+                node = node.children.computeIfAbsent(c, k -> new TrieNode<T>());
+            }
+            node.entries.add(entry);
+        } else {
+            others.add(entry);
+        }
+        memo.clear();
+    }
+
+    /**
+     * Returns the objects whose template matches the string, in the order of their
+     * insertion in the index (without duplicates).
+     *
+     * @param str the string to match
+     * @return the list of objects whose template matches the string
+     */
+    public List<T> getMatches(String str) {
+        List<T> matches = memo.get(str);
+        if (matches == null) {
+            matches = computeMatches(str);
+            if (memo.size() >= MAX_MEMO_SIZE) {
+                memo.clear();
+            }
+            memo.put(str, matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the number of templates in the index
+     *
+     * @return the number of templates
+     */
+    public int size() {
+        return nbTemplates;
+    }
+
+    /**
+     * Computes the objects whose template matches the string.
+     *
+     * @param str the string to match
+     * @return the matching objects
+     */
+    private List<T> computeMatches(String str) {
+        String input = str.trim();
+        List<Entry<T>> candidates = new ArrayList<Entry<T>>();
+
+        List<Entry<T>> exactMatches = exact.get(input.toLowerCase(Locale.ROOT));
+        if (exactMatches != null) {
+            candidates.addAll(exactMatches);
+        }
+
+        // the trie is restricted to ASCII characters (to avoid the subtleties
+        // of unicode case folding)
+        if (isAscii(input)) {
+            TrieNode<T> node = trie;
+            candidates.addAll(node.entries);
+            for (int i = 0; i < input.length() && node != null; i++) {
+                node = node.children.get(Character.toLowerCase(input.charAt(i)));
+                if (node != null) {
+                    candidates.addAll(node.entries);
+                }
+            }
+        } else {
+            candidates.addAll(regexes);
+        }
+        candidates.addAll(others);
+
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<T> matches = new ArrayList<T>();
+        candidates.stream().filter(e -> e.template.match(str).isMatching())
+                .sorted((e1, e2) -> Integer.compare(e1.order, e2.order))
+                .map(e -> e.object).distinct().forEach(matches::add);
+        return matches;
+    }
+
+    /**
+     * Returns true if the two templates may match a common string. The test is
+     * conservative: it only returns false if the two templates are guaranteed to be
+     * disjoint (distinct strings, or regular expressions with incompatible literal
+     * prefixes).
+     *
+     * @param t1 the first template
+     * @param t2 the second template
+     * @return false if the templates cannot match the same string, else true
+     */
+    public static boolean mayOverlap(Template t1, Template t2) {
+        if (!t1.isUnderspecified() && !t2.isUnderspecified()) {
+            return t1.toString().trim().equalsIgnoreCase(t2.toString().trim());
+        } else if (!t2.isUnderspecified()) {
+            return t1.match(t2.toString()).isMatching();
+        } else if (!t1.isUnderspecified()) {
+            return t2.match(t1.toString()).isMatching();
+        }
+        String prefix1 = (t1 instanceof RegexTemplate)
+                ? getLiteralPrefix(((RegexTemplate) t1).rawString) : "";
+        String prefix2 = (t2 instanceof RegexTemplate)
+                ? getLiteralPrefix(((RegexTemplate) t2).rawString) : "";
+        return prefix1.startsWith(prefix2) || prefix2.startsWith(prefix1);
+    }
+
+    /**
+     * Returns the literal prefix of the raw string for a regular expression
+     * template, i.e. the longest prefix made of ASCII letters, digits and
+     * underscores. The last character of the prefix is dropped if the prefix does
+     * not cover the full string, since it may be affected by the following
+     * character (for instance, a star or question mark). If the string contains an
+     * alternative outside of parentheses, the prefix is empty.
+     *
+     * @param rawString the raw string of the template
+     * @return the literal prefix, in lowercase
+     */
+    static String getLiteralPrefix(String rawString) {
+        int depth = 0;
+        for (int i = 0; i < rawString.length(); i++) {
+            char c = rawString.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth <= 0) {
+                return "";
+            }
+        }
+        int end = 0;
+        while (end < rawString.length() && isLiteral(rawString.charAt(end))) {
+            end++;
+        }
+        if (end < rawString.length()) {
+            end = Math.max(0, end - 1);
+        }
+        return rawString.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns true if the character is an ASCII letter, digit or underscore.
+     *
+     * @param c the character
+     * @return true if the character is a literal, else false
+     */
+    private static boolean isLiteral(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Returns true if the string only contains ASCII characters.
+     *
+     * @param str the string
+     * @return true if all characters are ASCII, else false
+     */
+    private static boolean isAscii(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Template in the index, with its associated object and insertion order
+     */
+    static final class Entry<S> {
+
+        final Template template;
+        final S object;
+        final int order;
+
+        Entry(Template template, S object, int order) {
+            this.template = template;
+            this.object = object;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Node of the prefix trie, with the templates whose literal prefix ends at the
+     * node
+     */
+    static final class TrieNode<S> {
+
+        final Map<Character, TrieNode<S>> children =
+                new HashMap<Character, TrieNode<S>>();
+        final List<Entry<S>> entries = new ArrayList<Entry<S>>();
+    }
+
+}
@@ -0,0 +1,202 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Deadline (or cancellation token) for a time-limited process such as sampling or
+ * planning. The deadline expires once its time limit is reached, or when it is
+ * explicitly cancelled. The processes are expected to regularly check whether their
+ * deadline has expired, and stop if that is the case.
+ *
+ * <p>
+ * The expiry is signalled by a task scheduled on the shared timer wheel, which is
+ * cancelled as soon as the process is finished (by closing the deadline), so that
+ * no stale tasks remain in the timer. Deadlines can also be nested: a child deadline
+ * expires when its own time limit is reached or when its parent expires. Processes
+ * such as the forward planner can declare their deadline as the current deadline of
+ * the thread, in which case the deadlines of the queries they spawn are created as
+ * children of it.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class Deadline implements AutoCloseable {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    // current deadline for each thread (if any)
+    private static final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+    // the parent deadline (if any)
+    private final Deadline parent;
+
+    // expiry time (in nanoseconds)
+    private final long expiryTime;
+
+    // whether the deadline has expired or been cancelled
+    private volatile boolean expired = false;
+
+    // the timeout scheduled on the timer wheel (null if the deadline relies on its
+    // parent, or has already expired)
+    private final TimerWheel.Timeout timeout;
+
+    // ===================================
+    // DEADLINE CONSTRUCTION
+    // ===================================
+
+    /**
+     * Creates a new deadline expiring after the given time limit.
+     *
+     * @param timeLimit the time limit (in milliseconds)
+     */
+    public Deadline(long timeLimit) {
+        this(null, timeLimit);
+    }
+
+    /**
+     * Creates a new deadline expiring after the given time limit or when the
+     * parent deadline expires.
+     *
+     * @param parent    the parent deadline (can be null)
+     * @param timeLimit the time limit (in milliseconds)
+     */
+    private Deadline(Deadline parent, long timeLimit) {
+        this.parent = parent;
+        long now = System.nanoTime();
+        expiryTime = now + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeLimit));
+        if (timeLimit <= 0) {
+            expired = true;
+            timeout = null;
+        } else if (parent != null && parent.expiryTime <= expiryTime) {
+            timeout = null;
+        } else {
+            timeout = TimerWheel.getShared().schedule(() -> expired = true,
+                    timeLimit, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Creates a new deadline for a process with the given time limit. If a deadline
+     * is declared for the current thread, the new deadline is created as its child.
+     *
+     * @param timeLimit the time limit (in milliseconds)
+     * @return the new deadline
+     */
+    public static Deadline create(long timeLimit) {
+        Deadline parent = current.get();
+        return (parent != null) ? parent.createChild(timeLimit)
+                : new Deadline(timeLimit);
+    }
+
+    /**
+     * Creates a child deadline, which expires after the given time limit or when
+     * the current deadline expires (whichever comes first).
+     *
+     * @param timeLimit the time limit for the child (in milliseconds)
+     * @return the child deadline
+     */
+    public Deadline createChild(long timeLimit) {
+        return new Deadline(this, timeLimit);
+    }
+
+    // ===================================
+    // PUBLIC METHODS
+    // ===================================
+
+    /**
+     * Returns true if the deadline (or one of its ancestors) has expired or has
+     * been cancelled.
+     *
+     * @return true if the deadline has expired, false otherwise
+     */
+    public boolean isExpired() {
+        return expired || (parent != null && parent.isExpired());
+    }
+
+    /**
+     * Returns the remaining time before the deadline expires (0 if already
+     * expired).
+     *
+     * @return the remaining time (in milliseconds)
+     */
+    public long getRemainingTime() {
+        if (isExpired()) {
+            return 0;
+        }
+        long remaining = expiryTime - System.nanoTime();
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(remaining));
+    }
+
+    /**
+     * Cancels the deadline, which is then considered as expired (as well as all its
+     * children).
+     */
+    public void cancel() {
+        expired = true;
+        close();
+    }
+
+    /**
+     * Releases the timer task associated with the deadline. The method should be
+     * called once the process is finished.
+     */
+    @Override
+    public void close() {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Runs the task with the given deadline declared as the current deadline of the
+     * thread, and restores the previous deadline afterwards.
+     *
+     * @param deadline the deadline to declare
+     * @param task     the task to run
+     * @param <T>      the type of the task result
+     * @return the result of the task
+     */
+    public static <T> T callWith(Deadline deadline, Supplier<T> task) {
+        Deadline previous = current.get();
+        current.set(deadline);
+        try {
+            return task.get();
+        } finally {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Returns a string representation of the deadline
+     */
+    @Override
+    public String toString() {
+        return (isExpired()) ? "expired deadline"
+                : "deadline in " + getRemainingTime() + " ms";
+    }
+}
@@ -0,0 +1,152 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.utils;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Utilities for the generation of random numbers. Each thread draws its random
+ * numbers from its own generator, which is split from a common root generator. This
+ * avoids the contention on a single shared generator when samples are drawn in
+ * parallel. The generator of the current thread can also be replaced, for instance
+ * by the sampling workers of the likelihood weighting algorithm.
+ *
+ * <p>
+ * All random choices made during inference (sampling of distributions, random
+ * groundings, tie-breaking) rely on these generators. Sampling results can
+ * therefore be reproduced by seeding the generator of the thread that performs the
+ * inference, since the generators of the parallel workers are split from it in a
+ * deterministic manner. A dialogue system does so for each update when a seed is
+ * specified in its settings.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class RandomUtils {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    // root generator, from which the thread generators are split
+    private static SplittableRandom root = new SplittableRandom();
+
+    // generator for each thread
+    private static final ThreadLocal<SplittableRandom> generators =
+            ThreadLocal.withInitial(() -> split());
+
+    /**
+     * Returns the random generator associated with the current thread.
+     *
+     * @return the random generator for the thread
+     */
+    public static SplittableRandom getRandom() {
+        return generators.get();
+    }
+
+    /**
+     * Replaces the random generator associated with the current thread.
+     *
+     * @param random the new random generator for the thread
+     */
+    public static void setRandom(SplittableRandom random) {
+        generators.set(random);
+    }
+
+    /**
+     * Returns a new random generator split from the root generator. The new
+     * generator is statistically independent from the generators of the other
+     * threads.
+     *
+     * @return the new random generator
+     */
+    public static synchronized SplittableRandom split() {
+        return root.split();
+    }
+
+    /**
+     * Reseeds the root generator with the given seed, and replaces the generator
+     * of the current thread by a generator split from it. The generators of the
+     * other threads are left unchanged.
+     *
+     * @param seed the seed
+     */
+    public static synchronized void setSeed(long seed) {
+        root = new SplittableRandom(seed);
+        generators.set(root.split());
+    }
+
+    /**
+     * Runs the task with the given random generator associated with the current
+     * thread, and restores the previous generator afterwards.
+     *
+     * @param random the random generator to use for the task
+     * @param task   the task to run
+     * @param <T>    the type of the task result
+     * @return the result of the task
+     */
+    public static <T> T callWith(SplittableRandom random, Supplier<T> task) {
+        SplittableRandom previous = generators.get();
+        generators.set(random);
+        try {
+            return task.get();
+        } finally {
+            generators.set(previous);
+        }
+    }
+
+    /**
+     * Returns a normally distributed number (with mean 0 and standard deviation 1)
+     * drawn with the generator of the current thread, using the polar method.
+     *
+     * @return the random number
+     */
+    public static double nextGaussian() {
+        SplittableRandom random = generators.get();
+        double v1, v2, s;
+        do {
+            v1 = 2 * random.nextDouble() - 1;
+            v2 = 2 * random.nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        return v1 * Math.sqrt(-2 * Math.log(s) / s);
+    }
+
+    /**
+     * Shuffles the list with the generator of the current thread (using the
+     * Fisher-Yates algorithm).
+     *
+     * @param list the list to shuffle
+     * @param <T>  the type of the list elements
+     */
+    public static <T> void shuffle(List<T> list) {
+        SplittableRandom random = generators.get();
+        for (int i = list.size() - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            list.set(j, list.set(i, list.get(j)));
+        }
+    }
+
+}
@@ -31,6 +31,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import opendial.datastructs.Variables;
+
 /**
  * Various utilities for manipulating strings
  *
@@ -159,12 +161,10 @@ public class StringUtils {
      * @return the result of the comparison
      */
     public static int compare(String id1, String id2) {
-        if (id1.contains("'") || id2.contains("'")) {
-            int count1 = id1.length() - id1.replace("'", "").length();
-            int count2 = id2.length() - id2.replace("'", "").length();
-            if (count1 != count2) {
-                return count2 - count1;
-            }
+        int count1 = Variables.getNbPrimes(id1);
+        int count2 = Variables.getNbPrimes(id2);
+        if (count1 != count2) {
+            return count2 - count1;
         }
         return (id1.compareTo(id2) < 0) ? +1 : -1;
     }
@@ -0,0 +1,345 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.utils;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timer wheel for the execution of (short) tasks after a delay. The wheel is
+ * divided in a fixed number of buckets, each covering one tick of time. A scheduled
+ * task is placed in the bucket corresponding to its expiry tick, together with the
+ * number of complete rotations of the wheel to wait. A single daemon thread advances
+ * the wheel at each tick and runs the expired tasks of the current bucket. The
+ * thread is parked while no task is scheduled, and resumed by the next scheduled
+ * task.
+ *
+ * <p>
+ * Scheduling and cancelling a task are constant-time operations, and cancelled tasks
+ * are removed from their bucket at the next tick (instead of remaining in a queue
+ * until their expiry). The precision of the timer is limited to the tick duration,
+ * which is sufficient for the time limits of sampling and planning.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class TimerWheel {
+
+    // logger
+    final static Logger log = Logger.getLogger("OpenDial");
+
+    /**
+     * Duration of a tick of the shared timer wheel (in milliseconds)
+     */
+    public static long TICK_DURATION = 5;
+
+    /**
+     * Number of buckets in the shared timer wheel
+     */
+    public static int WHEEL_SIZE = 512;
+
+    // the shared timer wheel
+    private static TimerWheel shared;
+
+    // duration of a tick (in nanoseconds)
+    private final long tickDuration;
+
+    // the buckets of the wheel (only accessed by the worker thread)
+    private final Set<Timeout>[] buckets;
+
+    // newly scheduled and cancelled timeouts, to process at the next tick
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final Queue<Timeout> cancelledTimeouts =
+            new ConcurrentLinkedQueue<Timeout>();
+
+    // number of scheduled timeouts that have neither expired nor been cancelled
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    // start time of the wheel (in nanoseconds)
+    private long startTime;
+
+    // the worker thread (started at the first scheduled timeout)
+    private Thread worker;
+
+    // ===================================
+    // WHEEL CONSTRUCTION
+    // ===================================
+
+    /**
+     * Creates a new timer wheel with the given tick duration and number of buckets.
+     *
+     * @param tickDuration the tick duration (in milliseconds)
+     * @param wheelSize    the number of buckets
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickDuration, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0) {
+            throw new RuntimeException("invalid timer wheel: " + tickDuration
+                    + " ms, " + wheelSize + " buckets");
+        }
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        buckets = new Set[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new HashSet<Timeout>();
+        }
+    }
+
+    /**
+     * Returns the timer wheel shared by the sampling and planning processes.
+     *
+     * @return the shared timer wheel
+     */
+    public static synchronized TimerWheel getShared() {
+        if (shared == null) {
+            shared = new TimerWheel(TICK_DURATION, WHEEL_SIZE);
+        }
+        return shared;
+    }
+
+    // ===================================
+    // PUBLIC METHODS
+    // ===================================
+
+    /**
+     * Schedules the task to run once the delay has elapsed. The task is run by the
+     * worker thread of the wheel, and should therefore be short.
+     *
+     * @param task  the task to run
+     * @param delay the delay
+     * @param unit  the time unit for the delay
+     * @return the timeout for the task, which can be cancelled
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        start();
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        queueDepth.incrementAndGet();
+        newTimeouts.add(timeout);
+        LockSupport.unpark(worker);
+        return timeout;
+    }
+
+    /**
+     * Returns the number of scheduled tasks that have neither expired nor been
+     * cancelled.
+     *
+     * @return the depth of the timer queue
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Returns the number of tasks in the shared timer wheel (deadlines of the
+     * sampling and planning processes) that have neither expired nor been
+     * cancelled. The metric is global to the JVM.
+     *
+     * @return the depth of the shared timer queue
+     */
+    public static int getSharedQueueDepth() {
+        TimerWheel wheel;
+        synchronized (TimerWheel.class) {
+            wheel = shared;
+        }
+        return (wheel != null) ? wheel.getQueueDepth() : 0;
+    }
+
+    // ===================================
+    // PRIVATE METHODS
+    // ===================================
+
+    /**
+     * Starts the worker thread of the wheel, if not already started.
+     */
+    private synchronized void start() {
+        if (worker == null) {
+            startTime = System.nanoTime();
+            worker = new Thread(() -> run(), "timer-wheel");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Advances the wheel at each tick, and runs the expired tasks. The thread is
+     * parked when no task is pending.
+     */
+    private void run() {
+        long tick = 0;
+        while (true) {
+            if (queueDepth.get() == 0 && newTimeouts.isEmpty()) {
+                removeCancelledTimeouts();
+                LockSupport.park(this);
+                // the buckets are empty, so the idle ticks can be skipped
+                tick = Math.max(tick, (System.nanoTime() - startTime) / tickDuration);
+                continue;
+            }
+            long sleepTime = startTime + (tick + 1) * tickDuration - System.nanoTime();
+            if (sleepTime > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepTime);
+                } catch (InterruptedException e) {
+                    log.warning("timer wheel interrupted: " + e);
+                }
+                continue;
+            }
+            removeCancelledTimeouts();
+            transferNewTimeouts(tick);
+            expireTimeouts(buckets[(int) (tick % buckets.length)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Removes the cancelled timeouts from their bucket.
+     */
+    private void removeCancelledTimeouts() {
+        for (Timeout timeout = cancelledTimeouts.poll(); timeout != null; timeout =
+                cancelledTimeouts.poll()) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * Places the newly scheduled timeouts in their bucket.
+     *
+     * @param tick the current tick
+     */
+    private void transferNewTimeouts(long tick) {
+        for (Timeout timeout = newTimeouts.poll(); timeout != null; timeout =
+                newTimeouts.poll()) {
+            if (timeout.state.get() != Timeout.PENDING) {
+                continue;
+            }
+            long expiryTick = (timeout.expiryTime - startTime) / tickDuration;
+            timeout.rounds = (expiryTick - tick) / buckets.length;
+            long bucketTick = Math.max(expiryTick, tick);
+            timeout.bucket = buckets[(int) (bucketTick % buckets.length)];
+            timeout.bucket.add(timeout);
+        }
+    }
+
+    /**
+     * Runs the tasks of the bucket that are due in the current rotation.
+     *
+     * @param bucket the bucket for the current tick
+     */
+    private void expireTimeouts(Set<Timeout> bucket) {
+        Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout timeout = it.next();
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                continue;
+            }
+            it.remove();
+            timeout.bucket = null;
+            if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+                queueDepth.decrementAndGet();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    log.warning("exception in timer task: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle for a task scheduled on the timer wheel.
+     */
+    public final class Timeout {
+
+        // states of the timeout
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        // the task to run
+        final Runnable task;
+
+        // the expiry time (in nanoseconds)
+        final long expiryTime;
+
+        // the current state
+        final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // remaining rotations and bucket (only accessed by the worker thread)
+        long rounds;
+        Set<Timeout> bucket;
+
+        /**
+         * Creates a new timeout for the task.
+         *
+         * @param task       the task to run
+         * @param expiryTime the expiry time (in nanoseconds)
+         */
+        Timeout(Runnable task, long expiryTime) {
+            this.task = task;
+            this.expiryTime = expiryTime;
+        }
+
+        /**
+         * Cancels the timeout. The task will not be run, and the timeout is removed
+         * from the wheel at the next tick.
+         *
+         * @return true if the timeout was cancelled, false if it had already expired
+         *         or been cancelled
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                queueDepth.decrementAndGet();
+                cancelledTimeouts.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Returns true if the task of the timeout has been run.
+         *
+         * @return true if the timeout has expired, false otherwise
+         */
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        /**
+         * Returns true if the timeout has been cancelled.
+         *
+         * @return true if the timeout has been cancelled, false otherwise
+         */
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+
+}
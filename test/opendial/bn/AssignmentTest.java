@@ -23,12 +23,22 @@
 
 package opendial.bn;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
+import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.Variables;
 
 import org.junit.Test;
 
@@ -59,4 +69,115 @@ public class AssignmentTest {
         assertFalse(a1bis.equals(a2));
         assertFalse(a1bis.hashCode() == a2.hashCode());
     }
+
+    @Test
+    public void testVariables() {
+        String canonical = Variables.intern("a_u");
+        assertTrue(Variables.intern(new String("a_u")) == canonical);
+        assertEquals("a_u'", Variables.addPrime("a_u"));
+        assertTrue(Variables.addPrime("a_u") == Variables.addPrime("a_u"));
+        assertEquals("a_u'", Variables.removePrime("a_u''"));
+        assertEquals("a_u", Variables.removePrime("a_u"));
+        assertEquals("a_u", Variables.removePrimes("a_u''"));
+        assertEquals("a_u^p", Variables.getPrediction("a_u"));
+        assertEquals(2, Variables.getNbPrimes("a_u''"));
+        assertEquals(1, Variables.getNbPrimes("unregistered'"));
+
+        int oldMax = Variables.MAX_SIZE;
+        Variables.MAX_SIZE = 100;
+        try {
+            for (int i = 0; i < 500; i++) {
+                Variables.addPrime("var" + i);
+            }
+            assertTrue(Variables.size() <= 100);
+            assertEquals("var499'", Variables.addPrime("var499"));
+        } finally {
+            Variables.MAX_SIZE = oldMax;
+        }
+
+        Assignment a = new Assignment(new Assignment("a_u'", "bla"), "a_m", "blo");
+        assertEquals(new Assignment(new Assignment("a_u", "bla"), "a_m", "blo"),
+                a.removePrimes());
+        assertEquals(new Assignment(new Assignment("a_u''", "bla"), "a_m'", "blo"),
+                a.addPrimes());
+    }
+
+    @Test
+    public void testCompactEncoding() {
+        Assignment a = new Assignment();
+        Map<String, Value> reference = new HashMap<String, Value>();
+        for (int i = 0; i < 12; i++) {
+            a.addPair("var" + i, "val" + i);
+            reference.put("var" + i, ValueFactory.create("val" + i));
+            assertEquals(reference.size(), a.size());
+            assertEquals(reference.hashCode(), a.hashCode());
+            assertEquals(reference.keySet(), a.getVariables());
+            assertEquals(ValueFactory.create("val" + i), a.getValue("var" + i));
+        }
+        Assignment small = a.getTrimmed(Arrays.asList("var2", "var11", "var20"));
+        assertEquals(2, small.size());
+        assertEquals(new Assignment(new Assignment("var11", "val11"), "var2",
+                "val2"), small);
+        a.removePairs(reference.keySet().stream().filter(v -> !v.equals("var2")
+                && !v.equals("var11")).collect(Collectors.toSet()));
+        assertEquals(small, a);
+        assertEquals(small.hashCode(), a.hashCode());
+        small.addPair("var2", "other");
+        assertEquals(2, small.size());
+        assertFalse(small.equals(a));
+        small.removePair("var2");
+        assertTrue(a.contains(small));
+        assertFalse(small.contains(a));
+    }
+
+    @Test
+    public void testAllocationBenchmark() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        boolean measured = (bean instanceof com.sun.management.ThreadMXBean);
+        int nbRuns = 20000;
+        for (int size = 1; size <= 8; size++) {
+            String[] vars = new String[size];
+            Value[] vals = new Value[size];
+            for (int i = 0; i < size; i++) {
+                vars[i] = "bench" + i;
+                vals[i] = ValueFactory.create("v" + i);
+            }
+            long[] results = new long[4];
+            for (int k = 0; k < 2; k++) {
+                long mem1 = allocatedBytes(bean, measured);
+                long time1 = System.nanoTime();
+                int hash = 0;
+                for (int r = 0; r < nbRuns; r++) {
+                    if (k == 0) {
+                        Assignment a = new Assignment();
+                        for (int i = 0; i < size; i++) {
+                            a.addPair(vars[i], vals[i]);
+                        }
+                        hash += a.hashCode();
+                    }
+                    else {
+                        Map<String, Value> m = new HashMap<String, Value>();
+                        for (int i = 0; i < size; i++) {
+                            m.put(vars[i], vals[i]);
+                        }
+                        hash += m.hashCode();
+                    }
+                }
+                results[2 * k] = (allocatedBytes(bean, measured) - mem1) / nbRuns;
+                results[2 * k + 1] = (System.nanoTime() - time1) / nbRuns;
+                assertTrue(hash != 1);
+            }
+            log.info("assignment of " + size + " pairs: " + results[0]
+                    + " bytes, " + results[1] + " ns (hashmap: " + results[2]
+                    + " bytes, " + results[3] + " ns)");
+        }
+    }
+
+    private static long allocatedBytes(ThreadMXBean bean, boolean measured) {
+        if (!measured) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
 }
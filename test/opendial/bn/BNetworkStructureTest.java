@@ -27,9 +27,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.logging.Logger;
 
+import opendial.DialogueState;
 import opendial.bn.distribs.CategoricalTable;
 import opendial.bn.nodes.ActionNode;
 import opendial.bn.nodes.BNode;
@@ -209,6 +214,105 @@ public class BNetworkStructureTest {
         assertTrue(bn2.getNode("MaryCalls").getInputNodeIds().contains("Alarm"));
     }
 
+    @Test
+    public void testSharedCopy() {
+        BNetwork bn = NetworkExamples.constructBasicNetwork();
+        BNetwork bn2 = bn.sharedCopy();
+        assertEquals(bn.getNodeIds(), bn2.getNodeIds());
+        assertTrue(bn.getChanceNode("Alarm").getDistrib() == bn2
+                .getChanceNode("Alarm").getDistrib());
+        assertEquals(2, bn2.getNode("Alarm").getInputNodes().size());
+        assertEquals(3, bn2.getNode("Burglary").getOutputNodes().size());
+        assertTrue(bn2.getNode("Burglary").getOutputNodes()
+                .contains(bn2.getNode("Alarm")));
+
+        UtilityNode value = bn.getUtilityNode("Util1");
+        value.addUtility(new Assignment(new Assignment("Burglary", true), "Action",
+                ValueFactory.create("DoNothing")), -20.0f);
+        assertEquals(0f,
+                bn2.getUtilityNode("Util1")
+                        .getUtility(new Assignment(new Assignment("Burglary", true),
+                                "Action", ValueFactory.create("DoNothing"))),
+                0.0001f);
+
+        bn2.getNode("Earthquake").setId("Earthquake2");
+        assertTrue(bn.getChanceNode("Alarm").getDistrib() != bn2
+                .getChanceNode("Alarm").getDistrib());
+        assertTrue(bn.getChanceNode("Alarm").getInputNodeIds()
+                .contains("Earthquake"));
+        assertEquals(0.95f,
+                bn.getChanceNode("Alarm").getProb(
+                        new Assignment(Arrays.asList("Burglary", "Earthquake")),
+                        ValueFactory.create(true)),
+                0.0001f);
+        assertEquals(0.95f,
+                bn2.getChanceNode("Alarm").getProb(
+                        new Assignment(Arrays.asList("Burglary", "Earthquake2")),
+                        ValueFactory.create(true)),
+                0.0001f);
+    }
+
+    @Test
+    public void testSortedNodesCache() {
+        BNetwork bn = NetworkExamples.constructBasicNetwork();
+        List<BNode> sorted = bn.getSortedNodes();
+        assertEquals(sorted, bn.getSortedNodes());
+        ChanceNode newNode = new ChanceNode("NewNode", ValueFactory.create(true));
+        bn.addNode(newNode);
+        bn.getNode("MaryCalls").addInputNode(newNode);
+        assertEquals("NewNode", bn.getSortedNodes().get(5).getId());
+        checkTopologicalOrder(bn);
+        newNode.setId("AAA");
+        assertEquals("AAA", bn.getSortedNodes().get(7).getId());
+        checkTopologicalOrder(bn);
+        bn.removeNode("AAA");
+        assertEquals(sorted, bn.getSortedNodes());
+    }
+
+    @Test
+    public void testSortingPerformance() {
+        Random random = new Random(1234);
+        for (int size = 50; size <= 400; size *= 2) {
+            BNetwork bn = new BNetwork();
+            for (int i = 0; i < size; i++) {
+                ChanceNode node = new ChanceNode("node" + i,
+                        ValueFactory.create(random.nextBoolean()));
+                bn.addNode(node);
+                for (int j = 0; j < 2 && i > 0; j++) {
+                    String inputId = "node" + random.nextInt(i);
+                    if (!node.hasInputNode(inputId)) {
+                        node.addInputNode(bn.getNode(inputId));
+                    }
+                }
+            }
+            long time1 = System.nanoTime();
+            List<BNode> nodes = new ArrayList<BNode>(bn.getNodes());
+            Collections.sort(nodes);
+            long time2 = System.nanoTime();
+            bn.getSortedNodes();
+            long time3 = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                bn.getSortedNodes();
+            }
+            long time4 = System.nanoTime();
+            checkTopologicalOrder(bn);
+            log.info("sorting " + size + " nodes: comparisons "
+                    + (time2 - time1) / 1000 + " us, Kahn "
+                    + (time3 - time2) / 1000 + " us, cached "
+                    + (time4 - time3) / 100000 + " us");
+        }
+    }
+
+    private static void checkTopologicalOrder(BNetwork bn) {
+        List<String> sorted = bn.getSortedNodesIds();
+        assertEquals(bn.getNodeIds().size(), sorted.size());
+        for (BNode node : bn.getNodes()) {
+            for (String inputId : node.getInputNodeIds()) {
+                assertTrue(sorted.indexOf(inputId) > sorted.indexOf(node.getId()));
+            }
+        }
+    }
+
     @Test
     public void tableExpansion() {
         BNetwork bn = NetworkExamples.constructBasicNetwork();
@@ -283,6 +387,69 @@ public class BNetworkStructureTest {
         assertEquals("a_m.place'", bn2.getSortedNodes().get(0).getId());
     }
 
+    @Test
+    public void testVersion() {
+        BNetwork bn = NetworkExamples.constructBasicNetwork();
+        long version = bn.getVersion();
+        bn.getSortedNodes();
+        bn.getNode("Alarm").getOutputNodes();
+        assertEquals(version, bn.getVersion());
+
+        CategoricalTable.Builder builder = new CategoricalTable.Builder("Burglary");
+        builder.addRow(ValueFactory.create(true), 0.2);
+        builder.addRow(ValueFactory.create(false), 0.8);
+        bn.getChanceNode("Burglary").setDistrib(builder.build());
+        assertTrue(bn.getVersion() > version);
+        version = bn.getVersion();
+
+        bn.getActionNode("Action").addValue(ValueFactory.create("Wait"));
+        assertTrue(bn.getVersion() > version);
+        version = bn.getVersion();
+
+        bn.getNode("JohnCalls").removeInputNode("Alarm");
+        assertTrue(bn.getVersion() > version);
+        version = bn.getVersion();
+
+        bn.getUtilityNode("Util1").addUtility(new Assignment(new Assignment(
+                "Burglary", true), "Action", ValueFactory.create("Wait")), 2.0);
+        assertTrue(bn.getVersion() > version);
+        version = bn.getVersion();
+
+        BNetwork copy = bn.copy();
+        long copyVersion = copy.getVersion();
+        bn.removeNode("JohnCalls");
+        assertTrue(bn.getVersion() > version);
+        version = bn.getVersion();
+
+        bn.getNode("Earthquake").setId("Earthquake2");
+        assertTrue(bn.getVersion() > version);
+        assertEquals(copyVersion, copy.getVersion());
+
+        // node included in two networks
+        BNetwork other = new BNetwork();
+        other.addNode(bn.getNode("Burglary"));
+        version = bn.getVersion();
+        long otherVersion = other.getVersion();
+        bn.getChanceNode("Burglary").setDistrib(builder.build());
+        assertTrue(bn.getVersion() > version);
+        assertTrue(other.getVersion() > otherVersion);
+        assertTrue(bn.hasSharedNodes());
+        assertFalse(other.hasSharedNodes());
+
+        // copied dialogue states own their nodes
+        BNetwork state = new DialogueState(NetworkExamples.constructBasicNetwork());
+        assertFalse(state.hasSharedNodes());
+        BNetwork stateCopy = state.copy();
+        assertTrue(stateCopy instanceof DialogueState);
+        assertFalse(stateCopy.hasSharedNodes());
+        assertFalse(state.hasSharedNodes());
+        version = stateCopy.getVersion();
+        stateCopy.getChanceNode("Burglary").setDistrib(builder.build());
+        assertTrue(stateCopy.getVersion() > version);
+        state.reset(stateCopy.sharedCopy());
+        assertFalse(state.hasSharedNodes());
+    }
+
     @Test
     public void testCliques() {
         BNetwork bn = NetworkExamples.constructBasicNetwork();
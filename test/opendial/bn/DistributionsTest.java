@@ -26,6 +26,9 @@ package opendial.bn;
 import static org.junit.Assert.*;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import opendial.Settings;
@@ -34,6 +37,7 @@ import opendial.bn.distribs.ConditionalTable;
 import opendial.bn.distribs.ContinuousDistribution;
 import opendial.bn.distribs.IndependentDistribution;
 import opendial.bn.distribs.MultivariateTable;
+import opendial.bn.distribs.ProbDistribution;
 import opendial.bn.distribs.densityfunctions.DirichletDensityFunction;
 import opendial.bn.distribs.densityfunctions.GaussianDensityFunction;
 import opendial.bn.distribs.densityfunctions.KernelDensityFunction;
@@ -45,6 +49,8 @@ import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.common.InferenceChecks;
 import opendial.datastructs.Assignment;
+import opendial.domains.rules.distribs.EquivalenceDistribution;
+import opendial.inference.approximate.Intervals;
 import opendial.inference.approximate.SamplingAlgorithm;
 import opendial.inference.exact.VariableElimination;
 import opendial.utils.MathUtils;
@@ -82,6 +88,111 @@ public class DistributionsTest {
                 0.1, 0.001);
     }
 
+    @Test
+    public void testAliasSampling() {
+        Map<String, Double> table = new LinkedHashMap<String, Double>();
+        table.put("a", 0.5);
+        table.put("b", 0.3);
+        table.put("c", 0.2);
+        table.put("d", 0.0);
+        Intervals<String> intervals = new Intervals<String>(table);
+        int[] indices = new int[100000];
+        intervals.sampleIndices(indices);
+        int[] counts = new int[intervals.size()];
+        for (int index : indices) {
+            counts[index]++;
+        }
+        for (int i = 0; i < intervals.size(); i++) {
+            assertEquals(table.get(intervals.getObject(i)),
+                    counts[i] / (double) indices.length, 0.01);
+        }
+        assertEquals(0, counts[3]);
+
+        CategoricalTable.Builder builder = new CategoricalTable.Builder("var");
+        builder.addRow("x", 0.8);
+        builder.addRow("y", 0.2);
+        IndependentDistribution distrib = builder.build();
+        int nbX = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (distrib.sample().equals(ValueFactory.create("x"))) {
+                nbX++;
+            }
+        }
+        assertEquals(0.8, nbX / 10000.0, 0.02);
+    }
+
+    @Test
+    public void testIndexedSampling() {
+        ConditionalTable.Builder builder = new ConditionalTable.Builder("C");
+        for (String a : Arrays.asList("a1", "a2")) {
+            for (String b : Arrays.asList("b1", "b2", "b3")) {
+                Assignment condition = new Assignment(new Assignment("A", a), "B", b);
+                double prob = (a.equals("a2") && b.equals("b3")) ? 0.9 : 0.3;
+                builder.addRow(condition, "c1", prob);
+                builder.addRow(condition, "c2", 1 - prob);
+            }
+        }
+        ConditionalTable table = builder.build();
+        assertTrue(table.isIndexed());
+
+        int[] valueIndices = new int[2];
+        for (int i = 0; i < 2; i++) {
+            String var = table.getIndexedVariables().get(i);
+            String value = var.equals("A") ? "a2" : "b3";
+            valueIndices[i] = table.getValueIndex(i, ValueFactory.create(value));
+        }
+        int nbC1 = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (table.sample(valueIndices).equals(ValueFactory.create("c1"))) {
+                nbC1++;
+            }
+        }
+        assertEquals(0.9, nbC1 / 10000.0, 0.02);
+
+        valueIndices[0] = table.getValueIndex(0, ValueFactory.create("a3"));
+        assertEquals(-1, valueIndices[0]);
+        assertEquals(ValueFactory.none(), table.sample(valueIndices));
+    }
+
+    @Test
+    public void testRestriction() {
+        ConditionalTable.Builder builder = new ConditionalTable.Builder("C");
+        for (String a : Arrays.asList("a1", "a2")) {
+            for (String b : Arrays.asList("b1", "b2")) {
+                Assignment condition = new Assignment(new Assignment("A", a), "B", b);
+                double prob = (a.equals("a2") && b.equals("b2")) ? 0.9 : 0.3;
+                builder.addRow(condition, "c1", prob);
+                builder.addRow(condition, "c2", 1 - prob);
+            }
+        }
+        ConditionalTable table = builder.build();
+        assertSame(table, table.restrict(new Assignment("D", "d1")));
+
+        ProbDistribution partial =
+                table.restrict(new Assignment(new Assignment("A", "a2"), "D", "d1"));
+        assertEquals(Collections.singleton("B"), partial.getInputVariables());
+        assertEquals(0.9, partial.getProb(new Assignment("B", "b2"),
+                ValueFactory.create("c1")), 0.001);
+        assertEquals(0.3, partial.getProb(new Assignment("B", "b1"),
+                ValueFactory.create("c1")), 0.001);
+
+        ProbDistribution full =
+                table.restrict(new Assignment(new Assignment("A", "a2"), "B", "b2"));
+        assertTrue(full instanceof IndependentDistribution);
+        assertEquals(0.9, ((IndependentDistribution) full).getProb("c1"), 0.001);
+
+        EquivalenceDistribution eq = new EquivalenceDistribution("X");
+        ProbDistribution eqRestricted = eq.restrict(new Assignment("X^p", "None"));
+        assertTrue(eqRestricted instanceof IndependentDistribution);
+        assertEquals(EquivalenceDistribution.NONE_PROB,
+                ((IndependentDistribution) eqRestricted).getProb(true), 0.001);
+        eqRestricted = eq.restrict(new Assignment("X^p", "x1"));
+        assertEquals(1.0, eqRestricted.getProb(new Assignment("X'", "x1"),
+                ValueFactory.create(true)), 0.001);
+        assertEquals(0.0, eqRestricted.getProb(new Assignment("X'", "x2"),
+                ValueFactory.create(true)), 0.001);
+    }
+
     @Test
     public void testMaths() {
         assertEquals(4.0, MathUtils.getVolume(2, 1), 0.001);
@@ -125,4 +125,36 @@ public class ValueTest {
         assertEquals(table.getProb(new double[]{0.5, 0.4}), 0.4, 0.01);
 
     }
+
+    @Test
+    public void testInterning() {
+        assertTrue(ValueFactory.create("interned value") == ValueFactory
+                .create(new String("interned value")));
+        assertTrue(ValueFactory.create("2.5") == ValueFactory.create("2.5"));
+        assertTrue(ValueFactory.create(true) == ValueFactory.create("true"));
+        assertTrue(ValueFactory.create(false) == ValueFactory.create("FALSE"));
+        assertTrue(ValueFactory.create(true).copy() == ValueFactory.create(true));
+        assertEquals(ValueFactory.create("Interned Value"),
+                ValueFactory.create("interned value"));
+        assertEquals("Interned Value",
+                ValueFactory.create("Interned Value").toString());
+        assertFalse(ValueFactory.create("[a,b]") == ValueFactory.create("[a,b]"));
+        assertEquals(ValueFactory.create("[a,b]"), ValueFactory.create("[a,b]"));
+
+        int maxSize = ValueFactory.MAX_CACHE_SIZE;
+        ValueFactory.MAX_CACHE_SIZE = 10;
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ValueFactory.create("val" + i).toString(), "val" + i);
+        }
+        assertTrue(ValueFactory.getCacheSize() < 50);
+        ValueFactory.MAX_CACHE_SIZE = maxSize;
+
+        Value hello = ValueFactory.create("hello");
+        Value world = ValueFactory.create("world");
+        Value helloWorld = ValueFactory.create("hello world");
+        int size = ValueFactory.getCacheSize();
+        assertEquals(helloWorld, ValueFactory.concatenate(hello, world));
+        ValueFactory.concatenate(ValueFactory.concatenate(hello, world), world);
+        assertEquals(size, ValueFactory.getCacheSize());
+    }
 }
@@ -23,11 +23,19 @@
 
 package opendial.domains;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
 import java.util.logging.*;
 
 import opendial.DialogueState;
 import opendial.DialogueSystem;
+import opendial.bn.distribs.IndependentDistribution;
+import opendial.bn.values.ValueFactory;
 import opendial.common.InferenceChecks;
+import opendial.common.NetworkExamples;
+import opendial.datastructs.Assignment;
 import opendial.domains.rules.effects.Effect;
 import opendial.modules.ForwardPlanner;
 import opendial.modules.StatePruner;
@@ -102,4 +110,43 @@ public class DialogueStateTest {
 
     }
 
+    @Test
+    public void testQueryCache() {
+        DialogueState state = new DialogueState(NetworkExamples.constructBasicNetwork());
+        state.addEvidence(new Assignment("JohnCalls", true));
+        IndependentDistribution distrib = state.queryProb("Burglary");
+        assertEquals(0, state.getCacheHits());
+        assertEquals(1, state.getCacheMisses());
+        state.queryProb("Burglary").pruneValues(0.5);
+        assertEquals(distrib.getProb(ValueFactory.create(true)),
+                state.queryProb("Burglary").getProb(ValueFactory.create(true)),
+                0.0001);
+        assertEquals(2, state.getCacheHits());
+        state.queryProb(Arrays.asList("Burglary", "Earthquake"));
+        state.queryProb(Arrays.asList("Earthquake", "Burglary"));
+        assertEquals(3, state.getCacheHits());
+        assertEquals(2, state.getCacheMisses());
+
+        long version = state.getVersion();
+        state.addEvidence(new Assignment("MaryCalls", true));
+        assertTrue(state.getVersion() > version);
+        assertTrue(state.queryProb("Burglary").getProb(ValueFactory.create(true))
+                > distrib.getProb(ValueFactory.create(true)));
+        assertEquals(3, state.getCacheMisses());
+        version = state.getVersion();
+        state.getChanceNode("Alarm").getMutableDistrib().pruneValues(0.5);
+        assertTrue(state.getVersion() > version);
+        state.queryProb("Burglary");
+        assertEquals(4, state.getCacheMisses());
+    }
+
+    @Test
+    public void testQueryIsolation() {
+        DialogueState state = new DialogueState(NetworkExamples.constructBasicNetwork());
+        DialogueState copy = state.copy();
+        IndependentDistribution distrib = state.queryProb("Burglary");
+        distrib.pruneValues(0.01);
+        assertEquals(0.001, state.queryProb("Burglary").getProb(true), 0.0001);
+        assertEquals(0.001, copy.queryProb("Burglary").getProb(true), 0.0001);
+    }
 }
@@ -25,6 +25,7 @@ package opendial.domains;
 
 import java.util.logging.*;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertTrue;
 
 import opendial.DialogueSystem;
@@ -85,4 +86,38 @@ public class LearningTest {
         Settings.nbSamples = Settings.nbSamples / 3;
         Settings.maxSamplingTime = Settings.maxSamplingTime / 10;
     }
+
+    @Test
+    public void testSeededReplay() throws InterruptedException {
+        Domain domain = XMLDomainReader.extractDomain(domainFile);
+        BNetwork params =
+                XMLStateReader.extractBayesianNetwork(parametersFile, "parameters");
+        domain.setParameters(params);
+        double[] firstMean = runSeededDialogue(domain, 1234);
+        double[] secondMean = runSeededDialogue(domain, 1234);
+        assertArrayEquals(firstMean, secondMean, 0.0);
+    }
+
+    private static double[] runSeededDialogue(Domain domain, long seed) {
+        DialogueSystem system = new DialogueSystem(domain);
+        system.getSettings().showGUI = false;
+        system.getSettings().seed = seed;
+        system.detachModule(ForwardPlanner.class);
+
+        // the sampling must not be interrupted by the time limit
+        long initTimeout = Settings.maxSamplingTime;
+        Settings.maxSamplingTime = 100000;
+        try {
+            system.startSystem();
+            CategoricalTable.Builder builder = new CategoricalTable.Builder("a_u");
+            builder.addRow("Move(Left)", 0.7);
+            builder.addRow("Move(Right)", 0.2);
+            builder.addRow("None", 0.1);
+            system.addContent(builder.build());
+            return system.getContent("theta_1").toContinuous().getFunction()
+                    .getMean();
+        } finally {
+            Settings.maxSamplingTime = initTimeout;
+        }
+    }
 }
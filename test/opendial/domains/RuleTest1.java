@@ -23,11 +23,19 @@
 
 package opendial.domains;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.util.logging.*;
 
 import opendial.DialogueSystem;
 import opendial.bn.distribs.CategoricalTable;
+import opendial.bn.distribs.IndependentDistribution;
+import opendial.bn.nodes.ChanceNode;
+import opendial.bn.values.ValueFactory;
 import opendial.common.InferenceChecks;
+import opendial.datastructs.Assignment;
+import opendial.domains.rules.distribs.OutputDistribution;
 import opendial.modules.ForwardPlanner;
 import opendial.modules.StatePruner;
 import opendial.readers.XMLDomainReader;
@@ -176,4 +184,37 @@ public class RuleTest1 {
         StatePruner.ENABLE_REDUCTION = true;
     }
 
+    @Test
+    public void testOutputCache() throws InterruptedException {
+
+        DialogueSystem system = new DialogueSystem(domain);
+        system.detachModule(ForwardPlanner.class);
+        StatePruner.ENABLE_REDUCTION = false;
+        system.getSettings().showGUI = false;
+        system.startSystem();
+        ChanceNode node = system.getState().getChanceNode("a_u");
+        assertTrue(node.getDistrib() instanceof OutputDistribution);
+        OutputDistribution distrib = (OutputDistribution) node.getDistrib();
+        Assignment condition = node.getPossibleConditions().iterator().next();
+
+        double prob = distrib.getProb(condition, ValueFactory.create("Greeting"));
+        long nbHits = OutputDistribution.getCacheHits();
+        long nbMisses = OutputDistribution.getCacheMisses();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(prob,
+                    distrib.getProb(condition, ValueFactory.create("Greeting")),
+                    0.0001);
+        }
+        assertEquals(nbHits + 10, OutputDistribution.getCacheHits());
+        assertEquals(nbMisses, OutputDistribution.getCacheMisses());
+        assertTrue(OutputDistribution.getCacheHitRate() > 0.0);
+
+        // the returned distributions can be modified without affecting the cache
+        IndependentDistribution copy = distrib.getProbDistrib(condition);
+        copy.modifyVariableId("a_u", "a_u3");
+        assertEquals("a_u", distrib.getProbDistrib(condition).getVariable());
+
+        StatePruner.ENABLE_REDUCTION = true;
+    }
+
 }
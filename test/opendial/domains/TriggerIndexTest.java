@@ -0,0 +1,191 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.domains;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import opendial.DialogueState;
+import opendial.DialogueSystem;
+import opendial.modules.ForwardPlanner;
+import opendial.readers.XMLDomainReader;
+import opendial.templates.Template;
+import opendial.templates.TemplateIndex;
+
+import org.junit.Test;
+
+public class TriggerIndexTest {
+
+    // logger
+    public final static Logger log = Logger.getLogger("OpenDial");
+
+    static final List<String> domainFiles = Arrays.asList(
+            "test/domains/domain-demo.xml", "test/domains/example-flightbooking.xml",
+            "test/domains/refres.xml", "test/domains/incremental-domain.xml");
+
+    static final List<String> variables = Arrays.asList("a_m", "a_u", "A_U",
+            " u_u ", "u_u2", "i_u", "ref_main", "ref_", "ref", "properties(ref_1)",
+            "matches(ref_main)", "shape(cube)", "pred(foo)", "floor", "carried",
+            "a_u^t", "a_u2^p", "current_step", "parse(u_u)", "unknown", "");
+
+    @Test
+    public void testTemplateIndex() {
+        TemplateIndex<String> index = new TemplateIndex<String>();
+        List<String> templates = Arrays.asList("a_u", "A_m", "ref_*", "u_{x}",
+                "(a|b)_u", "a|b", "shape(*)", "the (big)? box", "pred({Y})",
+                "gr[a]b", "a_u^t", "x+y");
+        for (String t : templates) {
+            index.add(Template.create(t), t);
+        }
+        List<String> strings = Arrays.asList("a_u", "A_U", "a_m", "ref_main",
+                "u_u", "b_u", "b", "shape(cube)", "the box", "the big box",
+                "pred(foo)", "gr[a]b", "a_u^t", "ref", "x+y", "über", "");
+        for (String str : strings) {
+            List<String> expected = templates.stream()
+                    .filter(t -> Template.create(t).match(str).isMatching())
+                    .collect(Collectors.toList());
+            assertEquals(str, expected, index.getMatches(str));
+            assertEquals(str, expected, index.getMatches(str));
+        }
+        assertEquals(templates.size(), index.size());
+    }
+
+    @Test
+    public void testTemplateIndexLocale() {
+        Locale initLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            TemplateIndex<String> index = new TemplateIndex<String>();
+            List<String> templates = Arrays.asList("HI", "IT_*", "hi there");
+            for (String t : templates) {
+                index.add(Template.create(t), t);
+            }
+            assertEquals(Arrays.asList("HI"), index.getMatches("hi"));
+            assertEquals(Arrays.asList("HI"), index.getMatches("HI"));
+            assertEquals(Arrays.asList("IT_*"), index.getMatches("it_works"));
+            assertEquals(Arrays.asList("hi there"), index.getMatches("HI THERE"));
+        } finally {
+            Locale.setDefault(initLocale);
+        }
+    }
+
+    @Test
+    public void testDomains() {
+        for (String domainFile : domainFiles) {
+            Domain domain = XMLDomainReader.extractDomain(domainFile);
+            for (String var : variables) {
+                checkTriggers(domain, Arrays.asList(var));
+            }
+            checkTriggers(domain, variables);
+        }
+    }
+
+    @Test
+    public void testModifications() {
+        Domain domain =
+                XMLDomainReader.extractDomain("test/domains/example-flightbooking.xml");
+        List<Model> triggered = domain.getTriggeredModels(Arrays.asList("a_m"));
+        assertTrue(!triggered.isEmpty());
+        domain.getModels().remove(triggered.get(0));
+        checkTriggers(domain, Arrays.asList("a_m"));
+        assertEquals(triggered.size() - 1,
+                domain.getTriggeredModels(Arrays.asList("a_m")).size());
+
+        // new trigger on a registered model
+        Model model = triggered.get(0);
+        domain.getModels().set(0, model);
+        checkTriggers(domain, Arrays.asList("a_m"));
+        domain.getModels().get(1).addTrigger("new_var");
+        checkTriggers(domain, Arrays.asList("new_var"));
+        assertEquals(Arrays.asList(domain.getModels().get(1)),
+                domain.getTriggeredModels(Arrays.asList("new_var")));
+    }
+
+    @Test
+    public void testOverlap() {
+        assertTrue(TemplateIndex.mayOverlap(Template.create("a_u"),
+                Template.create("A_U")));
+        assertFalse(TemplateIndex.mayOverlap(Template.create("a_u"),
+                Template.create("a_m")));
+        assertTrue(TemplateIndex.mayOverlap(Template.create("a_{x}"),
+                Template.create("a_m")));
+        assertFalse(TemplateIndex.mayOverlap(Template.create("ref_{x}"),
+                Template.create("a_m")));
+        assertTrue(TemplateIndex.mayOverlap(Template.create("ref_{x}"),
+                Template.create("r*")));
+        assertFalse(TemplateIndex.mayOverlap(Template.create("ref_{x}"),
+                Template.create("shape({y})")));
+    }
+
+    @Test
+    public void testParallelModels() {
+        List<String> inputs = Arrays.asList("move left", "what do you see",
+                "I want to go to Oslo", "now pick up the object", "yes");
+        for (String domainFile : domainFiles) {
+            Domain domain = XMLDomainReader.extractDomain(domainFile);
+            DialogueState parallel = runDialogue(domain, inputs, true);
+            DialogueState sequential = runDialogue(domain, inputs, false);
+            assertEquals(domainFile, sequential.getNodeIds(),
+                    parallel.getNodeIds());
+            assertEquals(domainFile, sequential.getEvidence(),
+                    parallel.getEvidence());
+        }
+    }
+
+    private static DialogueState runDialogue(Domain domain, List<String> inputs,
+            boolean parallel) {
+        boolean old = Domain.PARALLEL_MODELS;
+        Domain.PARALLEL_MODELS = parallel;
+        try {
+            DialogueSystem system = new DialogueSystem(domain);
+            system.getSettings().showGUI = false;
+            system.detachModule(ForwardPlanner.class);
+            system.startSystem();
+            for (String input : inputs) {
+                system.addUserInput(input);
+            }
+            return system.getState();
+        } finally {
+            Domain.PARALLEL_MODELS = old;
+        }
+    }
+
+    private static void checkTriggers(Domain domain, List<String> vars) {
+        List<Model> expected = new ArrayList<Model>();
+        for (Model model : domain.getModels()) {
+            if (model.isTriggered(vars)) {
+                expected.add(model);
+            }
+        }
+        assertEquals(vars.toString(), expected, domain.getTriggeredModels(vars));
+    }
+}
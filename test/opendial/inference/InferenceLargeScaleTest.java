@@ -25,7 +25,10 @@ package opendial.inference;
 
 import java.util.logging.*;
 
+import static org.junit.Assert.assertTrue;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -39,6 +42,7 @@ import opendial.bn.values.Value;
 import opendial.common.InferenceChecks;
 import opendial.common.NetworkExamples;
 import opendial.datastructs.Assignment;
+import opendial.inference.approximate.LikelihoodWeighting;
 import opendial.inference.exact.NaiveInference;
 
 import org.junit.Test;
@@ -53,6 +57,33 @@ public class InferenceLargeScaleTest {
 
     public static double PERCENT_COMPARISONS = 0.5;
 
+    @Test
+    public void testSamplingThroughput() {
+        BNetwork bn = NetworkExamples.constructBasicNetwork2();
+        Query query = new Query.ProbQuery(bn, Arrays.asList("Burglary"),
+                new Assignment("JohnCalls"));
+        int nbSamples = 20000;
+        int initNbWorkers = LikelihoodWeighting.NB_WORKERS;
+        int nbCores = Runtime.getRuntime().availableProcessors();
+        try {
+            // warm-up
+            new LikelihoodWeighting(query, nbSamples, 10000);
+            for (int nbWorkers = 1; nbWorkers <= nbCores; nbWorkers *= 2) {
+                LikelihoodWeighting.NB_WORKERS = nbWorkers;
+                long start = System.nanoTime();
+                LikelihoodWeighting lw =
+                        new LikelihoodWeighting(query, nbSamples, 10000);
+                double seconds = (System.nanoTime() - start) / 1000000000.0;
+                int collected = lw.getSamples().size();
+                log.info("likelihood weighting with " + nbWorkers + " worker(s): "
+                        + (int) (nbSamples / seconds) + " samples/s");
+                assertTrue(collected > nbSamples / 2);
+            }
+        } finally {
+            LikelihoodWeighting.NB_WORKERS = initNbWorkers;
+        }
+    }
+
     @Test
     public void testNetwork() {
 
@@ -28,24 +28,46 @@ import java.util.logging.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 import opendial.bn.BNetwork;
 import opendial.bn.distribs.CategoricalTable;
+import opendial.bn.distribs.ConditionalTable;
 import opendial.bn.distribs.ContinuousDistribution;
 import opendial.bn.distribs.EmpiricalDistribution;
 import opendial.bn.distribs.MultivariateDistribution;
 import opendial.bn.distribs.MultivariateTable;
+import opendial.bn.distribs.UtilityTable;
 import opendial.bn.distribs.densityfunctions.GaussianDensityFunction;
 import opendial.bn.distribs.densityfunctions.UniformDensityFunction;
+import opendial.bn.nodes.BNode;
 import opendial.bn.nodes.ChanceNode;
+import opendial.bn.nodes.UtilityNode;
 import opendial.bn.values.ValueFactory;
 import opendial.common.NetworkExamples;
 import opendial.datastructs.Assignment;
+import opendial.inference.approximate.LikelihoodWeighting;
+import opendial.inference.approximate.Sample;
+import opendial.inference.approximate.SampleBatch;
 import opendial.inference.approximate.SamplingAlgorithm;
+import opendial.inference.exact.DoubleFactor;
+import opendial.inference.exact.JunctionTree;
 import opendial.inference.exact.NaiveInference;
+import opendial.inference.exact.TensorFactor;
 import opendial.inference.exact.VariableElimination;
+import opendial.inference.exact.VariableElimination.EliminationOrder;
+import opendial.utils.Deadline;
+import opendial.utils.RandomUtils;
+import opendial.utils.TimerWheel;
 
 import org.junit.Test;
 
@@ -338,6 +360,377 @@ public class InferenceTest {
         SwitchingAlgorithm.MAX_BRANCHING_FACTOR = oldFactor;
     }
 
+    @Test
+    public void testEliminationOrders() {
+        BNetwork bn = NetworkExamples.constructBasicNetwork();
+        Assignment evidence = new Assignment(new Assignment("JohnCalls", true),
+                new Assignment("MaryCalls", true));
+        VariableElimination topological =
+                new VariableElimination(EliminationOrder.TOPOLOGICAL);
+        MultivariateDistribution reference =
+                topological.queryProb(bn, Arrays.asList("Burglary"), evidence);
+        int referenceSize = topological.getLastStatistics().getMaxFactorSize();
+        assertEquals(Arrays.asList("Alarm", "Earthquake"),
+                new ArrayList<String>(topological.getLastStatistics()
+                        .getEliminationOrder()));
+
+        for (EliminationOrder order : EliminationOrder.values()) {
+            VariableElimination ve = new VariableElimination(order);
+            MultivariateDistribution distrib =
+                    ve.queryProb(bn, Arrays.asList("Burglary"), evidence);
+            assertEquals(reference.getProb(new Assignment("Burglary", true)),
+                    distrib.getProb(new Assignment("Burglary", true)), 0.0001);
+            assertEquals(2, ve.getLastStatistics().getEliminationOrder().size());
+            assertTrue(ve.getLastStatistics().getMaxFactorSize() <= referenceSize);
+            log.fine(order + ": " + ve.getLastStatistics());
+        }
+
+        UtilityTable refUtil = topological.queryUtil(bn,
+                Arrays.asList("Action"), new Assignment("JohnCalls", true));
+        VariableElimination minFill =
+                new VariableElimination(EliminationOrder.WEIGHTED_MIN_FILL);
+        UtilityTable util = minFill.queryUtil(bn, Arrays.asList("Action"),
+                new Assignment("JohnCalls", true));
+        for (Assignment a : refUtil.getTable().keySet()) {
+            assertEquals(refUtil.getUtil(a), util.getUtil(a), 0.0001);
+        }
+    }
+
+    @Test
+    public void testJunctionTree() {
+        BNetwork bn = NetworkExamples.constructBasicNetwork();
+        Assignment evidence = new Assignment(new Assignment("JohnCalls", true),
+                new Assignment("MaryCalls", true));
+        VariableElimination ve = new VariableElimination();
+        JunctionTree jt = new JunctionTree();
+        for (int i = 0; i < 2; i++) {
+            for (String var : Arrays.asList("Burglary", "Earthquake", "Alarm",
+                    "JohnCalls", "MaryCalls", "Action")) {
+                MultivariateDistribution expected =
+                        ve.queryProb(bn, Arrays.asList(var), evidence);
+                MultivariateDistribution actual =
+                        jt.queryProb(bn, Arrays.asList(var), evidence);
+                for (Assignment a : expected.getValues()) {
+                    assertEquals(expected.getProb(a), actual.getProb(a), 0.0001);
+                }
+            }
+        }
+        // the tree is compiled once for the chance variables, and extended for
+        // the (barren) action variable
+        assertEquals(2, jt.getNbCalibrations());
+        MultivariateDistribution joint = jt.queryProb(bn,
+                Arrays.asList("Burglary", "Alarm"), evidence);
+        assertEquals(ve.queryProb(bn, Arrays.asList("Burglary", "Alarm"), evidence)
+                .getProb(Assignment.createFromString("Burglary ^ Alarm")),
+                joint.getProb(Assignment.createFromString("Burglary ^ Alarm")),
+                0.0001);
+        assertEquals(2, jt.getNbCalibrations());
+
+        // changing the evidence or the network invalidates the tree
+        jt.queryProb(bn, Arrays.asList("Burglary"), new Assignment());
+        jt.queryProb(bn, Arrays.asList("Burglary"), new Assignment());
+        assertEquals(3, jt.getNbCalibrations());
+        CategoricalTable.Builder builder = new CategoricalTable.Builder("Burglary");
+        builder.addRow(ValueFactory.create(true), 0.5);
+        builder.addRow(ValueFactory.create(false), 0.5);
+        bn.getChanceNode("Burglary").setDistrib(builder.build());
+        jt.queryProb(bn, Arrays.asList("Alarm"), new Assignment());
+        assertEquals(0.5, jt.queryProb(bn, Arrays.asList("Burglary"),
+                new Assignment()).getProb(new Assignment("Burglary", true)),
+                0.0001);
+        assertEquals(4, jt.getNbCalibrations());
+
+        // barren continuous nodes do not prevent the compilation
+        bn.addNode(new ChanceNode("Noise", new ContinuousDistribution("Noise",
+                new UniformDensityFunction(-2, 2))));
+        bn.getNode("Noise").addInputNode(bn.getNode("MaryCalls"));
+        jt.queryProb(bn, Arrays.asList("Alarm"), evidence);
+        jt.queryProb(bn, Arrays.asList("Alarm"), evidence);
+        assertEquals(5, jt.getNbCalibrations());
+    }
+
+    @Test
+    public void testIrrelevantNodes() {
+        BNetwork bn = NetworkExamples.constructBasicNetwork();
+
+        // JohnCalls is d-separated from Burglary given Alarm
+        Assignment evidence = new Assignment(new Assignment("Alarm", true),
+                new Assignment("JohnCalls", true));
+        Query.ProbQuery query =
+                new Query.ProbQuery(bn, Arrays.asList("Burglary"), evidence);
+        assertEquals(new HashSet<String>(
+                Arrays.asList("Alarm", "Burglary", "Earthquake")),
+                getIds(query.getFilteredSortedNodes()));
+        assertEquals(
+                new VariableElimination().queryProb(bn, Arrays.asList("Burglary"),
+                        new Assignment("Alarm", true))
+                        .getProb(new Assignment("Burglary", true)),
+                new VariableElimination().queryProb(query)
+                        .getProb(new Assignment("Burglary", true)),
+                0.0001);
+
+        // without Alarm, JohnCalls is requisite
+        evidence = new Assignment("JohnCalls", true);
+        query = new Query.ProbQuery(bn, Arrays.asList("Burglary"), evidence);
+        assertEquals(new HashSet<String>(Arrays.asList("Alarm", "Burglary",
+                "Earthquake", "JohnCalls")), getIds(query.getFilteredSortedNodes()));
+
+        // the utility nodes are only relevant for utility queries
+        query = new Query.ProbQuery(bn, Arrays.asList("Action"), evidence);
+        assertEquals(new HashSet<String>(Arrays.asList("Action")),
+                getIds(query.getFilteredSortedNodes()));
+        Query.UtilQuery utilQuery =
+                new Query.UtilQuery(bn, Arrays.asList("Action"), evidence);
+        assertEquals(new HashSet<String>(Arrays.asList("Action", "Util1", "Util2",
+                "Burglary", "Earthquake", "Alarm", "JohnCalls")),
+                getIds(utilQuery.getFilteredSortedNodes()));
+        assertEquals(
+                new VariableElimination().queryUtil(utilQuery)
+                        .getUtil(new Assignment("Action", "CallPolice")),
+                new NaiveInference().queryUtil(utilQuery)
+                        .getUtil(new Assignment("Action", "CallPolice")),
+                0.0001);
+    }
+
+    @Test
+    public void testSeededSampling() {
+        BNetwork bn = NetworkExamples.constructBasicNetwork2();
+        Assignment evidence = new Assignment("JohnCalls");
+        SamplingAlgorithm is = new SamplingAlgorithm(2000, 10000);
+        int initNbWorkers = LikelihoodWeighting.NB_WORKERS;
+        try {
+            List<Double> results = new ArrayList<Double>();
+            for (int nbWorkers : Arrays.asList(1, 3, 1)) {
+                LikelihoodWeighting.NB_WORKERS = nbWorkers;
+                RandomUtils.setSeed(42);
+                results.add(is.queryProb(bn, Arrays.asList("Burglary"), evidence)
+                        .getProb(new Assignment("Burglary")));
+                results.add(is.queryProb(bn, Arrays.asList("Earthquake"), evidence)
+                        .getProb(new Assignment("Earthquake")));
+            }
+            assertEquals(results.subList(0, 2), results.subList(2, 4));
+            assertEquals(results.subList(0, 2), results.subList(4, 6));
+            assertTrue(!results.get(0).equals(results.get(1)));
+        } finally {
+            LikelihoodWeighting.NB_WORKERS = initNbWorkers;
+        }
+    }
+
+    @Test
+    public void testAnytimeSampling() {
+        BNetwork bn = NetworkExamples.constructBasicNetwork2();
+        Query.ProbQuery query = new Query.ProbQuery(bn,
+                Arrays.asList("Burglary", "Alarm"), new Assignment("MaryCalls"));
+        LikelihoodWeighting full = new LikelihoodWeighting(query, 20000, 10000);
+        assertEquals(20000, full.getSamples().size(), 100);
+        LikelihoodWeighting anytime =
+                new LikelihoodWeighting(query, 20000, 10000, 0.01);
+        assertTrue(anytime.getSamples().size() < 10000);
+        assertTrue(anytime.getEffectiveSampleSize()
+                >= LikelihoodWeighting.MIN_EFFECTIVE_SIZE);
+
+        double expected = new VariableElimination()
+                .queryProb(bn, "Burglary", new Assignment("MaryCalls"))
+                .getProb(true);
+        double actual = new SamplingAlgorithm(20000, 10000, 0.01)
+                .queryProb(query).getMarginal("Burglary").getProb(true);
+        assertEquals(expected, actual, 0.07);
+    }
+
+    @Test
+    public void testDeadlines() throws InterruptedException {
+        TimerWheel wheel = new TimerWheel(1, 8);
+        AtomicInteger nbRuns = new AtomicInteger();
+        TimerWheel.Timeout t2 = wheel.schedule(() -> nbRuns.incrementAndGet(),
+                60000, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> nbRuns.incrementAndGet(), 60000, TimeUnit.MILLISECONDS)
+                .cancel();
+        assertEquals(1, wheel.getQueueDepth());
+        TimerWheel.Timeout t1 = wheel.schedule(() -> nbRuns.incrementAndGet(), 10,
+                TimeUnit.MILLISECONDS);
+        waitUntil(() -> nbRuns.get() == 1);
+        assertTrue(t1.isExpired());
+        t2.cancel();
+        assertTrue(t2.isCancelled());
+        assertEquals(0, wheel.getQueueDepth());
+
+        // the idle wheel is resumed by new tasks
+        Thread.sleep(50);
+        wheel.schedule(() -> nbRuns.incrementAndGet(), 10, TimeUnit.MILLISECONDS);
+        waitUntil(() -> nbRuns.get() == 2);
+        assertEquals(0, wheel.getQueueDepth());
+
+        Deadline parent = new Deadline(60000);
+        Deadline shortChild = parent.createChild(20);
+        Deadline longChild = parent.createChild(120000);
+        waitUntil(() -> shortChild.isExpired());
+        assertTrue(!parent.isExpired() && !longChild.isExpired());
+        parent.cancel();
+        assertTrue(parent.isExpired() && longChild.isExpired());
+        longChild.close();
+        try (Deadline deadline = new Deadline(10000)) {
+            assertTrue(!deadline.isExpired());
+        }
+        assertTrue(new Deadline(0).isExpired());
+
+        BNetwork bn = NetworkExamples.constructBasicNetwork2();
+        Query.ProbQuery query = new Query.ProbQuery(bn, Arrays.asList("Burglary"),
+                new Assignment("JohnCalls"));
+        Deadline planning = new Deadline(10000);
+        LikelihoodWeighting lw = Deadline.callWith(planning,
+                () -> new LikelihoodWeighting(query, 1000, 10000));
+        assertEquals(1000, lw.getSamples().size());
+        planning.cancel();
+        lw = Deadline.callWith(planning,
+                () -> new LikelihoodWeighting(query, 1000, 10000));
+        assertEquals(LikelihoodWeighting.CHUNK_SIZE, lw.getSamples().size());
+    }
+
+    @Test
+    public void testSamplingTimeLimit() {
+        BNetwork bn = new BNetwork();
+        CategoricalTable.Builder builder = new CategoricalTable.Builder("X0");
+        builder.addRow(true, 0.5);
+        builder.addRow(false, 0.5);
+        bn.addNode(new ChanceNode("X0", builder.build()));
+        for (int i = 1; i < 400; i++) {
+            ConditionalTable.Builder builder2 = new ConditionalTable.Builder("X" + i);
+            for (boolean b : Arrays.asList(true, false)) {
+                Assignment condition = new Assignment("X" + (i - 1), b);
+                builder2.addRow(condition, b, 0.9);
+                builder2.addRow(condition, !b, 0.1);
+            }
+            ChanceNode node = new ChanceNode("X" + i, builder2.build());
+            node.addInputNode(bn.getNode("X" + (i - 1)));
+            bn.addNode(node);
+        }
+        Query.ProbQuery query = new Query.ProbQuery(bn, Arrays.asList("X399"),
+                new Assignment());
+
+        // the first chunk is collected even if the time limit is exceeded, and its
+        // size is reduced for large networks
+        LikelihoodWeighting lw = new LikelihoodWeighting(query, 1000, 0);
+        assertEquals(LikelihoodWeighting.MAX_CHUNK_NODES / 400,
+                lw.getSamples().size());
+        lw = new LikelihoodWeighting(query, 1000, 20);
+        assertTrue(lw.getSamples().size() > 0);
+        lw = new LikelihoodWeighting(query, 1000, 10000);
+        assertEquals(1000, lw.getSamples().size());
+    }
+
+    @Test
+    public void testSampleBatch() {
+        SampleBatch batch = new SampleBatch(4);
+        int a = batch.addColumn("A");
+        int b = batch.addColumn("B");
+        batch.setValue(a, ValueFactory.create("yes"));
+        for (int i = 0; i < 4; i++) {
+            batch.setValue(b, i, ValueFactory.create(i % 2 == 0));
+            batch.addLogWeight(i, Math.log(0.5));
+        }
+        batch.addUtility(1, 2.0);
+        batch.discard(3);
+
+        Assignment[] conditions = batch.getConditions(Arrays.asList("A", "B", "C"));
+        assertEquals(new Assignment(new Assignment("A", "yes"), "B", true),
+                conditions[0]);
+        assertTrue(conditions[0] == conditions[2]);
+        assertTrue(conditions[3] == null);
+
+        List<Sample> samples = batch.getSamples(Arrays.asList("B"), 0.1);
+        assertEquals(3, samples.size());
+        assertEquals(new Assignment("B", false), samples.get(1));
+        assertEquals(0.5, samples.get(1).getWeight(), 0.0001);
+        assertEquals(2.0, samples.get(1).getUtility(), 0.0001);
+        assertEquals(0, batch.getSamples(Arrays.asList("C"), 0.1).size());
+    }
+
+    private static Set<String> getIds(List<BNode> nodes) {
+        Set<String> ids = new HashSet<String>();
+        for (BNode node : nodes) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+
+    private static void waitUntil(BooleanSupplier condition)
+            throws InterruptedException {
+        long limit = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < limit) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void testStreamingFactors() {
+        BNetwork bn = NetworkExamples.constructBasicNetwork2();
+        List<Assignment> evidences = Arrays.asList(new Assignment(),
+                new Assignment("JohnCalls"), new Assignment(
+                        Assignment.createFromString("Alarm^!Burglary^MaryCalls")));
+        for (Assignment evidence : evidences) {
+            for (BNode node : bn.getNodes()) {
+                boolean utility = node instanceof UtilityNode;
+                DoubleFactor expected = TensorFactor
+                        .fromTable(node.getFactor(), utility).reduce(evidence)
+                        .toDoubleFactor();
+                DoubleFactor actual = TensorFactor.fromRows(
+                        rows -> node.getFactor(evidence, rows), utility, evidence)
+                        .toDoubleFactor();
+                assertEquals(expected.getProbTable(), actual.getProbTable());
+                assertEquals(expected.getUtilTable(), actual.getUtilTable());
+            }
+        }
+        ChanceNode alarm = bn.getChanceNode("Alarm");
+        Set<Assignment> conditions = new HashSet<Assignment>();
+        alarm.getPossibleConditions(new Assignment()).forEach(conditions::add);
+        assertEquals(alarm.getPossibleConditions(), conditions);
+        conditions.clear();
+        alarm.getPossibleConditions(new Assignment("Burglary"))
+                .forEach(conditions::add);
+        assertEquals(2, conditions.size());
+        assertTrue(!alarm.getPossibleConditions(new Assignment("Burglary", "maybe"))
+                .iterator().hasNext());
+    }
+
+    @Test
+    public void testTensorFactor() {
+        Map<Assignment, Double> table1 = new HashMap<Assignment, Double>();
+        table1.put(new Assignment(new Assignment("A", "a1"), "B", "b1"), 0.2);
+        table1.put(new Assignment(new Assignment("A", "a1"), "B", "b2"), 0.8);
+        table1.put(new Assignment(new Assignment("A", "a2"), "B", "b1"), 1.0);
+        Map<Assignment, Double> table2 = new HashMap<Assignment, Double>();
+        table2.put(new Assignment(new Assignment("A", "a1"), "C", "c1"), 3.0);
+        table2.put(new Assignment(new Assignment("A", "a2"), "C", "c1"), -1.0);
+        table2.put(new Assignment(new Assignment("A", "a3"), "C", "c1"), 2.0);
+
+        TensorFactor f1 = TensorFactor.fromTable(table1, false);
+        TensorFactor f2 = TensorFactor.fromTable(table2, true);
+        assertEquals(4, f1.size());
+        assertEquals(3, f1.toDoubleFactor().size());
+
+        TensorFactor product = f1.product(f2);
+        assertEquals(new HashSet<String>(Arrays.asList("A", "B", "C")),
+                new HashSet<String>(product.getVariables()));
+        DoubleFactor df = product.toDoubleFactor();
+        assertEquals(3, df.size());
+        Assignment a = new Assignment(Assignment.createFromString("A=a1^B=b2"),
+                "C", "c1");
+        assertEquals(0.8, df.getProbEntry(a), 0.0001);
+        assertEquals(3.0, df.getUtilityEntry(a), 0.0001);
+
+        DoubleFactor summed = product.sumOut("A").toDoubleFactor();
+        Assignment b1 = new Assignment(new Assignment("B", "b1"), "C", "c1");
+        assertEquals(1.2, summed.getProbEntry(b1), 0.0001);
+        assertEquals((0.2 * 3.0 - 1.0) / 1.2, summed.getUtilityEntry(b1), 0.0001);
+
+        DoubleFactor reduced = f1.reduce(new Assignment("B", "b1")).toDoubleFactor();
+        assertEquals(2, reduced.size());
+        assertEquals(1.0, reduced.getProbEntry(new Assignment("A", "a2")), 0.0001);
+        assertTrue(f1.reduce(new Assignment("B", "b3")).isEmpty());
+        assertTrue(f1.reduce(Assignment.createFromString("A=a1^B=b1")).isEmpty());
+    }
+
     /**
      * @Test public void specialUtilQueryTest() {
      *
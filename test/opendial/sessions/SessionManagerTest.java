@@ -0,0 +1,136 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.sessions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+import opendial.domains.Domain;
+import opendial.readers.XMLDomainReader;
+
+import org.junit.Test;
+
+public class SessionManagerTest {
+
+    // logger
+    public final static Logger log = Logger.getLogger("OpenDial");
+
+    public static final String domainFile = "test/domains/example-flightbooking.xml";
+
+    Domain domain = XMLDomainReader.extractDomain(domainFile);
+
+    @Test
+    public void testSessions() throws Exception {
+        SessionManager manager = new SessionManager(domain, 2);
+        manager.createSession("s1");
+        manager.createSession("s2");
+        assertEquals(2, manager.getNbSessions());
+
+        Map<String, Double> u_u = new HashMap<String, Double>();
+        u_u.put("to Bergen", 0.4);
+        u_u.put("to Bethleem", 0.2);
+        CompletableFuture<Set<String>> f1 = manager.addUserInput("s1", u_u);
+        CompletableFuture<Set<String>> f2 =
+                manager.addUserInput("s2", "to Stockholm");
+        assertTrue(f1.get().contains("a_u"));
+        assertTrue(f2.get().contains("a_u"));
+
+        DialogueSession s1 = manager.getSession("s1");
+        DialogueSession s2 = manager.getSession("s2");
+        assertEquals(0.833,
+                s1.getContent("a_u").getProb("[Inform(Airport,Bergen)]"), 0.01);
+        assertEquals("Confirm(Destination,Bergen)",
+                s1.getContent("a_m").toDiscrete().getBest().toString());
+        assertEquals(1.0, s2.getContent("a_u").getProb("[Other]"), 0.01);
+        assertTrue(domain.getInitialState() != s1.getState());
+
+        manager.closeSession("s2");
+        assertEquals(1, manager.getNbSessions());
+        manager.shutdown(1000);
+    }
+
+    @Test
+    public void testOrdering() throws Exception {
+        SessionManager manager = new SessionManager(domain, 4);
+        manager.createSession("s1");
+        List<String> order = new ArrayList<String>();
+        List<CompletableFuture<Set<String>>> futures =
+                new ArrayList<CompletableFuture<Set<String>>>();
+        for (int i = 0; i < 20; i++) {
+            String id = "" + i;
+            futures.add(manager.submit("s1", s -> {
+                order.add(id);
+                return s.getState().getChanceNodeIds();
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+        for (int i = 0; i < 20; i++) {
+            assertEquals("" + i, order.get(i));
+        }
+        manager.shutdown(1000);
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        int nbSessions = 50;
+        int nbTurns = 2;
+        int nbCores = Runtime.getRuntime().availableProcessors();
+        SessionManager manager = new SessionManager(domain, nbCores);
+
+        long time1 = System.nanoTime();
+        List<CompletableFuture<Set<String>>> futures =
+                new ArrayList<CompletableFuture<Set<String>>>();
+        for (int i = 0; i < nbSessions; i++) {
+            manager.createSession("s" + i);
+        }
+        for (int t = 0; t < nbTurns; t++) {
+            for (int i = 0; i < nbSessions; i++) {
+                futures.add(manager.addUserInput("s" + i,
+                        (t % 2 == 0) ? "to Bergen" : "yes exactly"));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+        double duration = (System.nanoTime() - time1) / 1000000000.0;
+
+        for (int i = 0; i < nbSessions; i++) {
+            assertEquals(1.0, manager.getSession("s" + i).getContent("Destination")
+                    .getProb("Bergen"), 0.01);
+        }
+        assertEquals(nbSessions * (nbTurns + 1), manager.getNbProcessedUpdates());
+        log.info("throughput with " + nbCores + " cores: "
+                + (nbSessions / duration) + " sessions/s, "
+                + (nbSessions * nbTurns / duration / nbCores)
+                + " turns/s per core");
+        manager.shutdown(1000);
+    }
+
+}
@@ -0,0 +1,199 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.sessions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.logging.Logger;
+
+import opendial.DialogueSystem;
+import opendial.UpdateExecutor;
+import opendial.bn.distribs.CategoricalTable;
+import opendial.readers.XMLDomainReader;
+
+import org.junit.Test;
+
+public class UpdateExecutorTest {
+
+    // logger
+    public final static Logger log = Logger.getLogger("OpenDial");
+
+    @Test
+    public void testOrderingAndReentrance() throws Exception {
+        UpdateExecutor executor = new UpdateExecutor();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        List<CompletableFuture<Set<String>>> futures =
+                new ArrayList<CompletableFuture<Set<String>>>();
+        for (int i = 0; i < 50; i++) {
+            int j = i;
+            futures.add(executor.submit(() -> {
+                order.add(j);
+                // nested updates are processed right away
+                return executor.submit(() -> Collections.singleton("v" + j)).join();
+            }));
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Collections.singleton("v" + i), futures.get(i).get());
+            assertEquals(i, order.get(i).intValue());
+        }
+        assertEquals(50, executor.getNbSubmitted());
+        assertEquals(100, executor.getNbProcessed());
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        UpdateExecutor executor =
+                new UpdateExecutor(Executors.newSingleThreadExecutor(), 2);
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.submit(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+            }
+            return Collections.emptySet();
+        });
+        executor.submit(() -> Collections.emptySet());
+        executor.submit(() -> Collections.emptySet());
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+            }
+            latch.countDown();
+        }).start();
+        CompletableFuture<Set<String>> last =
+                executor.submit(() -> Collections.singleton("last"));
+        assertEquals(Collections.singleton("last"), last.get());
+        assertTrue(executor.getNbBlockedSubmissions() >= 1);
+        assertTrue(executor.getBlockingTime() > 0);
+        assertEquals(2, executor.getPeakQueueSize());
+        assertEquals(0, executor.getQueueSize());
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        UpdateExecutor executor = new UpdateExecutor();
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.submit(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+            }
+            return Collections.emptySet();
+        });
+        List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+        BiFunction<CategoricalTable, Boolean, Set<String>> update = (t, f) -> {
+            processed.add(t.getBest() + "/" + f);
+            return Collections.singleton(t.getVariable());
+        };
+        CompletableFuture<Set<String>> f1 = executor.submitIncremental(
+                table("u_u", "go"), false, update, 0);
+        CompletableFuture<Set<String>> f2 = executor.submitIncremental(
+                table("u_u", "left"), true, update, 0);
+        executor.submitIncremental(table("u_m", "ok"), true, update, 0);
+        CompletableFuture<Set<String>> f3 = executor.submitIncremental(
+                table("u_u", "straight"), true, update, 0);
+        latch.countDown();
+        assertEquals(Collections.singleton("u_u"), f1.get());
+        assertTrue(f1 == f2);
+        assertTrue(f1 != f3);
+        f3.get();
+        assertEquals(1, executor.getNbMergedInputs());
+        assertEquals(0, executor.getNbDroppedInputs());
+
+        executor.submit(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+            }
+            return Collections.emptySet();
+        });
+        executor.submitIncremental(table("u_u", "turn"), true, update, 0);
+        executor.submitIncremental(table("u_u", "stop"), false, update, 0).get();
+        assertEquals(1, executor.getNbDroppedInputs());
+        assertEquals(Arrays.asList("go left/false", "ok/true", "straight/true",
+                "stop/false"), processed);
+
+        // coalescing window
+        CompletableFuture<Set<String>> f4 = executor.submitIncremental(
+                table("u_u", "a"), false, update, 100);
+        executor.submitIncremental(table("u_u", "b"), true, update, 100);
+        f4.get();
+        assertEquals("a b/false", processed.get(processed.size() - 1));
+        assertEquals(2, executor.getNbMergedInputs());
+    }
+
+    @Test
+    public void testCoalescingOrder() throws Exception {
+        UpdateExecutor executor = new UpdateExecutor();
+        List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+        BiFunction<CategoricalTable, Boolean, Set<String>> update = (t, f) -> {
+            processed.add(t.getBest().toString());
+            return Collections.singleton(t.getVariable());
+        };
+
+        // the updates submitted during the window are not overtaking the input
+        executor.submitIncremental(table("u_u", "partial"), true, update, 100);
+        executor.submit(() -> {
+            processed.add("final");
+            return Collections.emptySet();
+        });
+        executor.submitIncremental(table("u_u", "next"), false, update, 100).get();
+        assertEquals(Arrays.asList("partial", "final", "next"), processed);
+        assertEquals(0, executor.getNbDroppedInputs());
+    }
+
+    private static CategoricalTable table(String var, String value) {
+        CategoricalTable.Builder builder = new CategoricalTable.Builder(var);
+        builder.addRow(value, 0.6);
+        builder.addRow("none", 0.4);
+        return (CategoricalTable) builder.build();
+    }
+
+    @Test
+    public void testSystem() throws Exception {
+        DialogueSystem system = new DialogueSystem(XMLDomainReader
+                .extractDomain("test/domains/example-flightbooking.xml"));
+        system.getSettings().showGUI = false;
+        system.startSystem();
+        CompletableFuture<Set<String>> f1 = system.addUserInputAsync("to Bergen");
+        CompletableFuture<Set<String>> f2 = system.addUserInputAsync("yes exactly");
+        assertTrue(f1.get().contains("a_u"));
+        assertTrue(f2.get().contains("a_u"));
+        assertEquals(1.0, system.getContent("Destination").getProb("Bergen"), 0.01);
+        assertTrue(system.getUpdateExecutor().getNbProcessed() >= 3);
+        log.fine("update executor: " + system.getUpdateExecutor());
+    }
+
+}